@@ -0,0 +1,99 @@
+package dev.kcbleeker.recoverymod;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import be.seeseemelk.mockbukkit.ServerMock;
+import be.seeseemelk.mockbukkit.entity.PlayerMock;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import dev.kcbleeker.recoverymod.RecoveryTracking.TrackedItem;
+
+/**
+ * Shared setup for the benchmarks: a MockBukkit server with the plugin loaded, and
+ * synthetic tracked items. Payloads are opaque bytes, since none of the measured
+ * paths decode them.
+ */
+final class BenchmarkFixtures {
+    private static final Material[] MATERIALS = {
+        Material.DIAMOND_SWORD, Material.COBBLESTONE, Material.OAK_LOG, Material.TORCH,
+        Material.IRON_PICKAXE, Material.BREAD, Material.REDSTONE, Material.GLASS
+    };
+    // Roughly the size of a serialized enchanted tool
+    private static final int PAYLOAD_BYTES = 160;
+
+    private BenchmarkFixtures() {}
+
+    static ServerMock startServer() {
+        ServerMock server = MockBukkit.mock();
+        MockBukkit.load(RecoveryMod.class);
+        return server;
+    }
+
+    static RecoveryMod plugin() {
+        return (RecoveryMod) MockBukkit.getMock().getPluginManager().getPlugin("RecoveryMod");
+    }
+
+    static void stopServer() {
+        MockBukkit.unmock();
+    }
+
+    // Stacks for a full inventory: 36 main slots, 4 armor pieces and the offhand
+    static List<ItemStack> fullInventory() {
+        List<ItemStack> stacks = new ArrayList<>();
+        for (int i = 0; i < 36; i++) stacks.add(new ItemStack(MATERIALS[i % MATERIALS.length], 1 + i % 64));
+        stacks.add(new ItemStack(Material.DIAMOND_HELMET, 1));
+        stacks.add(new ItemStack(Material.DIAMOND_CHESTPLATE, 1));
+        stacks.add(new ItemStack(Material.DIAMOND_LEGGINGS, 1));
+        stacks.add(new ItemStack(Material.DIAMOND_BOOTS, 1));
+        stacks.add(new ItemStack(Material.SHIELD, 1));
+        return stacks;
+    }
+
+    static PlayerMock addPlayerWithFullInventory(ServerMock server) {
+        PlayerMock player = server.addPlayer();
+        List<ItemStack> stacks = fullInventory();
+        for (int i = 0; i < 36; i++) player.getInventory().setItem(i, stacks.get(i));
+        player.getInventory().setArmorContents(stacks.subList(36, 40).toArray(new ItemStack[0]));
+        player.getInventory().setItemInOffHand(stacks.get(40));
+        return player;
+    }
+
+    static TrackedItem item(int i, ItemState state, UUID dropId) {
+        byte[] payload = new byte[PAYLOAD_BYTES];
+        new Random(i).nextBytes(payload);
+        TrackedItem ti = new TrackedItem(MATERIALS[i % MATERIALS.length], 1 + i % 64, ItemState.UNKNOWN, null, payload);
+        if (state == ItemState.ON_GROUND) return ti.withDrop(dropId);
+        return state == ItemState.UNKNOWN ? ti : ti.withState(state);
+    }
+
+    // Every item assigned to a distinct drop, as after drop assignment
+    static List<TrackedItem> onGroundItems(int count) {
+        List<TrackedItem> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) items.add(item(i, ItemState.ON_GROUND, UUID.randomUUID()));
+        return items;
+    }
+
+    // Alternating despawned and on-ground items, the mix a list command usually sees
+    static List<TrackedItem> mixedItems(int count) {
+        List<TrackedItem> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(i % 2 == 0 ? item(i, ItemState.DESPAWNED, null) : item(i, ItemState.ON_GROUND, UUID.randomUUID()));
+        }
+        return items;
+    }
+
+    static File createTempFolder() throws IOException {
+        return Files.createTempDirectory("recoverymod-bench").toFile();
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) deleteRecursively(child);
+        }
+        file.delete();
+    }
+}
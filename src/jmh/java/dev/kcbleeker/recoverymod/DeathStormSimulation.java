@@ -0,0 +1,211 @@
+package dev.kcbleeker.recoverymod;
+
+import be.seeseemelk.mockbukkit.ServerMock;
+import be.seeseemelk.mockbukkit.entity.PlayerMock;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.command.Command;
+import org.bukkit.entity.Item;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityPickupItemEvent;
+import org.bukkit.event.entity.EntityRemoveEvent;
+import org.bukkit.event.entity.ItemMergeEvent;
+import org.bukkit.event.entity.ItemSpawnEvent;
+import org.bukkit.event.entity.PlayerDeathEvent;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.PluginManager;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Whole-plugin load test: many players die within a few seconds next to an item farm,
+ * and the plugin's listeners and /recover run through the event bus of a MockBukkit
+ * server, tick by tick. Reports tick times, server-thread allocation, file writes and
+ * peak tracked items; with --max-p99-ms it exits non-zero when the p99 tick is slower.
+ *
+ * mvn -P benchmark test-compile exec:exec@simulate -Dsim.args="--players 200"
+ */
+public class DeathStormSimulation implements Listener {
+    // Workload, overridable as --name value
+    int players = 200;
+    int stormTicks = 100; // deaths are spread evenly over these ticks
+    int farmItems = 2000; // unrelated items lying around before the storm
+    int farmRate = 20; // unrelated items spawned per tick throughout
+    double mergeRate = 0.2; // share of each death's drops merged into the next one, as a cascade
+    double pickupRate = 0.1; // share of each death's drops picked up right away
+    int despawnTick = 300; // all remaining drops despawn at once on this tick
+    int recoverTicks = 100; // after the despawn, /recover list and /recover run for every player over these ticks
+    int tailTicks = 100; // quiet ticks at the end, for the writer and sweeps to catch up
+    double maxP99Ms = 0; // regression gate; 0 disables it
+
+    private ServerMock server;
+    private RecoveryMod plugin;
+    private PluginManager pluginManager;
+    private Location location;
+    private int spawnEvents;
+    private final Random random = new Random(42);
+    private final List<Item> drops = new ArrayList<>();
+
+    public static void main(String[] args) {
+        DeathStormSimulation simulation = new DeathStormSimulation();
+        simulation.parse(args);
+        System.exit(simulation.run() ? 0 : 1);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--players": players = Integer.parseInt(value); break;
+                case "--storm-ticks": stormTicks = Integer.parseInt(value); break;
+                case "--farm-items": farmItems = Integer.parseInt(value); break;
+                case "--farm-rate": farmRate = Integer.parseInt(value); break;
+                case "--merge-rate": mergeRate = Double.parseDouble(value); break;
+                case "--pickup-rate": pickupRate = Double.parseDouble(value); break;
+                case "--despawn-tick": despawnTick = Integer.parseInt(value); break;
+                case "--recover-ticks": recoverTicks = Integer.parseInt(value); break;
+                case "--tail-ticks": tailTicks = Integer.parseInt(value); break;
+                case "--max-p99-ms": maxP99Ms = Double.parseDouble(value); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+    }
+
+    // Returns false if the regression gate failed
+    boolean run() {
+        server = BenchmarkFixtures.startServer();
+        try {
+            plugin = BenchmarkFixtures.plugin();
+            pluginManager = server.getPluginManager();
+            pluginManager.registerEvents(this, plugin);
+            return simulate();
+        } finally {
+            BenchmarkFixtures.stopServer();
+        }
+    }
+
+    private boolean simulate() {
+        List<PlayerMock> victims = new ArrayList<>();
+        for (int i = 0; i < players; i++) victims.add(BenchmarkFixtures.addPlayerWithFullInventory(server));
+        PlayerMock admin = server.addPlayer();
+        admin.setOp(true);
+        Command recover = plugin.getCommand("recover");
+        location = admin.getLocation();
+        for (int i = 0; i < farmItems; i++) spawn(new ItemStack(Material.ROTTEN_FLESH, 1 + random.nextInt(64)));
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        int totalTicks = despawnTick + recoverTicks + tailTicks;
+        long[] tickNanos = new long[totalTicks];
+        long peakItems = 0;
+        long peakHeap = 0;
+        int nextVictim = 0;
+        int nextRecover = 0;
+        for (int tick = 0; tick < totalTicks; tick++) {
+            long start = System.nanoTime();
+            // Deaths due by this tick, spread evenly over the storm
+            int dueVictims = tick < stormTicks ? (int) ((long) players * (tick + 1) / stormTicks) : players;
+            while (nextVictim < dueVictims) die(victims.get(nextVictim++));
+            for (int i = 0; i < farmRate; i++) spawn(new ItemStack(Material.ROTTEN_FLESH, 1 + random.nextInt(64)));
+            if (tick == despawnTick) despawnAll();
+            if (tick > despawnTick && tick <= despawnTick + recoverTicks) {
+                int dueRecovers = (int) ((long) players * (tick - despawnTick) / recoverTicks);
+                while (nextRecover < dueRecovers) {
+                    String name = victims.get(nextRecover++).getName();
+                    plugin.onCommand(admin, recover, "recover", new String[] {name, "list"});
+                    plugin.onCommand(admin, recover, "recover", new String[] {name});
+                }
+            }
+            server.getScheduler().performOneTick();
+            tickNanos[tick] = System.nanoTime() - start;
+            // Replies would otherwise pile up on the mock
+            while (admin.nextMessage() != null) { }
+            peakItems = Math.max(peakItems, plugin.getTrackingCache().residentItems());
+            Runtime rt = Runtime.getRuntime();
+            peakHeap = Math.max(peakHeap, rt.totalMemory() - rt.freeMemory());
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        return report(tickNanos, allocated, peakItems, peakHeap);
+    }
+
+    // The death event, then the drops spawning right after it in the same tick, then the storm around them
+    private void die(PlayerMock player) {
+        List<ItemStack> stacks = new ArrayList<>();
+        for (ItemStack stack : player.getInventory().getContents()) {
+            if (stack != null) stacks.add(stack.clone());
+        }
+        pluginManager.callEvent(new PlayerDeathEvent(player, stacks, 0, (String) null));
+        player.getInventory().clear();
+        List<Item> spawned = new ArrayList<>();
+        for (ItemStack stack : stacks) spawned.add(spawn(stack));
+        // Merge cascade: each merged drop feeds the next one
+        for (int i = 0; i + 1 < spawned.size(); i++) {
+            if (random.nextDouble() >= mergeRate) continue;
+            Item source = spawned.get(i);
+            pluginManager.callEvent(new ItemMergeEvent(source, spawned.get(i + 1)));
+            source.remove();
+            spawned.set(i, null);
+        }
+        for (int i = 0; i < spawned.size(); i++) {
+            Item drop = spawned.get(i);
+            if (drop == null) continue;
+            if (random.nextDouble() < pickupRate) {
+                pluginManager.callEvent(new EntityPickupItemEvent(player, drop, 0));
+                drop.remove();
+            } else {
+                drops.add(drop);
+            }
+        }
+    }
+
+    private void despawnAll() {
+        for (Item drop : drops) {
+            pluginManager.callEvent(new EntityRemoveEvent(drop, EntityRemoveEvent.Cause.DESPAWN));
+            drop.remove();
+        }
+        drops.clear();
+    }
+
+    // Drops an item like the server does; the spawn event is fired here unless the mock already did
+    private Item spawn(ItemStack stack) {
+        int before = spawnEvents;
+        Item item = location.getWorld().dropItem(location, stack, it -> it.setPickupDelay(40));
+        if (spawnEvents == before) pluginManager.callEvent(new ItemSpawnEvent(item));
+        return item;
+    }
+
+    @EventHandler
+    public void countSpawn(ItemSpawnEvent event) {
+        spawnEvents++;
+    }
+
+    private boolean report(long[] tickNanos, long allocated, long peakItems, long peakHeap) {
+        long[] sorted = tickNanos.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long nanos : sorted) total += nanos;
+        double p99 = millis(sorted[(int) Math.min(sorted.length - 1, Math.ceil(0.99 * sorted.length) - 1)]);
+        RecoveryMetrics metrics = plugin.getMetrics();
+        System.out.printf("Death storm: %d players over %d ticks, %d farm items (+%d/tick), merge %.0f%%, pickup %.0f%%%n",
+                players, stormTicks, farmItems, farmRate, mergeRate * 100, pickupRate * 100);
+        System.out.printf("ticks: %d  mean %.3f ms  p50 %.3f ms  p99 %.3f ms  max %.3f ms%n", sorted.length,
+                millis(total / sorted.length), millis(sorted[sorted.length / 2]), p99, millis(sorted[sorted.length - 1]));
+        System.out.printf("allocated on the server thread: %.1f MB (%.1f KB/tick)%n",
+                allocated / 1048576.0, allocated / 1024.0 / sorted.length);
+        System.out.printf("files written: %d (%.1f KB), journal entries: %d%n", metrics.get(RecoveryMetrics.Counter.FILES_WRITTEN),
+                metrics.get(RecoveryMetrics.Counter.BYTES_WRITTEN) / 1024.0, metrics.get(RecoveryMetrics.Counter.JOURNAL_ENTRIES));
+        System.out.printf("peak tracked items: %d, peak heap used: %.1f MB%n", peakItems, peakHeap / 1048576.0);
+        for (String line : metrics.summary()) System.out.println("  " + line);
+        if (maxP99Ms > 0 && p99 > maxP99Ms) {
+            System.out.printf("FAIL: p99 tick %.3f ms is over the %.3f ms limit%n", p99, maxP99Ms);
+            return false;
+        }
+        return true;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
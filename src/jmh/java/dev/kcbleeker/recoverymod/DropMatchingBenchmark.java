@@ -0,0 +1,75 @@
+package dev.kcbleeker.recoverymod;
+
+import be.seeseemelk.mockbukkit.ServerMock;
+import be.seeseemelk.mockbukkit.entity.PlayerMock;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.entity.Item;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import dev.kcbleeker.recoverymod.RecoveryTracking.TrackedItem;
+
+/**
+ * Matching a death's drops to tracked items as they spawn, as done by {@code onItemSpawn},
+ * with a varying number of unrelated items spawning at the same spot within the window.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DropMatchingBenchmark {
+    @Param({"0", "64", "512"})
+    public int otherEntities;
+
+    private PlayerMock player;
+    private Location location;
+    private List<TrackedItem> captured;
+    // Unrelated spawns first, then the death drops, as an item farm next to the death would interleave them
+    private final List<Item> spawned = new ArrayList<>();
+    private final long deathTimestamp = System.currentTimeMillis();
+    private TrackingCache cache;
+    private DropAssignmentManager manager;
+
+    @Setup
+    public void setUp() {
+        ServerMock server = BenchmarkFixtures.startServer();
+        RecoveryMod plugin = BenchmarkFixtures.plugin();
+        player = BenchmarkFixtures.addPlayerWithFullInventory(server);
+        captured = plugin.serializeInventory(player);
+        location = player.getLocation();
+        // Unrelated items at the same spot; none of them matches a tracked stack
+        for (int i = 0; i < otherEntities; i++) spawned.add(drop(location, new ItemStack(Material.DIRT, 1)));
+        for (ItemStack stack : BenchmarkFixtures.fullInventory()) spawned.add(drop(location, stack));
+        cache = new TrackingCache(id -> null, id -> true, id -> true, (id, tracking) -> {}, Integer.MAX_VALUE);
+        manager = new DropAssignmentManager(plugin, cache, (id, entry) -> {}, new RecoveryMetrics(), new Schedulers(plugin));
+    }
+
+    private static Item drop(Location location, ItemStack stack) {
+        Item item = location.getWorld().dropItem(location, stack);
+        item.setPickupDelay(40);
+        return item;
+    }
+
+    // Assignment fills in the slots, so every invocation starts from the freshly captured state
+    @Setup(Level.Invocation)
+    public void resetTracking() {
+        cache.put(player.getUniqueId(), new PlayerTracking(captured,
+                Collections.singletonList(new DeathRecord(deathTimestamp, 0, captured.size()))));
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFixtures.stopServer();
+    }
+
+    @Benchmark
+    public PlayerTracking assignDrops() {
+        DropAssignmentManager.Window window = manager.open(player.getUniqueId(), location, deathTimestamp);
+        for (Item item : spawned) manager.onItemSpawn(item);
+        manager.close(window);
+        return cache.peek(player.getUniqueId());
+    }
+}
@@ -0,0 +1,38 @@
+package dev.kcbleeker.recoverymod;
+
+import be.seeseemelk.mockbukkit.ServerMock;
+import be.seeseemelk.mockbukkit.entity.PlayerMock;
+import org.openjdk.jmh.annotations.*;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import dev.kcbleeker.recoverymod.RecoveryTracking.TrackedItem;
+
+/**
+ * Capture of a full inventory on death, as done by {@code serializeInventory}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class InventoryCaptureBenchmark {
+    private RecoveryMod plugin;
+    private PlayerMock player;
+
+    @Setup
+    public void setUp() {
+        ServerMock server = BenchmarkFixtures.startServer();
+        plugin = BenchmarkFixtures.plugin();
+        player = BenchmarkFixtures.addPlayerWithFullInventory(server);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFixtures.stopServer();
+    }
+
+    @Benchmark
+    public List<TrackedItem> captureFullInventory() {
+        return plugin.serializeInventory(player);
+    }
+}
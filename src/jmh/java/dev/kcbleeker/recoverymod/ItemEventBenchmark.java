@@ -0,0 +1,87 @@
+package dev.kcbleeker.recoverymod;
+
+import be.seeseemelk.mockbukkit.ServerMock;
+import be.seeseemelk.mockbukkit.entity.PlayerMock;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.entity.Item;
+import org.bukkit.event.entity.EntityRemoveEvent;
+import org.bukkit.event.entity.ItemMergeEvent;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import dev.kcbleeker.recoverymod.RecoveryTracking.TrackedItem;
+
+/**
+ * Despawn and merge handling for a player with many tracked items. The handlers are
+ * called directly, so event dispatch is not part of the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ItemEventBenchmark {
+    @Param({"41", "1000", "10000"})
+    public int trackedItems;
+
+    private RecoveryMod plugin;
+    private UUID playerId;
+    private List<TrackedItem> items;
+    private Item despawning;
+    private Item mergeSource;
+    private Item mergeTarget;
+    private Item untracked;
+
+    @Setup
+    public void setUp() {
+        ServerMock server = BenchmarkFixtures.startServer();
+        plugin = BenchmarkFixtures.plugin();
+        PlayerMock player = server.addPlayer();
+        playerId = player.getUniqueId();
+        Location location = player.getLocation();
+        despawning = location.getWorld().dropItem(location, new ItemStack(Material.COBBLESTONE, 16));
+        mergeSource = location.getWorld().dropItem(location, new ItemStack(Material.COBBLESTONE, 16));
+        mergeTarget = location.getWorld().dropItem(location, new ItemStack(Material.COBBLESTONE, 16));
+        untracked = location.getWorld().dropItem(location, new ItemStack(Material.DIRT, 1));
+        items = BenchmarkFixtures.onGroundItems(trackedItems);
+        // The drops the events refer to sit at the end, behind every other tracked item
+        int last = items.size() - 1;
+        items.set(last - 2, items.get(last - 2).withDrop(despawning.getUniqueId()));
+        items.set(last - 1, items.get(last - 1).withDrop(mergeSource.getUniqueId()));
+        items.set(last, items.get(last).withDrop(mergeTarget.getUniqueId()));
+        for (int slot = 0; slot < items.size(); slot++) plugin.indexDrop(items.get(slot).getDropId(), playerId, slot);
+    }
+
+    // The handlers change the tracking and the index, so each invocation starts over
+    @Setup(Level.Invocation)
+    public void resetTracking() {
+        plugin.getTrackingCache().put(playerId, new PlayerTracking(items));
+        int last = items.size() - 1;
+        plugin.indexDrop(despawning.getUniqueId(), playerId, last - 2);
+        plugin.indexDrop(mergeSource.getUniqueId(), playerId, last - 1);
+        plugin.indexDrop(mergeTarget.getUniqueId(), playerId, last);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFixtures.stopServer();
+    }
+
+    @Benchmark
+    public void despawn() {
+        plugin.onEntityRemoved(new EntityRemoveEvent(despawning, EntityRemoveEvent.Cause.DESPAWN));
+    }
+
+    @Benchmark
+    public void merge() {
+        plugin.onItemMerge(new ItemMergeEvent(mergeSource, mergeTarget));
+    }
+
+    // The common case: an event for an item nobody tracks
+    @Benchmark
+    public void untrackedDespawn() {
+        plugin.onEntityRemoved(new EntityRemoveEvent(untracked, EntityRemoveEvent.Cause.DESPAWN));
+    }
+}
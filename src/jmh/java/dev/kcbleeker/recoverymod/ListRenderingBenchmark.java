@@ -0,0 +1,65 @@
+package dev.kcbleeker.recoverymod;
+
+import be.seeseemelk.mockbukkit.ServerMock;
+import be.seeseemelk.mockbukkit.entity.PlayerMock;
+import net.kyori.adventure.text.Component;
+import org.bukkit.command.Command;
+import org.openjdk.jmh.annotations.*;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import dev.kcbleeker.recoverymod.RecoveryTracking.TrackedItem;
+
+/**
+ * {@code /recover <player> list}: rendering a page from scratch, and the command path,
+ * which after the first call is served from the rendered page cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ListRenderingBenchmark {
+    @Param({"41", "1000"})
+    public int trackedItems;
+
+    private RecoveryMod plugin;
+    private PlayerMock player;
+    private Command command;
+    private String[] args;
+    private List<TrackedItem> firstPage;
+    private String[] headers;
+    private int pages;
+
+    @Setup
+    public void setUp() {
+        ServerMock server = BenchmarkFixtures.startServer();
+        plugin = BenchmarkFixtures.plugin();
+        player = server.addPlayer();
+        player.setOp(true);
+        List<TrackedItem> items = BenchmarkFixtures.mixedItems(trackedItems);
+        plugin.getTrackingCache().put(player.getUniqueId(), new PlayerTracking(items));
+        firstPage = items.subList(0, 10);
+        headers = new String[firstPage.size()];
+        headers[0] = "Death #1 (0m ago)";
+        pages = (items.size() + 9) / 10;
+        command = plugin.getCommand("recover");
+        args = new String[] {player.getName(), "list"};
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFixtures.stopServer();
+    }
+
+    @Benchmark
+    public Component renderPage() {
+        return RecoveryCommandHandler.renderListPage(player.getName(), "", firstPage, headers, 1, pages);
+    }
+
+    @Benchmark
+    public Component listCommand() {
+        plugin.onCommand(player, command, "recover", args);
+        // Taking the message off the mock's queue keeps it from growing without bound
+        return player.nextComponentMessage();
+    }
+}
@@ -0,0 +1,66 @@
+package dev.kcbleeker.recoverymod;
+
+import org.openjdk.jmh.annotations.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracking snapshot writes and reads through each {@link StorageBackend}. Runs without
+ * a server: nothing on this path touches the Bukkit API beyond {@code Material}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PersistenceBenchmark {
+    @Param({"41", "1000"})
+    public int itemCount;
+
+    @Param({"true", "false"})
+    public boolean compress;
+
+    @Param({"file", "sqlite"})
+    public String backend;
+
+    private File folder;
+    private StorageBackend storage;
+    private PlayerTracking tracking;
+    private final UUID playerId = UUID.randomUUID();
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = BenchmarkFixtures.createTempFolder();
+        RecoveryMetrics metrics = new RecoveryMetrics();
+        storage = backend.equals("sqlite")
+                ? new SqliteStorage(new File(folder, SqliteStorage.FILE_NAME), compress, metrics)
+                : new RecoveryPersistence(folder, compress, metrics);
+        storage.open();
+        tracking = new PlayerTracking(BenchmarkFixtures.mixedItems(itemCount));
+        storage.saveTracking(playerId, tracking);
+    }
+
+    @TearDown
+    public void tearDown() {
+        storage.close();
+        BenchmarkFixtures.deleteRecursively(folder);
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        storage.saveTracking(playerId, tracking);
+    }
+
+    @Benchmark
+    public PlayerTracking load() {
+        return storage.loadTracking(playerId);
+    }
+
+    @Benchmark
+    public PlayerTracking roundTrip() throws IOException {
+        storage.saveTracking(playerId, tracking);
+        return storage.loadTracking(playerId);
+    }
+}
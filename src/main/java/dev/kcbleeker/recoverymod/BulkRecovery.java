@@ -0,0 +1,261 @@
+package dev.kcbleeker.recoverymod;
+
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import dev.kcbleeker.recoverymod.RecoveryTracking.TrackedItem;
+
+/**
+ * /recover * : restores every player at once, e.g. after a crash. Players whose stored
+ * counts show nothing to restore are skipped without loading them. The rest are loaded
+ * and decoded off the server threads a chunk at a time, handed out a few players per
+ * tick on the global region, and each chunk's changed tracking is saved in one batch and
+ * released before the next chunk is loaded, so a run holds at most one chunk resident.
+ */
+public class BulkRecovery {
+    private static final long TICK_BUDGET_NANOS = 2_000_000L;
+    private static final int MAX_PLAYERS_PER_TICK = 20;
+    private static final long PROGRESS_INTERVAL_MILLIS = 5_000;
+    // A chunk ends at whichever comes first
+    private static final int PLAYERS_PER_CHUNK = 256;
+    private static final int ITEMS_PER_CHUNK = 20_000;
+
+    // One player's share of the run
+    private static final class Job {
+        final UUID playerId;
+        final PlayerTracking tracking;
+        final List<DeathRecord> deaths = new ArrayList<>();
+        // Per death in deaths, the items to hand out
+        final List<List<TrackedItem>> items = new ArrayList<>();
+        // Decoded up front for players who were online when the run was collected
+        final Map<TrackedItem, ItemStack> decoded = new IdentityHashMap<>();
+
+        Job(UUID playerId, PlayerTracking tracking) {
+            this.playerId = playerId;
+            this.tracking = tracking;
+        }
+    }
+
+    // Progress of one run; handed between the async and global threads, never used by both at once
+    private static final class Run {
+        final List<UUID> players;
+        final long since;
+        final boolean force;
+        int next; // first player not collected yet
+        int recovered;
+        int stacks;
+        int queued; // stacks waiting for offline players
+        long lastProgress = System.currentTimeMillis();
+
+        Run(List<UUID> players, long since, boolean force) {
+            this.players = players;
+            this.since = since;
+            this.force = force;
+        }
+    }
+
+    private final TrackingCache trackedItems;
+    private final StorageBackend storage;
+    private final PersistenceWriter writer;
+    private final PendingDeliveries deliveries;
+    private final Schedulers schedulers;
+    private final RecoveryMetrics metrics;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    // Players of the current chunk, kept resident until its save is queued
+    private final Set<UUID> held = ConcurrentHashMap.newKeySet();
+
+    public BulkRecovery(TrackingCache trackedItems, StorageBackend storage, PersistenceWriter writer,
+                        PendingDeliveries deliveries, Schedulers schedulers, RecoveryMetrics metrics) {
+        this.trackedItems = trackedItems;
+        this.storage = storage;
+        this.writer = writer;
+        this.deliveries = deliveries;
+        this.schedulers = schedulers;
+        this.metrics = metrics;
+    }
+
+    // The tracking cache must not evict these: changes made here are only saved at the end of the chunk
+    public boolean isHeld(UUID playerId) {
+        return held.contains(playerId);
+    }
+
+    /**
+     * Starts a run over deaths at or after since (0 for all). Only despawned items are
+     * restored unless force is set, in which case all tracked items of those deaths are.
+     */
+    public void start(CommandSender sender, long since, boolean force) {
+        if (!running.compareAndSet(false, true)) {
+            sender.sendMessage("A bulk recovery is already running.");
+            return;
+        }
+        sender.sendMessage("Collecting players to recover...");
+        schedulers.runAsync(() -> {
+            List<UUID> players;
+            try {
+                players = candidates(since, force);
+            } catch (RuntimeException e) {
+                running.set(false);
+                sender.sendMessage("Bulk recovery failed: " + e.getMessage());
+                throw e;
+            }
+            if (players.isEmpty()) {
+                running.set(false);
+                sender.sendMessage("Nothing to recover.");
+                return;
+            }
+            sender.sendMessage("Checking " + players.size() + " players...");
+            nextChunk(sender, new Run(players, since, force));
+        });
+    }
+
+    // Off the server threads; decided from stored metadata alone for players not loaded
+    private List<UUID> candidates(long since, boolean force) {
+        Set<UUID> players = new HashSet<>(storage.players());
+        players.addAll(trackedItems.residentPlayers());
+        List<UUID> candidates = new ArrayList<>();
+        for (UUID playerId : players) {
+            if (!trackedItems.isLoaded(playerId)) {
+                if (since > 0 && storage.getLastDeath(playerId) < since) continue;
+                if (!force && storage.getDespawnedCount(playerId) == 0) continue;
+            }
+            candidates.add(playerId);
+        }
+        return candidates;
+    }
+
+    // Off the server threads: collects the next chunk and starts handing it out, or ends the run
+    private void nextChunk(CommandSender sender, Run run) {
+        List<Job> jobs;
+        try {
+            jobs = collect(run);
+        } catch (RuntimeException e) {
+            held.clear();
+            running.set(false);
+            sender.sendMessage("Bulk recovery failed: " + e.getMessage());
+            throw e;
+        }
+        if (jobs.isEmpty()) {
+            finish(sender, run);
+            return;
+        }
+        apply(sender, run, jobs);
+    }
+
+    // Loads players until the chunk is full or none are left
+    private List<Job> collect(Run run) {
+        List<Job> jobs = new ArrayList<>();
+        int items = 0;
+        while (run.next < run.players.size() && jobs.size() < PLAYERS_PER_CHUNK && items < ITEMS_PER_CHUNK) {
+            UUID playerId = run.players.get(run.next++);
+            // Held before loading, so the instance read here is the one that stays resident
+            held.add(playerId);
+            Job job = select(playerId, trackedItems.get(playerId), run.since, run.force);
+            if (job == null) {
+                held.remove(playerId);
+                continue;
+            }
+            if (Bukkit.getPlayer(playerId) != null) {
+                for (List<TrackedItem> part : job.items) {
+                    for (TrackedItem ti : part) job.decoded.put(ti, ti.toItemStack());
+                }
+            }
+            items += job.tracking.size();
+            jobs.add(job);
+        }
+        return jobs;
+    }
+
+    private static Job select(UUID playerId, PlayerTracking tracking, long since, boolean force) {
+        if (tracking == null || tracking.isEmpty()) return null;
+        Job job = new Job(playerId, tracking);
+        for (DeathRecord death : tracking.deaths()) {
+            if (death.getTimestamp() < since) continue;
+            List<TrackedItem> items = new ArrayList<>();
+            for (TrackedItem ti : tracking.items(death)) {
+                if (force || ti.getState() == ItemState.DESPAWNED) items.add(ti);
+            }
+            if (items.isEmpty()) continue;
+            job.deaths.add(death);
+            job.items.add(items);
+        }
+        return job.deaths.isEmpty() ? null : job;
+    }
+
+    private void apply(CommandSender sender, Run run, List<Job> jobs) {
+        Iterator<Job> remaining = jobs.iterator();
+        Map<UUID, PlayerTracking> changed = new HashMap<>();
+        ScheduledTask[] task = new ScheduledTask[1];
+        task[0] = schedulers.runGlobalTimer(() -> {
+            long start = System.nanoTime();
+            int players = 0;
+            while (remaining.hasNext() && players++ < MAX_PLAYERS_PER_TICK
+                    && System.nanoTime() - start < TICK_BUDGET_NANOS) {
+                Job job = remaining.next();
+                int stacks = restore(job);
+                changed.put(job.playerId, job.tracking);
+                run.recovered++;
+                run.stacks += stacks;
+                if (Bukkit.getPlayer(job.playerId) == null) run.queued += stacks;
+            }
+            metrics.record(RecoveryMetrics.Timer.BULK_RECOVERY, start);
+            long now = System.currentTimeMillis();
+            if (now - run.lastProgress >= PROGRESS_INTERVAL_MILLIS) {
+                run.lastProgress = now;
+                sender.sendMessage("Bulk recovery: " + run.recovered + " players recovered, "
+                        + run.next + "/" + run.players.size() + " checked.");
+            }
+            if (remaining.hasNext()) return;
+            if (task[0] != null) task[0].cancel();
+            // One coalesced save for everything this chunk changed; queued before its players are released
+            writer.submitTrackingBatch(changed);
+            for (UUID playerId : changed.keySet()) trackedItems.markIfEmpty(playerId);
+            held.removeAll(changed.keySet());
+            schedulers.runAsync(() -> nextChunk(sender, run));
+        }, 1L, 1L);
+    }
+
+    private void finish(CommandSender sender, Run run) {
+        held.clear();
+        running.set(false);
+        if (run.recovered == 0) {
+            sender.sendMessage("Nothing to recover.");
+            return;
+        }
+        sender.sendMessage("Bulk recovery done: " + run.stacks + " stacks for " + run.recovered + " players, "
+                + run.queued + " of them waiting for offline players to join.");
+    }
+
+    // Global region; returns the number of stacks handed out
+    private int restore(Job job) {
+        // Only what is still tracked as it was collected: anything picked up meanwhile is skipped
+        List<TrackedItem> items = new ArrayList<>();
+        for (int i = 0; i < job.deaths.size(); i++) items.addAll(job.tracking.takeIfSame(job.deaths.get(i), job.items.get(i)));
+        if (items.isEmpty()) return 0;
+        Player player = Bukkit.getPlayer(job.playerId);
+        if (player == null) {
+            deliveries.add(job.playerId, items);
+            return items.size();
+        }
+        schedulers.runForEntity(player, () -> {
+            ItemStack[] stacks = new ItemStack[items.size()];
+            for (int i = 0; i < stacks.length; i++) {
+                // Not decoded yet if the player joined after the run was collected
+                ItemStack stack = job.decoded.get(items.get(i));
+                stacks[i] = stack != null ? stack : items.get(i).toItemStack();
+            }
+            List<TrackedItem> overflow = PendingDeliveries.give(player, stacks);
+            if (overflow.isEmpty()) return;
+            deliveries.add(job.playerId, overflow);
+            player.sendMessage(overflow.size() + " recovered stacks did not fit in your inventory. "
+                    + "They will be delivered when you next join.");
+        }, () -> deliveries.add(job.playerId, items));
+        return items.size();
+    }
+}
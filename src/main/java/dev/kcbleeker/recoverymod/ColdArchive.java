@@ -0,0 +1,481 @@
+package dev.kcbleeker.recoverymod;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.temporal.TemporalAdjusters;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+
+/**
+ * Cold tier of the file backend: data of players who have not died for a while, packed
+ * into archive files by the week of their last death. Each player's death snapshot and
+ * tracking are separately deflated records, and the pack ends with an index of them, so
+ * one player is read without touching the rest of the pack.
+ *
+ * Packs are written once and never changed. A player taken out again (moved back to the
+ * hot folder, or expired) is recorded in a small tombstone file next to the pack, and a
+ * week's packs are merged, leaving dead records behind, as they grow.
+ *
+ * Changes come from the persistence thread only; reads may come from any thread.
+ */
+public class ColdArchive {
+    public static final String EXTENSION = ".pack";
+    private static final String TOMBSTONE_EXTENSION = ".del";
+    // Written once and read rarely, so worth the slowest level
+    static final int DEFLATE_LEVEL = Deflater.BEST_COMPRESSION;
+
+    private static final int MAGIC = 0x524D504B; // "RMPK"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 1;
+    // Index offset and magic again, so a truncated pack is detected
+    private static final int FOOTER_SIZE = 8 + 4;
+
+    // Where one player's data sits in a pack
+    public static final class Entry {
+        final UUID playerId;
+        final Pack pack;
+        final long lastDeath;
+        final long trackingTimestamp;
+        final int itemCount;
+        final int despawnedCount;
+        // A length of 0 means the player had no such file
+        final long inventoryOffset;
+        final int inventoryLength;
+        final long trackingOffset;
+        final int trackingLength;
+
+        Entry(UUID playerId, Pack pack, long lastDeath, long trackingTimestamp, int itemCount, int despawnedCount,
+              long inventoryOffset, int inventoryLength, long trackingOffset, int trackingLength) {
+            this.playerId = playerId;
+            this.pack = pack;
+            this.lastDeath = lastDeath;
+            this.trackingTimestamp = trackingTimestamp;
+            this.itemCount = itemCount;
+            this.despawnedCount = despawnedCount;
+            this.inventoryOffset = inventoryOffset;
+            this.inventoryLength = inventoryLength;
+            this.trackingOffset = trackingOffset;
+            this.trackingLength = trackingLength;
+        }
+
+        public long getLastDeath() {
+            return lastDeath;
+        }
+
+        public int getItemCount() {
+            return itemCount;
+        }
+
+        public int getDespawnedCount() {
+            return despawnedCount;
+        }
+
+        public boolean hasInventory() {
+            return inventoryLength != 0;
+        }
+
+        public boolean hasTracking() {
+            return trackingLength != 0;
+        }
+
+        // The archived data expires, and is filed, by this
+        public long newest() {
+            return Math.max(lastDeath, trackingTimestamp);
+        }
+
+        long bytes() {
+            return (long) inventoryLength + trackingLength;
+        }
+    }
+
+    // One player's data to archive, already encoded; either file may be null
+    public static final class Record {
+        final UUID playerId;
+        final long lastDeath;
+        final long trackingTimestamp;
+        final int itemCount;
+        final int despawnedCount;
+        final byte[] inventory;
+        final byte[] tracking;
+
+        public Record(UUID playerId, long lastDeath, long trackingTimestamp, int itemCount, int despawnedCount,
+                      byte[] inventory, byte[] tracking) {
+            this.playerId = playerId;
+            this.lastDeath = lastDeath;
+            this.trackingTimestamp = trackingTimestamp;
+            this.itemCount = itemCount;
+            this.despawnedCount = despawnedCount;
+            this.inventory = inventory;
+            this.tracking = tracking;
+        }
+
+        long newest() {
+            return Math.max(lastDeath, trackingTimestamp);
+        }
+    }
+
+    static final class Pack {
+        final File file;
+        final String week;
+        final long sequence;
+        // Live entries; persistence thread only
+        final Map<UUID, Entry> entries = new HashMap<>();
+        long recordBytes; // live or not
+        long liveBytes;
+        // Merged into another pack; its entries are no longer tombstoned
+        boolean retired;
+
+        Pack(File file, String week, long sequence) {
+            this.file = file;
+            this.week = week;
+            this.sequence = sequence;
+        }
+
+        File tombstones() {
+            String name = file.getName();
+            return new File(file.getParentFile(), name.substring(0, name.length() - EXTENSION.length()) + TOMBSTONE_EXTENSION);
+        }
+    }
+
+    private final File folder;
+    private final RecoveryMetrics metrics;
+    private final Map<UUID, Entry> index = new ConcurrentHashMap<>();
+    // Packs by week; persistence thread only
+    private final Map<String, List<Pack>> weeks = new TreeMap<>();
+    private long nextSequence = 1;
+
+    public ColdArchive(File folder, RecoveryMetrics metrics) {
+        this.folder = folder;
+        this.metrics = metrics;
+    }
+
+    public Entry get(UUID playerId) {
+        return index.get(playerId);
+    }
+
+    public boolean contains(UUID playerId) {
+        return index.containsKey(playerId);
+    }
+
+    public boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    public Set<UUID> players() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    /**
+     * Reads the index of every pack, without their records. A player found in several
+     * packs (after a crash mid-merge) is taken from the newest one, and the others are
+     * tombstoned.
+     */
+    public void open() {
+        open(true);
+    }
+
+    // The same, leaving the other copies alone when repair is off, so nothing is written
+    public void open(boolean repair) {
+        index.clear();
+        weeks.clear();
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null) return;
+        List<Pack> packs = new ArrayList<>();
+        for (File file : files) {
+            Pack pack = parseName(file);
+            if (pack != null) packs.add(pack);
+        }
+        packs.sort(Comparator.comparingLong(pack -> pack.sequence));
+        for (Pack pack : packs) {
+            nextSequence = Math.max(nextSequence, pack.sequence + 1);
+            List<Entry> entries;
+            try {
+                entries = readIndex(pack);
+            } catch (IOException e) {
+                // Left in place for inspection; its players read as not archived
+                e.printStackTrace();
+                continue;
+            }
+            Set<UUID> removed = readTombstones(pack.tombstones());
+            for (Entry entry : entries) pack.recordBytes += entry.bytes();
+            weeks.computeIfAbsent(pack.week, week -> new ArrayList<>()).add(pack);
+            for (Entry entry : entries) {
+                if (removed.contains(entry.playerId)) continue;
+                Entry old = register(entry);
+                if (repair) replaced(old);
+            }
+        }
+    }
+
+    // Decodes a player's archived death snapshot, or returns null if there is none
+    public StoredTracking loadInventory(UUID playerId) throws IOException {
+        return load(playerId, false);
+    }
+
+    // Decodes a player's archived tracking, or returns null if there is none
+    public StoredTracking loadTracking(UUID playerId) throws IOException {
+        return load(playerId, true);
+    }
+
+    private StoredTracking load(UUID playerId, boolean tracking) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            Entry entry = index.get(playerId);
+            if (entry == null) return null;
+            int length = tracking ? entry.trackingLength : entry.inventoryLength;
+            if (length == 0) return null;
+            try {
+                return RecoveryFileFormat.decode(read(entry.pack.file, tracking ? entry.trackingOffset : entry.inventoryOffset, length));
+            } catch (IOException e) {
+                // A merge may have replaced the pack after the lookup; the index then has the new place
+                if (attempt > 0 || index.get(playerId) == entry) throw e;
+            }
+        }
+    }
+
+    /**
+     * Writes the records into new packs, one per week, and makes them readable. Durable
+     * on return, so the caller may delete its own copies.
+     */
+    public void add(List<Record> records) throws IOException {
+        Map<String, List<Record>> byWeek = new TreeMap<>();
+        for (Record record : records) byWeek.computeIfAbsent(weekOf(record.newest()), week -> new ArrayList<>()).add(record);
+        for (Map.Entry<String, List<Record>> week : byWeek.entrySet()) {
+            List<Entry> entries = new ArrayList<>();
+            Pack pack = write(week.getKey(), week.getValue(), entries);
+            install(pack, entries);
+        }
+    }
+
+    // Takes a player out of the archive for good, e.g. once their data is hot again
+    public void remove(UUID playerId) throws IOException {
+        Entry entry = index.remove(playerId);
+        if (entry != null) drop(entry);
+    }
+
+    /**
+     * Merges each week's packs so that there are few of them and they are mostly live.
+     * Packs are merged from the smallest up while the next one is no larger than those
+     * merged so far, so sizes roughly double from one pack to the next and a record is
+     * copied a logarithmic number of times; a pack that is more dead than live is rewritten.
+     */
+    public void tidy() throws IOException {
+        for (String week : new ArrayList<>(weeks.keySet())) {
+            List<Pack> packs = weeks.get(week);
+            if (packs == null) continue;
+            packs.sort(Comparator.comparingLong((Pack pack) -> pack.liveBytes).reversed());
+            List<Pack> run = new ArrayList<>();
+            long runBytes = 0;
+            for (int i = packs.size() - 1; i >= 0; i--) {
+                Pack pack = packs.get(i);
+                if (!run.isEmpty() && pack.liveBytes > runBytes) break;
+                run.add(pack);
+                runBytes += pack.liveBytes;
+            }
+            if (run.size() > 1) merge(week, run);
+            for (Pack pack : new ArrayList<>(weeks.getOrDefault(week, Collections.emptyList()))) {
+                if (pack.liveBytes * 2 < pack.recordBytes) merge(week, Collections.singletonList(pack));
+            }
+        }
+    }
+
+    // Copies the live records of the packs, still encoded, into one new pack and deletes them
+    private void merge(String week, List<Pack> packs) throws IOException {
+        List<Record> records = new ArrayList<>();
+        for (Pack pack : packs) {
+            for (Entry entry : pack.entries.values()) {
+                byte[] inventory = entry.inventoryLength == 0 ? null : read(pack.file, entry.inventoryOffset, entry.inventoryLength);
+                byte[] tracking = entry.trackingLength == 0 ? null : read(pack.file, entry.trackingOffset, entry.trackingLength);
+                records.add(new Record(entry.playerId, entry.lastDeath, entry.trackingTimestamp, entry.itemCount,
+                        entry.despawnedCount, inventory, tracking));
+            }
+        }
+        List<Entry> entries = new ArrayList<>();
+        Pack merged = records.isEmpty() ? null : write(week, records, entries);
+        for (Pack pack : packs) pack.retired = true;
+        if (merged != null) install(merged, entries);
+        for (Pack pack : packs) deletePack(pack);
+    }
+
+    private void install(Pack pack, List<Entry> entries) {
+        for (Entry entry : entries) pack.recordBytes += entry.bytes();
+        weeks.computeIfAbsent(pack.week, week -> new ArrayList<>()).add(pack);
+        for (Entry entry : entries) replaced(register(entry));
+    }
+
+    // An older copy a newer pack replaced is tombstoned, so it can't come back once the newer one goes
+    private void replaced(Entry old) {
+        if (old == null || old.pack.retired) return;
+        try {
+            drop(old);
+        } catch (IOException e) {
+            // The newer pack still wins when the archive is opened again
+            e.printStackTrace();
+        }
+    }
+
+    // Returns the entry this one replaced, if any
+    private Entry register(Entry entry) {
+        entry.pack.entries.put(entry.playerId, entry);
+        entry.pack.liveBytes += entry.bytes();
+        Entry old = index.put(entry.playerId, entry);
+        if (old != null && old.pack != entry.pack) {
+            old.pack.entries.remove(old.playerId);
+            old.pack.liveBytes -= old.bytes();
+        }
+        return old;
+    }
+
+    // Records the removal next to the pack, or deletes the pack once nothing in it is live
+    private void drop(Entry entry) throws IOException {
+        Pack pack = entry.pack;
+        if (pack.entries.remove(entry.playerId, entry)) pack.liveBytes -= entry.bytes();
+        if (pack.retired) return;
+        if (pack.entries.isEmpty()) {
+            deletePack(pack);
+            return;
+        }
+        File file = pack.tombstones();
+        try (FileOutputStream fos = new FileOutputStream(file, true)) {
+            DataOutputStream out = new DataOutputStream(fos);
+            out.writeLong(entry.playerId.getMostSignificantBits());
+            out.writeLong(entry.playerId.getLeastSignificantBits());
+            out.flush();
+            fos.getFD().sync();
+        }
+        metrics.add(RecoveryMetrics.Counter.BYTES_WRITTEN, 16);
+        metrics.increment(RecoveryMetrics.Counter.FILES_WRITTEN);
+    }
+
+    private void deletePack(Pack pack) {
+        pack.retired = true;
+        List<Pack> packs = weeks.get(pack.week);
+        if (packs != null) {
+            packs.remove(pack);
+            if (packs.isEmpty()) weeks.remove(pack.week);
+        }
+        // The pack first: tombstones without their pack are harmless, the reverse is not
+        if (pack.file.delete()) metrics.increment(RecoveryMetrics.Counter.FILES_DELETED);
+        if (pack.tombstones().delete()) metrics.increment(RecoveryMetrics.Counter.FILES_DELETED);
+    }
+
+    // Writes a new pack, aside and renamed, and fills entries with where its records went
+    private Pack write(String week, List<Record> records, List<Entry> entries) throws IOException {
+        if (!folder.exists()) folder.mkdirs();
+        long sequence = nextSequence++;
+        Pack pack = new Pack(new File(folder, week + "-" + sequence + EXTENSION), week, sequence);
+        File tmp = new File(folder, pack.file.getName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            long offset = HEADER_SIZE;
+            for (Record record : records) {
+                long inventoryOffset = offset;
+                int inventoryLength = record.inventory == null ? 0 : record.inventory.length;
+                if (record.inventory != null) out.write(record.inventory);
+                offset += inventoryLength;
+                long trackingOffset = offset;
+                int trackingLength = record.tracking == null ? 0 : record.tracking.length;
+                if (record.tracking != null) out.write(record.tracking);
+                offset += trackingLength;
+                entries.add(new Entry(record.playerId, pack, record.lastDeath, record.trackingTimestamp, record.itemCount,
+                        record.despawnedCount, inventoryOffset, inventoryLength, trackingOffset, trackingLength));
+            }
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeLong(entry.playerId.getMostSignificantBits());
+                out.writeLong(entry.playerId.getLeastSignificantBits());
+                out.writeLong(entry.lastDeath);
+                out.writeLong(entry.trackingTimestamp);
+                out.writeInt(entry.itemCount);
+                out.writeInt(entry.despawnedCount);
+                out.writeLong(entry.inventoryOffset);
+                out.writeInt(entry.inventoryLength);
+                out.writeLong(entry.trackingOffset);
+                out.writeInt(entry.trackingLength);
+            }
+            out.writeLong(offset);
+            out.writeInt(MAGIC);
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), pack.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        metrics.add(RecoveryMetrics.Counter.BYTES_WRITTEN, pack.file.length());
+        metrics.increment(RecoveryMetrics.Counter.FILES_WRITTEN);
+        return pack;
+    }
+
+    // Only the header, footer and index are read
+    private static List<Entry> readIndex(Pack pack) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(pack.file, "r")) {
+            long length = in.length();
+            if (length < HEADER_SIZE + FOOTER_SIZE || in.readInt() != MAGIC) throw new IOException("Not an archive pack: " + pack.file.getName());
+            int version = in.readUnsignedByte();
+            if (version > VERSION) throw new IOException("Unsupported archive pack version " + version + " in " + pack.file.getName());
+            in.seek(length - FOOTER_SIZE);
+            long indexOffset = in.readLong();
+            if (in.readInt() != MAGIC || indexOffset < HEADER_SIZE || indexOffset > length - FOOTER_SIZE) {
+                throw new IOException("Truncated archive pack: " + pack.file.getName());
+            }
+            byte[] bytes = new byte[(int) (length - FOOTER_SIZE - indexOffset)];
+            in.seek(indexOffset);
+            in.readFully(bytes);
+            DataInputStream index = new DataInputStream(new ByteArrayInputStream(bytes));
+            int count = index.readInt();
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                entries.add(new Entry(new UUID(index.readLong(), index.readLong()), pack, index.readLong(), index.readLong(),
+                        index.readInt(), index.readInt(), index.readLong(), index.readInt(), index.readLong(), index.readInt()));
+            }
+            return entries;
+        }
+    }
+
+    private static Set<UUID> readTombstones(File file) {
+        Set<UUID> removed = new HashSet<>();
+        if (!file.exists()) return removed;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            // A torn last write just leaves a short tail, which is ignored
+            for (long left = file.length(); left >= 16; left -= 16) removed.add(new UUID(in.readLong(), in.readLong()));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return removed;
+    }
+
+    private static byte[] read(File file, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) throw new EOFException(file.getName());
+            }
+        }
+        return buffer.array();
+    }
+
+    // Packs are named <first day of the week>-<sequence>.pack
+    private Pack parseName(File file) {
+        String name = file.getName();
+        String base = name.substring(0, name.length() - EXTENSION.length());
+        int dash = base.lastIndexOf('-');
+        if (dash <= 0) return null;
+        try {
+            return new Pack(file, base.substring(0, dash), Long.parseLong(base.substring(dash + 1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    static String weekOf(long timestamp) {
+        return Instant.ofEpochMilli(timestamp).atZone(ZoneOffset.UTC).toLocalDate()
+                .with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)).toString();
+    }
+}
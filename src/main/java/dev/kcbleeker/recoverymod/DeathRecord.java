@@ -0,0 +1,37 @@
+package dev.kcbleeker.recoverymod;
+
+/**
+ * One death in a player's history: when it happened and the slots its items occupy.
+ */
+public final class DeathRecord {
+    private final long timestamp;
+    private final int start; // first slot, inclusive
+    private final int end; // last slot, exclusive
+
+    public DeathRecord(long timestamp, int start, int end) {
+        this.timestamp = timestamp;
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public boolean contains(int slot) {
+        return slot >= start && slot < end;
+    }
+
+    // The same death, moved to a different position in the slot list
+    DeathRecord shiftedTo(int newStart) {
+        return new DeathRecord(timestamp, newStart, newStart + (end - start));
+    }
+}
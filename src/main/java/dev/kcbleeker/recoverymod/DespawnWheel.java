@@ -0,0 +1,134 @@
+package dev.kcbleeker.recoverymod;
+
+import java.util.*;
+
+/**
+ * Predicted despawn times of tracked drops, as a hierarchical timing wheel driven by
+ * {@link #advance}, once per server tick. Level n has 64 slots of 64^n ticks each;
+ * scheduling and cancelling are O(1), and a tick visits one level-0 slot plus, every
+ * 64^n ticks, one level-n slot whose entries move down a level.
+ */
+public class DespawnWheel {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    // Further out than this (64^4 ticks, about 9 days) is parked in the top level and re-filed when it comes round
+    private static final long MAX_DELAY = (1L << (BITS * LEVELS)) - 1;
+
+    private static final class Node {
+        final UUID dropId;
+        final long due;
+        Node prev;
+        Node next;
+
+        Node(UUID dropId, long due) {
+            this.dropId = dropId;
+            this.due = due;
+        }
+    }
+
+    // Sentinels of circular lists, one per slot
+    private final Node[][] slots = new Node[LEVELS][SLOTS];
+    private final Map<UUID, Node> nodes = new HashMap<>();
+    private long tick;
+
+    public DespawnWheel() {
+        for (int level = 0; level < LEVELS; level++) {
+            for (int i = 0; i < SLOTS; i++) {
+                Node sentinel = new Node(null, 0);
+                sentinel.prev = sentinel;
+                sentinel.next = sentinel;
+                slots[level][i] = sentinel;
+            }
+        }
+    }
+
+    // Ticks advanced so far; due times are counted on this clock
+    public synchronized long currentTick() {
+        return tick;
+    }
+
+    // Schedules, or reschedules, a drop to expire after this many ticks (at least one)
+    public synchronized void schedule(UUID dropId, long ticks) {
+        Node old = nodes.remove(dropId);
+        if (old != null) unlink(old);
+        Node node = new Node(dropId, tick + Math.max(1, ticks));
+        nodes.put(dropId, node);
+        file(node, tick + 1);
+    }
+
+    public synchronized boolean cancel(UUID dropId) {
+        Node node = nodes.remove(dropId);
+        if (node == null) return false;
+        unlink(node);
+        return true;
+    }
+
+    public synchronized boolean isScheduled(UUID dropId) {
+        return nodes.containsKey(dropId);
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Moves the clock one tick forward and passes every drop that expired to the callback,
+     * which runs outside the wheel's lock and may schedule or cancel.
+     */
+    public void advance(java.util.function.Consumer<UUID> expired) {
+        List<UUID> due = new ArrayList<>();
+        synchronized (this) {
+            tick++;
+            // Entering a new block of a level: its entries for that block move down a level
+            for (int level = 1; level < LEVELS && (tick & ((1L << (BITS * level)) - 1)) == 0; level++) {
+                cascade(slots[level][(int) (tick >>> (BITS * level)) & MASK]);
+            }
+            Node sentinel = slots[0][(int) tick & MASK];
+            for (Node node = sentinel.next; node != sentinel; ) {
+                Node next = node.next;
+                if (node.due <= tick) {
+                    unlink(node);
+                    nodes.remove(node.dropId);
+                    due.add(node.dropId);
+                }
+                node = next;
+            }
+        }
+        for (UUID dropId : due) expired.accept(dropId);
+    }
+
+    private void cascade(Node sentinel) {
+        Node node = sentinel.next;
+        sentinel.next = sentinel;
+        sentinel.prev = sentinel;
+        while (node != sentinel) {
+            Node next = node.next;
+            // Due this very tick is fine: the level-0 slot is visited right after
+            file(node, tick);
+            node = next;
+        }
+    }
+
+    // Puts the node in the lowest level whose range reaches its due tick, or earliest if that passed
+    private void file(Node node, long earliest) {
+        long due = Math.max(node.due, earliest);
+        long delay = Math.min(due - tick, MAX_DELAY);
+        long at = tick + delay;
+        int level = 0;
+        while (level < LEVELS - 1 && delay >= 1L << (BITS * (level + 1))) level++;
+        Node sentinel = slots[level][(int) (at >>> (BITS * level)) & MASK];
+        node.prev = sentinel.prev;
+        node.next = sentinel;
+        sentinel.prev.next = node;
+        sentinel.prev = node;
+    }
+
+    private static void unlink(Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+}
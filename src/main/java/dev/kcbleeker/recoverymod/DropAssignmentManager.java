@@ -1,58 +1,141 @@
 package dev.kcbleeker.recoverymod;
 
+import org.bukkit.Location;
 import org.bukkit.entity.Player;
 import org.bukkit.entity.Item;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.scheduler.BukkitRunnable;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import dev.kcbleeker.recoverymod.RecoveryTracking.TrackedItem;
 
+/**
+ * Matches a death's drops to its tracked items as the server spawns them. Each death opens
+ * a short correlation window keyed by the chunk it happened in; an item spawned there, near
+ * the death location, is assigned to an unassigned tracked item with the same contents.
+ * The world itself is never searched.
+ */
 public class DropAssignmentManager {
+    private static final double DROP_RADIUS = 2.5;
+    // Death drops are spawned right after the death event, within the same tick
+    private static final long WINDOW_TICKS = 1L;
+
+    // One death waiting for its drops
+    static final class Window {
+        final UUID playerId;
+        final Location location;
+        final long deathTimestamp;
+        final long chunkKey;
+
+        Window(UUID playerId, Location location, long deathTimestamp) {
+            this.playerId = playerId;
+            this.location = location;
+            this.deathTimestamp = deathTimestamp;
+            this.chunkKey = chunkKey(location);
+        }
+    }
+
     private final RecoveryMod plugin;
-    private final Map<UUID, List<TrackedItem>> trackedItems;
-    private final java.util.function.Consumer<UUID> saveScheduler;
+    private final TrackingCache trackedItems;
+    private final java.util.function.BiConsumer<UUID, TrackingJournal.Entry> changeRecorder;
+    private final RecoveryMetrics metrics;
+    private final Schedulers schedulers;
+
+    // Open windows by chunk of the death location; almost always empty
+    private final Map<Long, List<Window>> windows = new ConcurrentHashMap<>();
 
-    public DropAssignmentManager(RecoveryMod plugin, Map<UUID, List<TrackedItem>> trackedItems, java.util.function.Consumer<UUID> saveScheduler) {
+    public DropAssignmentManager(RecoveryMod plugin, TrackingCache trackedItems,
+                                 java.util.function.BiConsumer<UUID, TrackingJournal.Entry> changeRecorder,
+                                 RecoveryMetrics metrics, Schedulers schedulers) {
         this.plugin = plugin;
         this.trackedItems = trackedItems;
-        this.saveScheduler = saveScheduler;
-    }
-
-    private void assignDropIds(Player player) {
-        List<Item> drops = new ArrayList<>(player.getWorld().getEntitiesByClass(Item.class));
-        Set<UUID> usedDropIds = new HashSet<>();
-        List<TrackedItem> updated = new ArrayList<>();
-        List<TrackedItem> current = trackedItems.get(player.getUniqueId());
-        if (current == null) return;
-        for (TrackedItem ti : current) {
-            Map<String, Object> itemData = new HashMap<>(ti.getItemData());
-            itemData.remove("type");
-            ItemStack ref = ItemStack.deserialize(itemData);
-            UUID dropId = null;
-            for (Item drop : drops) {
-                if (!usedDropIds.contains(drop.getUniqueId()) && drop.getLocation().distance(player.getLocation()) < 2.5 && drop.getPickupDelay() > 0) {
-                    ItemStack dropStack = drop.getItemStack();
-                    if (dropStack.getType() == ref.getType() && dropStack.getAmount() == ref.getAmount()) {
-                        dropId = drop.getUniqueId();
-                        usedDropIds.add(dropId);
-                        break;
-                    }
-                }
-            }
-            updated.add(new TrackedItem(ti.getItemData(), dropId));
+        this.changeRecorder = changeRecorder;
+        this.metrics = metrics;
+        this.schedulers = schedulers;
+    }
+
+    // Called from the death event, before the drops spawn
+    public void expectDrops(Player player, long deathTimestamp) {
+        Window window = open(player.getUniqueId(), player.getLocation(), deathTimestamp);
+        schedulers.runAtLater(window.location, () -> close(window), WINDOW_TICKS);
+    }
+
+    Window open(UUID playerId, Location location, long deathTimestamp) {
+        Window window = new Window(playerId, location.clone(), deathTimestamp);
+        windows.compute(window.chunkKey, (key, open) -> {
+            List<Window> list = open == null ? new ArrayList<>(1) : new ArrayList<>(open);
+            list.add(window);
+            return list;
+        });
+        return window;
+    }
+
+    void close(Window window) {
+        windows.computeIfPresent(window.chunkKey, (key, open) -> {
+            List<Window> list = new ArrayList<>(open);
+            list.remove(window);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    // Runs for every item spawned on the server, on the region spawning it
+    public void onItemSpawn(Item item) {
+        if (windows.isEmpty()) return;
+        Location at = item.getLocation();
+        List<Window> open = windows.get(chunkKey(at));
+        if (open == null) return;
+        long start = System.nanoTime();
+        for (Window window : open) {
+            if (!window.location.getWorld().equals(at.getWorld())
+                    || window.location.distanceSquared(at) >= DROP_RADIUS * DROP_RADIUS) continue;
+            if (assign(window, item)) break;
         }
-        trackedItems.put(player.getUniqueId(), updated);
-        // Update dropToPlayer map in RecoveryMod
-        plugin.updateDropToPlayerMap(player.getUniqueId(), updated);
-        saveScheduler.accept(player.getUniqueId());
+        metrics.record(RecoveryMetrics.Timer.DROP_ASSIGNMENT, start);
     }
 
-    public void scheduleDropIdAssignment(Player player) {
-        new BukkitRunnable() {
-            @Override
-            public void run() {
-                assignDropIds(player);
+    // Returns true if the item was assigned to a slot of this window's death
+    boolean assign(Window window, Item item) {
+        if (item.getPickupDelay() <= 0) return false;
+        PlayerTracking tracking = trackedItems.peek(window.playerId);
+        // Looked up by time: a later death may have moved this death's slots meanwhile
+        DeathRecord death = tracking != null ? tracking.deathAt(window.deathTimestamp) : null;
+        if (death == null) return false;
+        ItemStack stack = item.getItemStack();
+        byte[] payload = null; // serialized only once type and amount match
+        boolean unassignedLeft = false;
+        for (int slot = death.getStart(); slot < death.getEnd(); slot++) {
+            TrackedItem ti = tracking.get(slot);
+            if (ti == null || ti.getDropId() != null) continue;
+            if (ti.getMaterial() != stack.getType() || ti.getAmount() != stack.getAmount()) {
+                unassignedLeft = true;
+                continue;
+            }
+            // Same contents, not just the same type: stacks that differ only in meta stay apart
+            if (payload == null) payload = (stack.getAmount() == 1 ? stack : stack.asOne()).serializeAsBytes();
+            if (!Arrays.equals(payload, ti.getPayload())) {
+                unassignedLeft = true;
+                continue;
             }
-        }.runTaskLater(plugin, 2L);
+            UUID dropId = item.getUniqueId();
+            tracking.set(slot, ti.withDrop(dropId));
+            plugin.indexDrop(dropId, window.playerId, slot);
+            plugin.tagDrop(item, window.playerId);
+            plugin.predictDespawn(item);
+            changeRecorder.accept(window.playerId, TrackingJournal.Entry.dropAssigned(slot, dropId));
+            if (!unassignedLeft && !hasUnassigned(tracking, death, slot + 1)) close(window);
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean hasUnassigned(PlayerTracking tracking, DeathRecord death, int from) {
+        for (int slot = from; slot < death.getEnd(); slot++) {
+            TrackedItem ti = tracking.get(slot);
+            if (ti != null && ti.getDropId() == null) return true;
+        }
+        return false;
+    }
+
+    private static long chunkKey(Location location) {
+        return ((long) (location.getBlockX() >> 4) << 32) | ((location.getBlockZ() >> 4) & 0xFFFFFFFFL);
     }
 }
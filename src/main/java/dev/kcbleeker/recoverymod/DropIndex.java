@@ -0,0 +1,78 @@
+package dev.kcbleeker.recoverymod;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import dev.kcbleeker.recoverymod.RecoveryTracking.TrackedItem;
+
+/**
+ * Reverse index from a drop entity UUID to the player and slot it is tracked in.
+ * Entries are only hints: callers confirm the slot still holds that drop before using it.
+ */
+public class DropIndex {
+    public static final class Handle {
+        private final UUID playerId;
+        private final int slot;
+
+        public Handle(UUID playerId, int slot) {
+            this.playerId = playerId;
+            this.slot = slot;
+        }
+
+        public UUID getPlayerId() {
+            return playerId;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+    }
+
+    private final Map<UUID, Handle> handles = new ConcurrentHashMap<>();
+
+    public Handle get(UUID dropId) {
+        return handles.get(dropId);
+    }
+
+    public void put(UUID dropId, UUID playerId, int slot) {
+        handles.put(dropId, new Handle(playerId, slot));
+    }
+
+    public void remove(UUID dropId) {
+        handles.remove(dropId);
+    }
+
+    // Removes the entry only if it is still this handle, so a concurrent re-index survives
+    public void remove(UUID dropId, Handle handle) {
+        handles.remove(dropId, handle);
+    }
+
+    /**
+     * Drops entries of resident players whose slot no longer holds that drop, e.g. after
+     * a forced recovery or an expiry on load. Entries of other players are kept: their
+     * drop may still be in the world, and its next event loads the player and checks it.
+     * Returns the number removed.
+     */
+    public int removeStale(java.util.function.Function<UUID, PlayerTracking> resident) {
+        int removed = 0;
+        for (Map.Entry<UUID, Handle> e : handles.entrySet()) {
+            Handle handle = e.getValue();
+            PlayerTracking tracking = resident.apply(handle.getPlayerId());
+            if (tracking == null) continue;
+            TrackedItem ti = tracking.get(handle.getSlot());
+            if ((ti == null || !e.getKey().equals(ti.getDropId())) && handles.remove(e.getKey(), handle)) removed++;
+        }
+        return removed;
+    }
+
+    // Adds every assigned drop of a player's tracking
+    public void addAll(UUID playerId, PlayerTracking tracking) {
+        for (int slot = 0; slot < tracking.slotCount(); slot++) {
+            TrackedItem ti = tracking.get(slot);
+            if (ti != null && ti.getDropId() != null) put(ti.getDropId(), playerId, slot);
+        }
+    }
+
+    public int size() {
+        return handles.size();
+    }
+}
@@ -0,0 +1,68 @@
+package dev.kcbleeker.recoverymod;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sync transport between plugin instances in one JVM, joined by network name. Meant for
+ * trying a network out on one machine and for tests; each instance gets its messages on a
+ * thread of its own, like it would from a real transport.
+ */
+public class InProcessSyncChannel implements SyncChannel {
+    private static final Map<String, List<InProcessSyncChannel>> NETWORKS = new HashMap<>();
+
+    private final String network;
+    private ExecutorService delivery;
+    private java.util.function.Consumer<byte[]> receiver;
+
+    public InProcessSyncChannel(String network) {
+        this.network = network;
+    }
+
+    @Override
+    public void open(java.util.function.Consumer<byte[]> receiver) {
+        this.receiver = receiver;
+        delivery = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "RecoveryMod-Sync-Delivery");
+            t.setDaemon(true);
+            return t;
+        });
+        synchronized (NETWORKS) {
+            NETWORKS.computeIfAbsent(network, name -> new CopyOnWriteArrayList<>()).add(this);
+        }
+    }
+
+    @Override
+    public void publish(byte[] message) {
+        List<InProcessSyncChannel> members;
+        synchronized (NETWORKS) {
+            members = NETWORKS.getOrDefault(network, Collections.emptyList());
+        }
+        for (InProcessSyncChannel member : members) {
+            if (member != this) member.deliver(message.clone());
+        }
+    }
+
+    private void deliver(byte[] message) {
+        if (delivery.isShutdown()) return;
+        try {
+            delivery.execute(() -> receiver.accept(message));
+        } catch (java.util.concurrent.RejectedExecutionException ignored) {
+            // Closed meanwhile
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (NETWORKS) {
+            List<InProcessSyncChannel> members = NETWORKS.get(network);
+            if (members != null) {
+                members.remove(this);
+                if (members.isEmpty()) NETWORKS.remove(network);
+            }
+        }
+        if (delivery != null) delivery.shutdown();
+    }
+}
@@ -0,0 +1,12 @@
+package dev.kcbleeker.recoverymod;
+
+/**
+ * What is known about a tracked item's drop entity.
+ */
+public enum ItemState {
+    ON_GROUND, // assigned to a drop entity that was last seen in the world
+    DESPAWNED, // the drop despawned; eligible for recovery
+    PICKED_UP, // the drop was picked up; no longer recoverable
+    UNKNOWN, // no drop entity could be assigned
+    FROZEN // the drop is in an unloaded chunk, where it neither ages nor despawns
+}
@@ -0,0 +1,83 @@
+package dev.kcbleeker.recoverymod;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * Content-hashed intern pool for item payloads. Identical stacks, within one player or
+ * across players, share a single payload array. Templates are held weakly: once no
+ * tracked item refers to a payload any more, the collector clears it and the pool drops
+ * the entry on its next use.
+ */
+public final class ItemTemplatePool {
+    // Payloads are shared by every tracked item on the server
+    public static final ItemTemplatePool SHARED = new ItemTemplatePool();
+
+    private static final class Template extends WeakReference<byte[]> {
+        final int hash;
+
+        Template(byte[] payload, int hash, ReferenceQueue<byte[]> queue) {
+            super(payload, queue);
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        // Identity only; lookups go through a Probe, so a cleared template can still be removed
+        @Override
+        public boolean equals(Object o) {
+            return o == this;
+        }
+    }
+
+    // Lookup key that matches a live template with the same content
+    private static final class Probe {
+        final byte[] payload;
+        final int hash;
+
+        Probe(byte[] payload) {
+            this.payload = payload;
+            this.hash = Arrays.hashCode(payload);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Template && Arrays.equals(payload, ((Template) o).get());
+        }
+    }
+
+    private final Map<Object, Template> templates = new HashMap<>();
+    private final ReferenceQueue<byte[]> collected = new ReferenceQueue<>();
+
+    // Returns the pooled array with this content, adding the given one if there is none yet
+    public synchronized byte[] intern(byte[] payload) {
+        expunge();
+        Probe probe = new Probe(payload);
+        Template template = templates.get(probe);
+        byte[] shared = template != null ? template.get() : null;
+        if (shared != null) return shared;
+        template = new Template(payload, probe.hash, collected);
+        templates.put(template, template);
+        return payload;
+    }
+
+    // Distinct payloads currently held
+    public synchronized int size() {
+        expunge();
+        return templates.size();
+    }
+
+    private void expunge() {
+        java.lang.ref.Reference<? extends byte[]> ref;
+        while ((ref = collected.poll()) != null) templates.remove(ref);
+    }
+}
@@ -0,0 +1,647 @@
+package dev.kcbleeker.recoverymod;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import dev.kcbleeker.recoverymod.RecoveryTracking.TrackedItem;
+
+/**
+ * Shares recovery state between the servers of a network, so /recover on any node can
+ * list and recover deaths that happened on another.
+ *
+ * Every node publishes, in batches, which players' tracking changed, stamped with a
+ * sequence number of its own; that is all that is sent while nobody asks. A node that
+ * needs a player fetches their tracking from the nodes it has none for, and keeps it
+ * until a later change event from that node makes it stale, so repeated listings are
+ * served locally. Recovering a death held by another node asks that node to take the
+ * items out of its tracking and send them over, so an item can only be handed out once.
+ * The holder keeps what it sent until the receiver confirms it, and puts it back if no
+ * confirmation comes, so items are not lost with a message or a node.
+ *
+ * All sync state is owned by one thread; the other threads only queue work for it.
+ */
+public class NetworkSync {
+    static final int MAGIC = 0x524D5359; // "RMSY"
+    static final int VERSION = 2;
+
+    static final int HELLO = 1; // I am here; sent periodically
+    static final int BYE = 2;
+    static final int CHANGES = 3; // stamp, players changed since the last batch
+    static final int FETCH = 4; // player
+    static final int SNAPSHOT = 5; // player, stamp, encoded tracking or nothing
+    static final int TAKE = 6; // request id, player, force, death timestamps (none: all)
+    static final int TAKEN = 7; // request id, player, encoded items
+    static final int CONFIRM = 8; // request id; the items of that TAKEN arrived
+
+    private static final long BATCH_MILLIS = 500;
+    private static final long HELLO_MILLIS = 5_000;
+    private static final long PEER_TIMEOUT_MILLIS = 15_000;
+    private static final long FETCH_TIMEOUT_MILLIS = 2_000;
+    private static final long CONFIRM_TIMEOUT_MILLIS = 30_000;
+    private static final int MAX_CACHED_PLAYERS = 1024;
+
+    // Another node's tracking of one player as of a stamp; tracking is null if it has none
+    private static final class Remote {
+        final long stamp;
+        final PlayerTracking tracking;
+
+        Remote(long stamp, PlayerTracking tracking) {
+            this.stamp = stamp;
+            this.tracking = tracking;
+        }
+    }
+
+    // What is known about one player from the other nodes
+    private static final class Known {
+        final Map<String, Remote> nodes = new HashMap<>();
+        View view;
+    }
+
+    private static final class Peer {
+        final long instance;
+        long lastHeard;
+
+        Peer(long instance) {
+            this.instance = instance;
+        }
+    }
+
+    private static final class Fetch {
+        final Set<String> waiting = new HashSet<>();
+        final List<java.util.function.Consumer<View>> callbacks = new ArrayList<>();
+    }
+
+    private static final class Take {
+        final String node;
+        final UUID playerId;
+        final java.util.function.Consumer<List<TrackedItem>> callback;
+
+        Take(String node, UUID playerId, java.util.function.Consumer<List<TrackedItem>> callback) {
+            this.node = node;
+            this.playerId = playerId;
+            this.callback = callback;
+        }
+    }
+
+    // Items taken out for another node, held until it confirms it has them
+    private static final class Reservation {
+        final UUID playerId;
+        final List<Held> items = new ArrayList<>();
+
+        Reservation(UUID playerId) {
+            this.playerId = playerId;
+        }
+    }
+
+    // A reserved item and the slot of its death it came from, so it can be put back
+    private static final class Held {
+        final long death;
+        final int offset;
+        final TrackedItem item;
+
+        Held(long death, int offset, TrackedItem item) {
+            this.death = death;
+            this.offset = offset;
+            this.item = item;
+        }
+    }
+
+    // One death of a view, before the deaths are put in order
+    private static final class Part {
+        final DeathRecord death;
+        final List<TrackedItem> slots;
+        final String node;
+
+        Part(DeathRecord death, List<TrackedItem> slots, String node) {
+            this.death = death;
+            this.slots = slots;
+            this.node = node;
+        }
+    }
+
+    /**
+     * A player's deaths across the network as one read-only tracking, oldest first by time.
+     * The same instance is handed out until something in it changes, so pages rendered from
+     * it can be cached like those of a local tracking.
+     */
+    public static final class View {
+        private final PlayerTracking tracking;
+        // Node holding each death of the view, by identity; absent for deaths held here
+        private final Map<DeathRecord, String> nodes = new IdentityHashMap<>();
+        private final List<String> unanswered;
+        // What the view was built from
+        private final PlayerTracking local;
+        private final long localVersion;
+        private final Map<String, Remote> remotes;
+
+        private View(PlayerTracking local, Map<String, Remote> remotes, List<String> unanswered) {
+            this.local = local;
+            this.localVersion = local == null ? -1 : local.version();
+            this.remotes = new HashMap<>(remotes);
+            this.unanswered = unanswered;
+            // Each death with its items, from wherever it is held
+            List<Part> parts = new ArrayList<>();
+            addDeaths(parts, local == null ? null : local.copy(), null);
+            for (Map.Entry<String, Remote> e : remotes.entrySet()) addDeaths(parts, e.getValue().tracking, e.getKey());
+            parts.sort(Comparator.comparingLong(part -> part.death.getTimestamp()));
+            List<TrackedItem> slots = new ArrayList<>();
+            List<DeathRecord> deaths = new ArrayList<>();
+            for (Part part : parts) {
+                DeathRecord death = part.death.shiftedTo(slots.size());
+                deaths.add(death);
+                if (part.node != null) nodes.put(death, part.node);
+                slots.addAll(part.slots);
+            }
+            tracking = new PlayerTracking(slots, deaths);
+        }
+
+        private static void addDeaths(List<Part> parts, PlayerTracking tracking, String node) {
+            if (tracking == null) return;
+            List<TrackedItem> slots = tracking.slots();
+            for (DeathRecord death : tracking.deaths()) {
+                parts.add(new Part(death, slots.subList(death.getStart(), death.getEnd()), node));
+            }
+        }
+
+        public PlayerTracking tracking() {
+            return tracking;
+        }
+
+        // Node holding a death of this view's tracking, or null if it is held here
+        public String nodeOf(DeathRecord death) {
+            return nodes.get(death);
+        }
+
+        // Nodes that did not answer in time; their deaths are missing from the view
+        public List<String> unanswered() {
+            return unanswered;
+        }
+
+        boolean isCurrent(PlayerTracking local, Map<String, Remote> remotes) {
+            if (local != this.local || (local != null && local.version() != localVersion)) return false;
+            if (remotes.size() != this.remotes.size()) return false;
+            for (Map.Entry<String, Remote> e : remotes.entrySet()) {
+                if (this.remotes.get(e.getKey()) != e.getValue()) return false;
+            }
+            return true;
+        }
+    }
+
+    private final SyncChannel channel;
+    private final String node;
+    // Tells the others when this node restarted, which invalidates whatever they hold from it
+    private final long instance = new Random().nextLong();
+    private final TrackingCache trackedItems;
+    private final java.util.function.Consumer<UUID> scheduleTrackingSave;
+    // Queues items for the player's next join on this server
+    private final java.util.function.BiConsumer<UUID, List<TrackedItem>> deliverLater;
+    private final Logger logger;
+    private final ScheduledExecutorService executor;
+
+    // Players changed since the last batch; filled from any thread
+    private final Set<UUID> dirty = ConcurrentHashMap.newKeySet();
+
+    // Everything below is only touched on the sync thread
+    private long stamp;
+    private final Map<String, Peer> peers = new HashMap<>();
+    // Least recently used players are dropped first
+    private final Map<UUID, Known> known = new LinkedHashMap<UUID, Known>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, Known> eldest) {
+            return size() > MAX_CACHED_PLAYERS;
+        }
+    };
+    private final Map<UUID, Fetch> fetches = new HashMap<>();
+    private final Map<Long, Take> takes = new HashMap<>();
+    // Starts anywhere, so an answer meant for this node before a restart matches nothing
+    private long nextRequest = instance;
+    // Sent and not yet confirmed, by node and request id
+    private final Map<String, Map<Long, Reservation>> reservations = new HashMap<>();
+
+    public NetworkSync(SyncChannel channel, String node, TrackingCache trackedItems,
+                       java.util.function.Consumer<UUID> scheduleTrackingSave,
+                       java.util.function.BiConsumer<UUID, List<TrackedItem>> deliverLater, Logger logger) {
+        this.channel = channel;
+        this.node = node;
+        this.trackedItems = trackedItems;
+        this.scheduleTrackingSave = scheduleTrackingSave;
+        this.deliverLater = deliverLater;
+        this.logger = logger;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "RecoveryMod-Sync");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public String node() {
+        return node;
+    }
+
+    public void start() throws IOException {
+        channel.open(message -> run(() -> receive(message)));
+        run(() -> send(HELLO, "", out -> { }));
+        executor.scheduleWithFixedDelay(() -> run(this::publishChanges), BATCH_MILLIS, BATCH_MILLIS, TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(() -> run(this::heartbeat), HELLO_MILLIS, HELLO_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void close() {
+        try {
+            executor.submit(() -> {
+                publishChanges();
+                // A confirmation still on its way would not be heard
+                for (String peer : new ArrayList<>(reservations.keySet())) restoreAll(peer);
+                send(BYE, "", out -> { });
+            }).get(2, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            // Leaving without a goodbye; the others time this node out
+        }
+        executor.shutdownNow();
+        channel.close();
+    }
+
+    // A player's tracking changed on this node; called for every staged write
+    public void changed(UUID playerId) {
+        dirty.add(playerId);
+    }
+
+    /**
+     * Calls back on the sync thread with the player's deaths across the network, after
+     * fetching them from the nodes whose state is not cached, or once those time out.
+     */
+    public void view(UUID playerId, java.util.function.Consumer<View> callback) {
+        if (executor.isShutdown()) {
+            // Not running: this server's deaths only
+            callback.accept(new View(trackedItems.get(playerId), Collections.emptyMap(), Collections.emptyList()));
+            return;
+        }
+        run(() -> {
+            Fetch pending = fetches.get(playerId);
+            if (pending != null) {
+                pending.callbacks.add(callback);
+                return;
+            }
+            Known player = known.computeIfAbsent(playerId, id -> new Known());
+            Fetch fetch = new Fetch();
+            for (String peer : peers.keySet()) {
+                if (!player.nodes.containsKey(peer)) fetch.waiting.add(peer);
+            }
+            if (fetch.waiting.isEmpty()) {
+                callback.accept(buildView(playerId, Collections.emptyList()));
+                return;
+            }
+            fetch.callbacks.add(callback);
+            fetches.put(playerId, fetch);
+            for (String peer : fetch.waiting) send(FETCH, peer, out -> writeUuid(out, playerId));
+            executor.schedule(() -> run(() -> completeFetch(playerId, fetch)), FETCH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    /**
+     * Asks another node to take the despawned items (or with force all items) of some of
+     * a player's deaths out of its tracking and hand them over. Calls back on the sync
+     * thread with the items, or with null if the node left before it answered.
+     */
+    public void take(String peer, UUID playerId, List<Long> deaths, boolean force,
+                     java.util.function.Consumer<List<TrackedItem>> callback) {
+        if (executor.isShutdown()) {
+            callback.accept(null);
+            return;
+        }
+        run(() -> {
+            if (!peers.containsKey(peer)) {
+                callback.accept(null);
+                return;
+            }
+            long requestId = nextRequest++;
+            takes.put(requestId, new Take(peer, playerId, callback));
+            send(TAKE, peer, out -> {
+                out.writeLong(requestId);
+                writeUuid(out, playerId);
+                out.writeBoolean(force);
+                out.writeInt(deaths.size());
+                for (long timestamp : deaths) out.writeLong(timestamp);
+            });
+        });
+    }
+
+    // Sync work must never kill the thread, or sync would silently stop
+    private void run(Runnable task) {
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Network sync task failed", e);
+                }
+            });
+        } catch (java.util.concurrent.RejectedExecutionException ignored) {
+            // Closed
+        }
+    }
+
+    private void publishChanges() {
+        if (dirty.isEmpty()) return;
+        List<UUID> changed = new ArrayList<>(dirty);
+        dirty.removeAll(changed);
+        long batch = ++stamp;
+        send(CHANGES, "", out -> {
+            out.writeLong(batch);
+            out.writeInt(changed.size());
+            for (UUID playerId : changed) writeUuid(out, playerId);
+        });
+    }
+
+    private void heartbeat() {
+        send(HELLO, "", out -> { });
+        long cutoff = System.currentTimeMillis() - PEER_TIMEOUT_MILLIS;
+        for (String peer : new ArrayList<>(peers.keySet())) {
+            if (peers.get(peer).lastHeard < cutoff) {
+                logger.info("Sync node " + peer + " timed out.");
+                forget(peer);
+            }
+        }
+    }
+
+    private void receive(byte[] message) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+        try {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) return;
+            int type = in.readUnsignedByte();
+            String from = in.readUTF();
+            long fromInstance = in.readLong();
+            String to = in.readUTF();
+            if (from.equals(node) || (!to.isEmpty() && !to.equals(node))) return;
+            if (type == BYE) {
+                forget(from);
+                return;
+            }
+            Peer peer = peers.get(from);
+            if (peer == null || peer.instance != fromInstance) {
+                // New or restarted: nothing cached from it is valid, and it needs to hear from us
+                if (peer != null) forget(from);
+                else logger.info("Sync node " + from + " joined.");
+                peer = new Peer(fromInstance);
+                peers.put(from, peer);
+                send(HELLO, from, out -> { });
+            }
+            peer.lastHeard = System.currentTimeMillis();
+            switch (type) {
+                case CHANGES: onChanges(from, in); break;
+                case FETCH: onFetch(from, in); break;
+                case SNAPSHOT: onSnapshot(from, in); break;
+                case TAKE: onTake(from, in); break;
+                case TAKEN: onTaken(from, in); break;
+                case CONFIRM: onConfirm(from, in); break;
+                default: break;
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Dropped a malformed sync message", e);
+        }
+    }
+
+    private void onChanges(String from, DataInputStream in) throws IOException {
+        long batch = in.readLong();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            UUID playerId = readUuid(in);
+            Known player = known.get(playerId);
+            if (player == null) continue;
+            Remote cached = player.nodes.get(from);
+            // Stale; fetched again when next needed
+            if (cached != null && cached.stamp < batch) player.nodes.remove(from);
+        }
+    }
+
+    private void onFetch(String from, DataInputStream in) throws IOException {
+        UUID playerId = readUuid(in);
+        // Changes so far go out first, so the snapshot's stamp covers them
+        publishChanges();
+        PlayerTracking tracking = trackedItems.get(playerId);
+        PlayerTracking copy = tracking == null || tracking.isEmpty() ? null : tracking.copy();
+        long current = stamp;
+        send(SNAPSHOT, from, out -> {
+            writeUuid(out, playerId);
+            out.writeLong(current);
+            out.writeBoolean(copy != null);
+            if (copy != null) writeBytes(out, encode(copy.slots(), copy.deaths()));
+        });
+    }
+
+    private void onSnapshot(String from, DataInputStream in) throws IOException {
+        UUID playerId = readUuid(in);
+        long snapshotStamp = in.readLong();
+        PlayerTracking tracking = null;
+        if (in.readBoolean()) {
+            StoredTracking stored = RecoveryFileFormat.decode(readBytes(in));
+            tracking = new PlayerTracking(RecoveryPersistence.fromStored(stored.getItems()), stored.getDeaths());
+        }
+        known.computeIfAbsent(playerId, id -> new Known()).nodes.put(from, new Remote(snapshotStamp, tracking));
+        Fetch fetch = fetches.get(playerId);
+        if (fetch == null) return;
+        fetch.waiting.remove(from);
+        if (fetch.waiting.isEmpty()) completeFetch(playerId, fetch);
+    }
+
+    private void completeFetch(UUID playerId, Fetch fetch) {
+        if (fetches.get(playerId) != fetch) return;
+        fetches.remove(playerId);
+        View view = buildView(playerId, new ArrayList<>(fetch.waiting));
+        for (java.util.function.Consumer<View> callback : fetch.callbacks) callback.accept(view);
+    }
+
+    private View buildView(UUID playerId, List<String> unanswered) {
+        PlayerTracking local = trackedItems.get(playerId);
+        Known player = known.computeIfAbsent(playerId, id -> new Known());
+        View view = player.view;
+        if (view != null && unanswered.isEmpty() && view.unanswered.isEmpty() && view.isCurrent(local, player.nodes)) return view;
+        view = new View(local, player.nodes, unanswered);
+        player.view = view;
+        return view;
+    }
+
+    // Runs on the node holding the deaths
+    private void onTake(String from, DataInputStream in) throws IOException {
+        long requestId = in.readLong();
+        UUID playerId = readUuid(in);
+        boolean force = in.readBoolean();
+        int count = in.readInt();
+        List<Long> timestamps = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) timestamps.add(in.readLong());
+        List<TrackedItem> taken = new ArrayList<>();
+        Reservation reservation = new Reservation(playerId);
+        PlayerTracking tracking = trackedItems.get(playerId);
+        if (tracking != null) {
+            List<DeathRecord> deaths = new ArrayList<>();
+            if (timestamps.isEmpty()) deaths.addAll(tracking.deaths());
+            for (long timestamp : timestamps) {
+                DeathRecord death = tracking.deathAt(timestamp);
+                if (death != null) deaths.add(death);
+            }
+            for (DeathRecord death : deaths) {
+                List<TrackedItem> items = new ArrayList<>();
+                Map<TrackedItem, Integer> offsets = new IdentityHashMap<>();
+                for (int slot = death.getStart(); slot < death.getEnd(); slot++) {
+                    TrackedItem ti = tracking.get(slot);
+                    if (ti == null || (!force && ti.getState() != ItemState.DESPAWNED)) continue;
+                    items.add(ti);
+                    offsets.put(ti, slot - death.getStart());
+                }
+                for (TrackedItem ti : tracking.takeIfSame(death, items)) {
+                    taken.add(ti);
+                    reservation.items.add(new Held(death.getTimestamp(), offsets.get(ti), ti));
+                }
+                // Like a local /recover: whatever lost its drop is done with too
+                if (!force) tracking.pruneUnassigned(death);
+            }
+            trackedItems.markIfEmpty(playerId);
+            scheduleTrackingSave.accept(playerId);
+        }
+        if (!taken.isEmpty()) {
+            reservations.computeIfAbsent(from, n -> new HashMap<>()).put(requestId, reservation);
+            executor.schedule(() -> run(() -> expire(from, requestId)), CONFIRM_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        send(TAKEN, from, out -> {
+            out.writeLong(requestId);
+            writeUuid(out, playerId);
+            writeBytes(out, encode(taken, Collections.emptyList()));
+        });
+    }
+
+    private void onTaken(String from, DataInputStream in) throws IOException {
+        long requestId = in.readLong();
+        UUID playerId = readUuid(in);
+        StoredTracking stored = RecoveryFileFormat.decode(readBytes(in));
+        List<TrackedItem> items = RecoveryPersistence.fromStored(stored.getItems());
+        Take take = takes.get(requestId);
+        if (take != null && take.node.equals(from)) {
+            takes.remove(requestId);
+            // What was cached from that node no longer holds these items
+            Known player = known.get(take.playerId);
+            if (player != null) player.nodes.remove(take.node);
+            take.callback.accept(items);
+        } else if (!items.isEmpty()) {
+            // Given up on, e.g. after the node timed out; the items are sent all the same and must not be lost
+            deliverLater.accept(playerId, items);
+        }
+        // Only once the items are handed on, so a failure above leaves them with the holder
+        if (!items.isEmpty()) send(CONFIRM, from, out -> out.writeLong(requestId));
+    }
+
+    private void onConfirm(String from, DataInputStream in) throws IOException {
+        long requestId = in.readLong();
+        Map<Long, Reservation> held = reservations.get(from);
+        if (held == null) return;
+        held.remove(requestId);
+        if (held.isEmpty()) reservations.remove(from);
+    }
+
+    private void expire(String peer, long requestId) {
+        Map<Long, Reservation> held = reservations.get(peer);
+        Reservation reservation = held == null ? null : held.remove(requestId);
+        if (reservation == null) return;
+        if (held.isEmpty()) reservations.remove(peer);
+        logger.warning("Sync node " + peer + " did not confirm " + reservation.items.size() + " items of "
+                + reservation.playerId + "; putting them back.");
+        restore(reservation);
+    }
+
+    private void restoreAll(String peer) {
+        Map<Long, Reservation> held = reservations.remove(peer);
+        if (held == null) return;
+        for (Reservation reservation : held.values()) restore(reservation);
+    }
+
+    /**
+     * Puts unconfirmed items back into the slots they were taken from. Those whose death
+     * or slot is gone, and those with a drop, which is not indexed again, are queued for the
+     * player's next join here instead.
+     */
+    private void restore(Reservation reservation) {
+        PlayerTracking tracking = trackedItems.get(reservation.playerId);
+        List<TrackedItem> unplaced = new ArrayList<>();
+        boolean restored = false;
+        for (Held held : reservation.items) {
+            DeathRecord death = tracking == null || held.item.getDropId() != null ? null : tracking.deathAt(held.death);
+            int slot = death == null ? -1 : death.getStart() + held.offset;
+            if (death != null && slot < death.getEnd() && tracking.setIfEmpty(slot, held.item)) {
+                restored = true;
+            } else {
+                unplaced.add(held.item);
+            }
+        }
+        if (restored) scheduleTrackingSave.accept(reservation.playerId);
+        if (!unplaced.isEmpty()) deliverLater.accept(reservation.playerId, unplaced);
+    }
+
+    // Drops everything held from a node that left or restarted
+    private void forget(String peer) {
+        if (peers.remove(peer) == null) return;
+        for (Known player : known.values()) player.nodes.remove(peer);
+        // A confirmation from it can no longer come
+        restoreAll(peer);
+        Iterator<Take> it = takes.values().iterator();
+        while (it.hasNext()) {
+            Take take = it.next();
+            if (!take.node.equals(peer)) continue;
+            it.remove();
+            take.callback.accept(null);
+        }
+        for (Map.Entry<UUID, Fetch> e : new ArrayList<>(fetches.entrySet())) {
+            e.getValue().waiting.remove(peer);
+            if (e.getValue().waiting.isEmpty()) completeFetch(e.getKey(), e.getValue());
+        }
+    }
+
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // to is a node name, or "" for every node
+    private void send(int type, String to, Body body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(type);
+            out.writeUTF(node);
+            out.writeLong(instance);
+            out.writeUTF(to);
+            body.write(out);
+            out.flush();
+            channel.publish(bytes.toByteArray());
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to publish a sync message", e);
+        }
+    }
+
+    private static byte[] encode(List<TrackedItem> slots, List<DeathRecord> deaths) throws IOException {
+        return RecoveryFileFormat.encode(0, new StoredTracking(RecoveryPersistence.toStored(slots), deaths), true);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return data;
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID id) throws IOException {
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+}
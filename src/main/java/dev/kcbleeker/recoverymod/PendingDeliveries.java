@@ -0,0 +1,161 @@
+package dev.kcbleeker.recoverymod;
+
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import dev.kcbleeker.recoverymod.RecoveryTracking.TrackedItem;
+
+/**
+ * Restored items that could not be handed over yet, because the player was offline or
+ * their inventory was full. Kept in deliveries/&lt;uuid&gt;.dat, changed only on the writer
+ * thread, and delivered in one inventory update when the player joins.
+ */
+public class PendingDeliveries {
+    private final File folder;
+    private final PersistenceWriter writer;
+    private final Schedulers schedulers;
+    private final Logger logger;
+    private final boolean compress;
+
+    // Players with a delivery file, so a join without one costs no IO
+    private final Set<UUID> waiting = ConcurrentHashMap.newKeySet();
+    // Players whose delivery is between being read and being settled
+    private final Set<UUID> delivering = ConcurrentHashMap.newKeySet();
+
+    public PendingDeliveries(File folder, PersistenceWriter writer, Schedulers schedulers, Logger logger, boolean compress) {
+        this.folder = folder;
+        this.writer = writer;
+        this.schedulers = schedulers;
+        this.logger = logger;
+        this.compress = compress;
+    }
+
+    public void load() {
+        waiting.clear();
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(RecoveryFileFormat.EXTENSION));
+        if (files == null) return;
+        for (File file : files) {
+            String name = file.getName();
+            try {
+                waiting.add(UUID.fromString(name.substring(0, name.length() - RecoveryFileFormat.EXTENSION.length())));
+            } catch (IllegalArgumentException ignored) {}
+        }
+    }
+
+    public boolean isWaiting(UUID playerId) {
+        return waiting.contains(playerId);
+    }
+
+    public int size() {
+        return waiting.size();
+    }
+
+    // Queues items for the player's next join, after anything already waiting
+    public void add(UUID playerId, List<TrackedItem> items) {
+        if (items.isEmpty()) return;
+        List<TrackedItem> queued = new ArrayList<>(items.size());
+        for (TrackedItem ti : items) queued.add(ti.withState(ItemState.UNKNOWN));
+        // Marked first, so a join racing with the write still looks for the file
+        waiting.add(playerId);
+        writer.submitRequired(() -> {
+            List<TrackedItem> all = read(playerId);
+            all.addAll(queued);
+            write(playerId, all);
+        });
+    }
+
+    // Called on join: gives the player everything waiting for them that fits
+    public void deliver(Player player) {
+        UUID playerId = player.getUniqueId();
+        if (!waiting.contains(playerId) || !delivering.add(playerId)) return;
+        writer.submitRequired(() -> {
+            List<TrackedItem> items = read(playerId);
+            if (items.isEmpty()) {
+                settle(playerId, 0, Collections.emptyList());
+                return;
+            }
+            schedulers.runForEntity(player, () -> {
+                List<TrackedItem> overflow = give(player, items);
+                if (!overflow.isEmpty()) {
+                    player.sendMessage(overflow.size() + " recovered stacks did not fit in your inventory. "
+                            + "They will be delivered when you next join.");
+                }
+                writer.submitRequired(() -> settle(playerId, items.size(), overflow));
+            }, () -> delivering.remove(playerId));
+        });
+    }
+
+    /**
+     * Adds the items to the player's inventory in one call, on the player's region. Returns
+     * what did not fit, which the caller must keep rather than lose.
+     */
+    static List<TrackedItem> give(Player player, List<TrackedItem> items) {
+        ItemStack[] stacks = new ItemStack[items.size()];
+        for (int i = 0; i < stacks.length; i++) stacks[i] = items.get(i).toItemStack();
+        return give(player, stacks);
+    }
+
+    // The same, for stacks that were already decoded
+    static List<TrackedItem> give(Player player, ItemStack[] stacks) {
+        Map<Integer, ItemStack> left = player.getInventory().addItem(stacks);
+        List<TrackedItem> overflow = new ArrayList<>(left.size());
+        for (ItemStack stack : left.values()) overflow.add(TrackedItem.of(stack));
+        return overflow;
+    }
+
+    // Drops the first delivered items from the file, keeping the overflow and anything added since
+    private void settle(UUID playerId, int delivered, List<TrackedItem> overflow) {
+        try {
+            List<TrackedItem> current = read(playerId);
+            List<TrackedItem> remaining = new ArrayList<>(overflow);
+            remaining.addAll(current.subList(Math.min(delivered, current.size()), current.size()));
+            write(playerId, remaining);
+        } finally {
+            delivering.remove(playerId);
+        }
+    }
+
+    // Writer thread only
+    private List<TrackedItem> read(UUID playerId) {
+        File file = file(playerId);
+        if (!file.exists()) return new ArrayList<>();
+        try {
+            return RecoveryPersistence.fromStored(RecoveryFileFormat.read(file).getItems());
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Failed to read pending deliveries for " + playerId, e);
+            return new ArrayList<>();
+        }
+    }
+
+    // Writer thread only; an empty list deletes the file
+    private void write(UUID playerId, List<TrackedItem> items) {
+        File file = file(playerId);
+        try {
+            if (items.isEmpty()) {
+                Files.deleteIfExists(file.toPath());
+                waiting.remove(playerId);
+                return;
+            }
+            if (!folder.exists()) folder.mkdirs();
+            File tmp = new File(folder, file.getName() + ".tmp");
+            StoredTracking stored = new StoredTracking(RecoveryPersistence.toStored(items), Collections.emptyList());
+            RecoveryFileFormat.write(tmp, System.currentTimeMillis(), stored, compress);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            waiting.add(playerId);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to save pending deliveries for " + playerId, e);
+        }
+    }
+
+    private File file(UUID playerId) {
+        return new File(folder, playerId + RecoveryFileFormat.EXTENSION);
+    }
+}
@@ -0,0 +1,314 @@
+package dev.kcbleeker.recoverymod;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import dev.kcbleeker.recoverymod.RecoveryTracking.TrackedItem;
+
+/**
+ * Runs persistence writes on a dedicated thread. The main thread only hands off
+ * immutable snapshots and journal entries; everything queued for the same player
+ * is written together, with one fsync per group of journal entries.
+ */
+public class PersistenceWriter {
+    // Buffered storage metadata is written at most this often; shutdown always writes it
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 60_000;
+
+    private final StorageBackend storage;
+    private final Logger logger;
+    // Told about every player with something staged, e.g. for network sync
+    private final java.util.function.Consumer<UUID> onChange;
+    private final ThreadPoolExecutor executor;
+    // Serializes file access between the writer thread and callers running a write inline
+    private final Object ioLock = new Object();
+    // Guards shutdown, so a submission is either queued before it or run inline after it
+    private final Object lifecycleLock = new Object();
+    private boolean shutdown;
+    // Tasks that found the queue full, run by the writer thread after whatever it is running
+    private final Queue<Runnable> overflow = new ConcurrentLinkedQueue<>();
+    private final java.util.concurrent.atomic.AtomicLong overflowed = new java.util.concurrent.atomic.AtomicLong();
+    private final java.util.concurrent.atomic.AtomicBoolean overflowReported = new java.util.concurrent.atomic.AtomicBoolean();
+
+    // Writes waiting per player. A present key means a flush task for that player is queued,
+    // or that the last flush failed and the player is in retrying.
+    private final Map<UUID, PendingWrites> pending = new ConcurrentHashMap<>();
+    // Players whose writes failed; flushed again by their next write, the next checkpoint or shutdown
+    private final Set<UUID> retrying = ConcurrentHashMap.newKeySet();
+    // Player whose writes are currently being flushed
+    private volatile UUID flushing;
+    private long lastCheckpoint = System.currentTimeMillis();
+
+    public PersistenceWriter(StorageBackend storage, Logger logger, int queueCapacity,
+                             java.util.function.Consumer<UUID> onChange) {
+        this.storage = storage;
+        this.logger = logger;
+        this.onChange = onChange;
+        // Bounded queue: when it is full the task waits in the overflow list instead, see execute
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "RecoveryMod-Persistence");
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Queue a full tracking snapshot; journal entries queued before it are already included
+    public void submitTracking(UUID playerId, PlayerTracking tracking) {
+        // Copied while the journal is cleared, under the same lock as submitJournal, so an entry
+        // is either in the copy or staged after it
+        enqueue(playerId, w -> {
+            w.tracking = tracking.copy();
+            w.journal.clear();
+        });
+    }
+
+    /**
+     * Queues snapshots for many players at once. They are written by one task, inside one
+     * batch, so a backend with transactions commits them together.
+     */
+    public void submitTrackingBatch(Map<UUID, PlayerTracking> trackings) {
+        List<UUID> queued = new ArrayList<>();
+        for (Map.Entry<UUID, PlayerTracking> e : trackings.entrySet()) {
+            PlayerTracking tracking = e.getValue();
+            boolean created = stage(e.getKey(), w -> {
+                w.tracking = tracking.copy();
+                w.journal.clear();
+            });
+            if (created) queued.add(e.getKey());
+        }
+        // Players that already had a flush queued are written by that flush instead
+        if (!queued.isEmpty()) execute(() -> flushAll(queued));
+    }
+
+    public void submitInventory(UUID playerId, List<TrackedItem> items, long timestamp) {
+        List<TrackedItem> snapshot = List.copyOf(items);
+        enqueue(playerId, w -> {
+            w.inventory = snapshot;
+            w.inventoryTimestamp = timestamp;
+        });
+    }
+
+    public void submitJournal(UUID playerId, TrackingJournal.Entry entry) {
+        enqueue(playerId, w -> w.journal.add(entry));
+    }
+
+    /**
+     * Runs maintenance on the writer thread, serialized with the writes. Returns false,
+     * without running it, while the queue is full or shutting down.
+     */
+    public boolean submitTask(Runnable task) {
+        synchronized (lifecycleLock) {
+            if (shutdown) return false;
+            return offer(() -> {
+                synchronized (ioLock) {
+                    task.run();
+                }
+            });
+        }
+    }
+
+    // Like submitTask, for writes that must not be skipped: a full queue overflows, a shut down writer runs it inline
+    public void submitRequired(Runnable task) {
+        execute(() -> {
+            synchronized (ioLock) {
+                task.run();
+            }
+        });
+    }
+
+    // True if nothing is queued or being written for this player
+    public boolean isClean(UUID playerId) {
+        return !pending.containsKey(playerId) && !playerId.equals(flushing);
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    // Tasks that have found the queue full since startup
+    public long getOverflowCount() {
+        return overflowed.get();
+    }
+
+    /**
+     * Stops accepting new work and waits for queued writes to finish.
+     * Returns false if the timeout elapsed before the queue drained.
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        synchronized (lifecycleLock) {
+            // One last attempt at writes that failed before
+            retryFailed();
+            shutdown = true;
+            executor.shutdown();
+        }
+        try {
+            if (executor.awaitTermination(timeout, unit)) return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.warning("Persistence queue did not drain in time; writes for " + getPendingCount() + " players were not saved.");
+        executor.shutdownNow();
+        return false;
+    }
+
+    private void enqueue(UUID playerId, java.util.function.Consumer<PendingWrites> change) {
+        if (stage(playerId, change)) execute(() -> flush(playerId));
+    }
+
+    // Applies the change to the player's pending writes; true if the caller must queue their flush
+    private boolean stage(UUID playerId, java.util.function.Consumer<PendingWrites> change) {
+        boolean[] created = new boolean[1];
+        pending.compute(playerId, (id, w) -> {
+            if (w == null) {
+                w = new PendingWrites();
+                created[0] = true;
+            } else if (retrying.remove(id)) {
+                created[0] = true;
+            }
+            change.accept(w);
+            return w;
+        });
+        onChange.accept(playerId);
+        return created[0];
+    }
+
+    /**
+     * Queues a task for the writer thread. A full queue never makes the caller do the I/O:
+     * the task overflows and the writer thread runs it after its current task. Flushes are
+     * queued at most once per player, so the overflow holds at most one task per player.
+     */
+    private void execute(Runnable task) {
+        synchronized (lifecycleLock) {
+            if (!shutdown) {
+                if (!offer(task)) overflow(task);
+                return;
+            }
+        }
+        // Late submissions during shutdown are written inline; the lock above is not held
+        // for the write, ioLock serializes it with whatever the writer thread still drains
+        task.run();
+    }
+
+    // Only called under lifecycleLock while not shut down, so a rejection means the queue is full
+    private boolean offer(Runnable task) {
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    drainOverflow();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void overflow(Runnable task) {
+        overflow.add(task);
+        long count = overflowed.incrementAndGet();
+        if (overflowReported.compareAndSet(false, true)) {
+            logger.warning("Persistence queue is full; writes are waiting on the writer thread (" + count + " overflowed so far).");
+        }
+        // If even this is rejected, the queue is still full and a queued task drains the overflow when it ends
+        offer(() -> {});
+    }
+
+    private void drainOverflow() {
+        Runnable task;
+        while ((task = overflow.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Queued persistence task failed", e);
+            }
+        }
+        overflowReported.set(false);
+    }
+
+    private void flush(UUID playerId) {
+        synchronized (ioLock) {
+            flushing = playerId;
+            PendingWrites w = pending.remove(playerId);
+            if (w == null) {
+                flushing = null;
+                return;
+            }
+            try {
+                // One transaction per player where the backend supports it
+                storage.runBatch(() -> {
+                    if (w.inventory != null) storage.saveInventory(playerId, w.inventory, w.inventoryTimestamp);
+                    if (w.tracking != null) storage.saveTracking(playerId, w.tracking);
+                    if (!w.journal.isEmpty()) storage.appendChanges(playerId, w.journal);
+                });
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.WARNING, "Failed to save recovery data for " + playerId + "; it stays queued", e);
+                requeue(playerId, w);
+            } finally {
+                flushing = null;
+            }
+            checkpointIfDue();
+        }
+    }
+
+    private void flushAll(List<UUID> playerIds) {
+        synchronized (ioLock) {
+            try {
+                // Each flush nests its own batch inside this one and reports its own failures
+                storage.runBatch(() -> {
+                    for (UUID playerId : playerIds) flush(playerId);
+                });
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.WARNING, "Failed to save recovery data for " + playerIds.size() + " players", e);
+            }
+        }
+    }
+
+    // Puts the writes of a failed flush back in front of anything staged since; written again in full, as a
+    // backend may have made some of them before failing
+    private void requeue(UUID playerId, PendingWrites failed) {
+        pending.compute(playerId, (id, w) -> {
+            if (w == null) {
+                retrying.add(id);
+                return failed;
+            }
+            if (w.inventory == null) {
+                w.inventory = failed.inventory;
+                w.inventoryTimestamp = failed.inventoryTimestamp;
+            }
+            // A newer snapshot already includes the failed one and its journal
+            if (w.tracking == null) {
+                w.tracking = failed.tracking;
+                w.journal.addAll(0, failed.journal);
+            }
+            return w;
+        });
+    }
+
+    private void retryFailed() {
+        for (UUID playerId : retrying) {
+            if (retrying.remove(playerId)) execute(() -> flush(playerId));
+        }
+    }
+
+    private void checkpointIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - lastCheckpoint < CHECKPOINT_INTERVAL_MILLIS) return;
+        lastCheckpoint = now;
+        storage.checkpoint();
+        retryFailed();
+    }
+
+    // Only touched inside pending.compute, or by the flush that removed it from the map
+    private static final class PendingWrites {
+        List<TrackedItem> inventory;
+        long inventoryTimestamp;
+        PlayerTracking tracking;
+        final List<TrackingJournal.Entry> journal = new ArrayList<>();
+    }
+}
@@ -0,0 +1,99 @@
+package dev.kcbleeker.recoverymod;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Last known name of every player who joined, so commands can target offline players
+ * without Bukkit.getOfflinePlayer, which may block on a profile lookup.
+ */
+public class PlayerNameCache {
+    public static final String FILE_NAME = "names.dat";
+
+    private static final int MAGIC = 0x524D4E43; // "RMNC"
+    private static final int VERSION = 1;
+
+    private final File file;
+    // Keyed by lower-case name; a name only maps to the player who used it last
+    private final Map<String, UUID> byName = new ConcurrentHashMap<>();
+    private final Map<UUID, String> byId = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    public PlayerNameCache(File pluginFolder) {
+        this.file = new File(pluginFolder, FILE_NAME);
+    }
+
+    public synchronized void record(UUID playerId, String name) {
+        String previous = byId.put(playerId, name);
+        if (name.equals(previous)) return;
+        if (previous != null) byName.remove(key(previous), playerId);
+        // Someone else may have used this name before; the old mapping is no longer valid
+        UUID previousOwner = byName.put(key(name), playerId);
+        if (previousOwner != null && !previousOwner.equals(playerId)) byId.remove(previousOwner, name);
+        dirty = true;
+    }
+
+    // The player last seen with this name (case-insensitive), or null
+    public UUID resolve(String name) {
+        return byName.get(key(name));
+    }
+
+    public String nameOf(UUID playerId) {
+        return byId.get(playerId);
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    // A missing or unreadable file just starts an empty cache; joins fill it again
+    public synchronized void load() {
+        byName.clear();
+        byId.clear();
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) return;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                UUID playerId = new UUID(in.readLong(), in.readLong());
+                String name = in.readUTF();
+                byId.put(playerId, name);
+                byName.put(key(name), playerId);
+            }
+            dirty = false;
+        } catch (IOException e) {
+            byName.clear();
+            byId.clear();
+        }
+    }
+
+    public synchronized void save() throws IOException {
+        dirty = false;
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(byId.size());
+            for (Map.Entry<UUID, String> me : byId.entrySet()) {
+                out.writeLong(me.getKey().getMostSignificantBits());
+                out.writeLong(me.getKey().getLeastSignificantBits());
+                out.writeUTF(me.getValue());
+            }
+        } catch (IOException e) {
+            dirty = true;
+            throw e;
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
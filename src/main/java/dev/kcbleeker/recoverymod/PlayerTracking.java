@@ -0,0 +1,264 @@
+package dev.kcbleeker.recoverymod;
+
+import java.util.*;
+import dev.kcbleeker.recoverymod.RecoveryTracking.TrackedItem;
+
+/**
+ * Tracked items of one player, addressed by stable slot numbers. Removing an item
+ * leaves an empty slot behind, so slot numbers held elsewhere stay valid.
+ *
+ * Items are grouped by death: each death owns a contiguous range of slots, oldest death
+ * first. Only adding a death moves slots, when the oldest deaths fall out of the ring.
+ *
+ * Methods are synchronized: on Folia, drops of one player can be handled by more than
+ * one region thread.
+ */
+public class PlayerTracking {
+    private final ArrayList<TrackedItem> slots;
+    private final ArrayList<DeathRecord> deaths;
+    private int live;
+    // Bumped on every change, so derived views can tell whether they are still current
+    private long version;
+    private volatile long lastAccess = System.nanoTime();
+
+    // A single death covering all slots
+    public PlayerTracking(List<TrackedItem> slots) {
+        this(slots, slots.isEmpty() ? Collections.emptyList()
+                : Collections.singletonList(new DeathRecord(System.currentTimeMillis(), 0, slots.size())));
+    }
+
+    public PlayerTracking(List<TrackedItem> slots, List<DeathRecord> deaths) {
+        this.slots = new ArrayList<>(slots);
+        this.deaths = new ArrayList<>(deaths);
+        for (TrackedItem ti : this.slots) if (ti != null) live++;
+    }
+
+    /**
+     * Adds a death's items as a new slot range. Deaths with nothing left in them are
+     * dropped, then the oldest ones until at most maxDeaths remain; the remaining slots
+     * move down. Returns the drop ids of the items that were dropped; callers must re-index the rest.
+     */
+    public synchronized List<UUID> addDeath(long timestamp, List<TrackedItem> items, int maxDeaths) {
+        List<UUID> droppedIds = new ArrayList<>();
+        List<DeathRecord> kept = new ArrayList<>();
+        for (DeathRecord death : deaths) {
+            if (liveIn(death) > 0) kept.add(death);
+        }
+        while (!kept.isEmpty() && kept.size() >= Math.max(1, maxDeaths)) {
+            DeathRecord oldest = kept.remove(0);
+            for (int slot = oldest.getStart(); slot < oldest.getEnd(); slot++) {
+                TrackedItem ti = slots.get(slot);
+                if (ti != null && ti.getDropId() != null) droppedIds.add(ti.getDropId());
+            }
+        }
+        ArrayList<TrackedItem> moved = new ArrayList<>(slots.size() + items.size());
+        deaths.clear();
+        for (DeathRecord death : kept) {
+            deaths.add(death.shiftedTo(moved.size()));
+            moved.addAll(slots.subList(death.getStart(), death.getEnd()));
+        }
+        int start = moved.size();
+        // Payloads are already shared with earlier deaths through the template pool
+        moved.addAll(items);
+        deaths.add(new DeathRecord(timestamp, start, moved.size()));
+        slots.clear();
+        slots.addAll(moved);
+        live = 0;
+        for (TrackedItem ti : slots) if (ti != null) live++;
+        version++;
+        return droppedIds;
+    }
+
+    public synchronized TrackedItem get(int slot) {
+        return slot >= 0 && slot < slots.size() ? slots.get(slot) : null;
+    }
+
+    public synchronized void set(int slot, TrackedItem item) {
+        TrackedItem previous = slots.set(slot, item);
+        version++;
+        if (previous == null && item != null) live++;
+        else if (previous != null && item == null) live--;
+    }
+
+    // Puts an item into a slot only if the slot is empty; returns whether it did
+    public synchronized boolean setIfEmpty(int slot, TrackedItem item) {
+        if (slot < 0 || slot >= slots.size() || slots.get(slot) != null) return false;
+        slots.set(slot, item);
+        live++;
+        version++;
+        return true;
+    }
+
+    public void remove(int slot) {
+        set(slot, null);
+    }
+
+    // Empties every slot whose item has no drop entity; returns true if any was emptied
+    public synchronized boolean pruneUnassigned() {
+        return pruneUnassigned(0, slots.size());
+    }
+
+    // Same, limited to one death's slots; a death no longer held here is left alone
+    public synchronized boolean pruneUnassigned(DeathRecord death) {
+        return deaths.contains(death) && pruneUnassigned(death.getStart(), death.getEnd());
+    }
+
+    private boolean pruneUnassigned(int start, int end) {
+        boolean changed = false;
+        for (int slot = start; slot < end; slot++) {
+            TrackedItem ti = slots.get(slot);
+            if (ti != null && ti.getDropId() == null) {
+                slots.set(slot, null);
+                live--;
+                changed = true;
+            }
+        }
+        if (changed) version++;
+        return changed;
+    }
+
+    // Timestamp of the oldest death, or Long.MAX_VALUE if there is none
+    public synchronized long oldestDeath() {
+        return deaths.isEmpty() ? Long.MAX_VALUE : deaths.get(0).getTimestamp();
+    }
+
+    /**
+     * Drops deaths older than the cutoff. Their slots are emptied but keep their numbers,
+     * so slot handles held elsewhere stay valid. Returns the drop ids of the items dropped.
+     */
+    public synchronized List<UUID> expireDeaths(long cutoff) {
+        List<UUID> droppedIds = new ArrayList<>();
+        Iterator<DeathRecord> it = deaths.iterator();
+        boolean changed = false;
+        while (it.hasNext()) {
+            DeathRecord death = it.next();
+            if (death.getTimestamp() >= cutoff) continue;
+            it.remove();
+            changed = true;
+            for (int slot = death.getStart(); slot < death.getEnd(); slot++) {
+                TrackedItem ti = slots.set(slot, null);
+                if (ti == null) continue;
+                live--;
+                if (ti.getDropId() != null) droppedIds.add(ti.getDropId());
+            }
+        }
+        if (changed) version++;
+        return droppedIds;
+    }
+
+    // Empties all slots of one death
+    public synchronized void clearDeath(DeathRecord death) {
+        if (!deaths.contains(death)) return;
+        for (int slot = death.getStart(); slot < death.getEnd(); slot++) {
+            if (slots.set(slot, null) != null) live--;
+        }
+        version++;
+    }
+
+    /**
+     * Empties the slots of one death that still hold one of these exact instances and returns
+     * them; an item that changed or went away since it was read is left out.
+     */
+    public synchronized List<TrackedItem> takeIfSame(DeathRecord death, Collection<TrackedItem> items) {
+        List<TrackedItem> taken = new ArrayList<>();
+        if (!deaths.contains(death)) return taken;
+        Set<TrackedItem> same = Collections.newSetFromMap(new IdentityHashMap<>());
+        same.addAll(items);
+        for (int slot = death.getStart(); slot < death.getEnd(); slot++) {
+            TrackedItem ti = slots.get(slot);
+            if (ti != null && same.contains(ti)) {
+                slots.set(slot, null);
+                live--;
+                taken.add(ti);
+            }
+        }
+        if (!taken.isEmpty()) version++;
+        return taken;
+    }
+
+    // Deaths oldest first
+    public synchronized List<DeathRecord> deaths() {
+        return new ArrayList<>(deaths);
+    }
+
+    // The n-th most recent death, 1 being the latest, or null if there are fewer
+    public synchronized DeathRecord death(int n) {
+        return n >= 1 && n <= deaths.size() ? deaths.get(deaths.size() - n) : null;
+    }
+
+    public synchronized DeathRecord deathAt(long timestamp) {
+        for (DeathRecord death : deaths) {
+            if (death.getTimestamp() == timestamp) return death;
+        }
+        return null;
+    }
+
+    public synchronized DeathRecord deathOf(int slot) {
+        for (DeathRecord death : deaths) {
+            if (death.contains(slot)) return death;
+        }
+        return null;
+    }
+
+    // Live items of one death in slot order; empty if the death is no longer held here
+    public synchronized List<TrackedItem> items(DeathRecord death) {
+        List<TrackedItem> items = new ArrayList<>();
+        if (!deaths.contains(death)) return items;
+        for (int slot = death.getStart(); slot < death.getEnd(); slot++) {
+            TrackedItem ti = slots.get(slot);
+            if (ti != null) items.add(ti);
+        }
+        return items;
+    }
+
+    private int liveIn(DeathRecord death) {
+        int count = 0;
+        for (int slot = death.getStart(); slot < death.getEnd(); slot++) {
+            if (slots.get(slot) != null) count++;
+        }
+        return count;
+    }
+
+    public synchronized long version() {
+        return version;
+    }
+
+    public synchronized int slotCount() {
+        return slots.size();
+    }
+
+    public synchronized int size() {
+        return live;
+    }
+
+    public synchronized boolean isEmpty() {
+        return live == 0;
+    }
+
+    // Live items in slot order
+    public synchronized List<TrackedItem> items() {
+        List<TrackedItem> items = new ArrayList<>(live);
+        for (TrackedItem ti : slots) if (ti != null) items.add(ti);
+        return items;
+    }
+
+    // Copy of all slots including empty ones, as persisted
+    public synchronized List<TrackedItem> slots() {
+        return new ArrayList<>(slots);
+    }
+
+    // Consistent copy of slots and deaths, for handing to the writer thread
+    public synchronized PlayerTracking copy() {
+        PlayerTracking copy = new PlayerTracking(slots, deaths);
+        copy.version = version;
+        return copy;
+    }
+
+    void touch() {
+        lastAccess = System.nanoTime();
+    }
+
+    long lastAccess() {
+        return lastAccess;
+    }
+}
@@ -0,0 +1,103 @@
+package dev.kcbleeker.recoverymod;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Offline entry point of the plugin jar, for reading recovery data without a server:
+ *
+ * java -jar RecoveryMod.jar export [--data plugins/RecoveryMod] [--player name|uuid] [--material DIAMOND]
+ *     [--state DESPAWNED] [--from 2026-01-01] [--to 2026-02-01] [--format ndjson|csv] [--payloads true] [--out file]
+ *
+ * It never writes to the data folder, so it can run next to a live server; it sees what
+ * that server has saved so far. The SQLite backend also needs the SQLite driver on the
+ * class path, which the server normally provides.
+ */
+public final class RecoveryCli {
+    private static final String USAGE = "Usage: java -jar RecoveryMod.jar export [--data <plugin folder>] [--backend file|sqlite]"
+            + " [--player <name|uuid>] [--material <material>] [--state <state>] [--from <time>] [--to <time>]"
+            + " [--format ndjson|csv] [--payloads true] [--out <file>]";
+
+    private RecoveryCli() {}
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    static int run(String[] args) {
+        if (args.length == 0 || !args[0].equals("export") || args.length % 2 == 0) {
+            System.err.println(USAGE);
+            return 2;
+        }
+        File pluginFolder = new File("plugins/RecoveryMod");
+        String backend = null;
+        String out = null;
+        // Options that name players are applied once the name file is read
+        List<String[]> options = new ArrayList<>();
+        for (int i = 1; i < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                System.err.println(USAGE);
+                return 2;
+            }
+            String key = args[i].substring(2);
+            String value = args[i + 1];
+            if (key.equals("data")) pluginFolder = new File(value);
+            else if (key.equals("backend")) backend = value;
+            else if (key.equals("out")) out = value;
+            else options.add(new String[] {key, value});
+        }
+        PlayerNameCache names = new PlayerNameCache(pluginFolder);
+        names.load();
+        RecoveryExport.Query query = new RecoveryExport.Query();
+        for (String[] option : options) {
+            String error = query.set(option[0], option[1], names::resolve);
+            if (error != null) {
+                System.err.println(error);
+                return 2;
+            }
+        }
+        StorageBackend storage;
+        try {
+            storage = open(pluginFolder, backend);
+        } catch (IOException e) {
+            System.err.println("Could not open recovery data in " + pluginFolder + ": " + e.getMessage());
+            return 1;
+        }
+        int[] skipped = new int[1];
+        try (Writer writer = out == null
+                ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+                : new BufferedWriter(new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8))) {
+            Iterator<RecoveryExport.Row> rows = RecoveryExport.rows(storage, query, (playerId, e) -> {
+                skipped[0]++;
+                System.err.println("Skipped " + playerId + ": " + e.getMessage());
+            });
+            long count = RecoveryExport.write(rows, query, names::nameOf, writer);
+            System.err.println("Exported " + count + " items" + (skipped[0] > 0 ? ", skipped " + skipped[0] + " players." : "."));
+            return skipped[0] > 0 ? 1 : 0;
+        } catch (IOException e) {
+            System.err.println("Export failed: " + e.getMessage());
+            return 1;
+        } finally {
+            storage.close();
+        }
+    }
+
+    // The backend in use is the one whose data exists, unless asked for
+    private static StorageBackend open(File pluginFolder, String backend) throws IOException {
+        File files = new File(pluginFolder, "recoveries");
+        File database = new File(pluginFolder, SqliteStorage.FILE_NAME);
+        if (backend == null) backend = !files.isDirectory() && database.exists() ? "sqlite" : "file";
+        RecoveryMetrics metrics = new RecoveryMetrics();
+        if (backend.equalsIgnoreCase("sqlite")) {
+            if (!database.exists()) throw new FileNotFoundException(database.getPath());
+            SqliteStorage storage = new SqliteStorage(database, true, metrics);
+            storage.open();
+            return storage;
+        }
+        if (!files.isDirectory()) throw new FileNotFoundException(files.getPath());
+        RecoveryPersistence storage = new RecoveryPersistence(files, true, metrics);
+        storage.openReadOnly();
+        return storage;
+    }
+}
@@ -1,9 +1,9 @@
 package dev.kcbleeker.recoverymod;
 
 import org.bukkit.Bukkit;
+import org.bukkit.command.BlockCommandSender;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
-import org.bukkit.inventory.ItemStack;
 
 import java.util.*;
 import dev.kcbleeker.recoverymod.RecoveryTracking.TrackedItem;
@@ -14,71 +14,375 @@ import net.kyori.adventure.text.Component;
  * Handles the /recover command logic and inventory listing.
  */
 public class RecoveryCommandHandler {
-    private final Map<UUID, List<TrackedItem>> trackedItems;
+    private static final int PAGE_SIZE = 10;
+    private static final int MAX_CACHED_PLAYERS = 64;
+
+    // Pages rendered for one version of a player's tracking
+    private static final class RenderedPages {
+        final PlayerTracking tracking;
+        final long version;
+        // Keyed by death selector and page
+        final Map<String, Component> pages = new HashMap<>();
+
+        RenderedPages(PlayerTracking tracking, long version) {
+            this.tracking = tracking;
+            this.version = version;
+        }
+    }
+
+    // A /recover target: online is null while the player is offline
+    private static final class Target {
+        final UUID id;
+        final String name;
+        final Player online;
+
+        Target(UUID id, String name, Player online) {
+            this.id = id;
+            this.name = name;
+            this.online = online;
+        }
+    }
+
+    private final TrackingCache trackedItems;
+    private final PlayerNameCache names;
+    private final PendingDeliveries deliveries;
+    private final BulkRecovery bulkRecovery;
     private final java.util.function.Consumer<UUID> scheduleTrackingSave;
+    private final Schedulers schedulers;
+    private final java.util.function.Supplier<List<String>> statsSummary;
+    private final java.util.function.Consumer<CommandSender> migrate;
+    private final java.util.function.BiConsumer<CommandSender, RecoveryExport.Query> export;
+    // Empties the slots of a recovered death (null: all deaths) that no longer have a drop
+    private final java.util.function.BiConsumer<UUID, DeathRecord> pruneRecovered;
+    // Null unless this server is part of a network
+    private final NetworkSync sync;
+    // Access-ordered, so the least recently listed players are dropped first
+    private final Map<UUID, RenderedPages> renderedPages = new LinkedHashMap<UUID, RenderedPages>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, RenderedPages> eldest) {
+            return size() > MAX_CACHED_PLAYERS;
+        }
+    };
 
-    public RecoveryCommandHandler(Map<UUID, List<TrackedItem>> trackedItems, java.util.function.Consumer<UUID> scheduleTrackingSave) {
+    public RecoveryCommandHandler(TrackingCache trackedItems, PlayerNameCache names, PendingDeliveries deliveries,
+                                  BulkRecovery bulkRecovery, java.util.function.Consumer<UUID> scheduleTrackingSave,
+                                  Schedulers schedulers, java.util.function.Supplier<List<String>> statsSummary,
+                                  java.util.function.Consumer<CommandSender> migrate,
+                                  java.util.function.BiConsumer<CommandSender, RecoveryExport.Query> export,
+                                  java.util.function.BiConsumer<UUID, DeathRecord> pruneRecovered, NetworkSync sync) {
         this.trackedItems = trackedItems;
+        this.names = names;
+        this.deliveries = deliveries;
+        this.bulkRecovery = bulkRecovery;
         this.scheduleTrackingSave = scheduleTrackingSave;
+        this.schedulers = schedulers;
+        this.statsSummary = statsSummary;
+        this.migrate = migrate;
+        this.export = export;
+        this.pruneRecovered = pruneRecovered;
+        this.sync = sync;
     }
 
     public boolean handleRecoverCommand(CommandSender sender, String[] args) {
-        if (args.length == 2 && args[1].equalsIgnoreCase("list")) {
-            return handleList(sender, args[0]);
-        } else if (args.length == 2 && args[1].equalsIgnoreCase("force")) {
-            return handleForceRecover(sender, args[0]);
-        } else if (args.length == 1) {
-            return handleRecover(sender, args[0]);
+        if (args.length == 1 && args[0].equalsIgnoreCase("stats")) {
+            return handleStats(sender);
+        }
+        if (args.length == 1 && args[0].equalsIgnoreCase("migrate")) {
+            migrate.accept(sender);
+            return true;
+        }
+        if (args.length >= 1 && args[0].equalsIgnoreCase("export")) {
+            return handleExport(sender, args);
+        }
+        if (args.length >= 1 && args[0].equals("*")) {
+            return handleBulkRecover(sender, args);
+        }
+        // "player <name>" always names a player, so one called stats, migrate or export can still be targeted
+        int name = args.length >= 2 && args[0].equalsIgnoreCase("player") ? 1 : 0;
+        // An optional #n after the player name targets the n-th most recent death; 0 means all
+        int death = 0;
+        int next = name + 1;
+        if (args.length > next && args[next].startsWith("#")) {
+            death = parseDeathSelector(args[next]);
+            if (death < 1) {
+                sender.sendMessage("Death must be #1 (the latest) or higher.");
+                return true;
+            }
+            next++;
+        }
+        int rest = args.length - next;
+        if ((rest == 1 || rest == 2) && args[next].equalsIgnoreCase("list")) {
+            return handleList(sender, args[name], death, rest == 2 ? args[next + 1] : null);
+        } else if (rest == 1 && args[next].equalsIgnoreCase("force")) {
+            return handleForceRecover(sender, args[name], death);
+        } else if (rest == 0 && args.length > name) {
+            return handleRecover(sender, args[name], death);
         } else {
-            sender.sendMessage("Usage: /recover <PlayerName> [list|force]");
+            sender.sendMessage("Usage: /recover [player] <PlayerName> [#death] [list [page]|force] or /recover * [<age>] [force] or /recover stats|migrate|export");
             return true;
         }
     }
 
-    private boolean handleList(CommandSender sender, String playerName) {
-        Player target = Bukkit.getPlayer(playerName);
-        if (target == null) {
-            sender.sendMessage("Player not found or not online.");
+    // "#n" -> n, or -1 if the argument is not a death selector
+    static int parseDeathSelector(String arg) {
+        if (!arg.startsWith("#")) return -1;
+        try {
+            return Integer.parseInt(arg.substring(1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // "30m", "6h" or "2d" -> milliseconds, or -1 if the argument is not an age
+    static long parseAge(String arg) {
+        if (arg.length() < 2) return -1;
+        long unit;
+        switch (Character.toLowerCase(arg.charAt(arg.length() - 1))) {
+            case 'm': unit = 60_000L; break;
+            case 'h': unit = 60 * 60_000L; break;
+            case 'd': unit = 24 * 60 * 60_000L; break;
+            default: return -1;
+        }
+        try {
+            long n = Long.parseLong(arg.substring(0, arg.length() - 1));
+            return n > 0 ? n * unit : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // /recover * [<age>] [force]: every player, limited to deaths younger than age if given
+    private boolean handleBulkRecover(CommandSender sender, String[] args) {
+        long age = 0;
+        boolean force = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equalsIgnoreCase("force") && !force) {
+                force = true;
+            } else if (age == 0 && parseAge(args[i]) > 0) {
+                age = parseAge(args[i]);
+            } else {
+                sender.sendMessage("Usage: /recover * [<age>, e.g. 30m, 6h or 2d] [force]");
+                return true;
+            }
+        }
+        bulkRecovery.start(sender, age == 0 ? 0 : System.currentTimeMillis() - age, force);
+        return true;
+    }
+
+    /**
+     * /recover export [player <name>] [material <material>] [state <state>] [since <age>|from <time>]
+     * [to <time>] [format ndjson|csv]: every stored item matching all filters, to a file.
+     */
+    private boolean handleExport(CommandSender sender, String[] args) {
+        if (args.length % 2 == 0) {
+            sender.sendMessage("Usage: /recover export [player <name>] [material <material>] [state <state>] "
+                    + "[since <age>|from <time>] [to <time>] [format ndjson|csv]");
             return true;
         }
-        List<TrackedItem> items = trackedItems.get(target.getUniqueId());
-        if (items == null || items.isEmpty()) {
-            sender.sendMessage("No recovery data found for this player.");
+        RecoveryExport.Query query = new RecoveryExport.Query();
+        for (int i = 1; i < args.length; i += 2) {
+            String error;
+            if (args[i].equalsIgnoreCase("since")) {
+                long age = parseAge(args[i + 1]);
+                error = age < 0 ? "since must be an age, e.g. 30m, 6h or 2d."
+                        : query.set("from", String.valueOf(System.currentTimeMillis() - age), null);
+            } else {
+                error = query.set(args[i], args[i + 1], this::resolvePlayerId);
+            }
+            if (error != null) {
+                sender.sendMessage(error);
+                return true;
+            }
+        }
+        export.accept(sender, query);
+        return true;
+    }
+
+    // Like resolveTarget, without the messages
+    private UUID resolvePlayerId(String playerName) {
+        Player online = Bukkit.getPlayer(playerName);
+        return online != null ? online.getUniqueId() : names.resolve(playerName);
+    }
+
+    // Live items of the selected death, or of all deaths (newest first); null if the death doesn't exist
+    private static List<TrackedItem> selectItems(PlayerTracking tracking, int death) {
+        if (death == 0) {
+            List<TrackedItem> items = new ArrayList<>();
+            List<DeathRecord> deaths = tracking.deaths();
+            for (int i = deaths.size() - 1; i >= 0; i--) items.addAll(tracking.items(deaths.get(i)));
+            return items;
+        }
+        DeathRecord record = tracking.death(death);
+        return record == null ? null : tracking.items(record);
+    }
+
+    /**
+     * An online player by name, else the player last seen with that name. Never asks
+     * Bukkit for an offline player, which may block on a profile lookup.
+     */
+    private Target resolveTarget(CommandSender sender, String playerName) {
+        Player online = Bukkit.getPlayer(playerName);
+        if (online != null) return new Target(online.getUniqueId(), online.getName(), online);
+        UUID playerId = names.resolve(playerName);
+        if (playerId == null) {
+            sender.sendMessage("Player not found. Offline players can be targeted once they have joined with RecoveryMod installed.");
+            return null;
+        }
+        return new Target(playerId, names.nameOf(playerId), null);
+    }
+
+    private static String describeDeath(int n, DeathRecord death, long now) {
+        long minutes = Math.max(0, now - death.getTimestamp()) / 60_000;
+        String ago = minutes < 60 ? minutes + "m" : minutes < 24 * 60 ? (minutes / 60) + "h" : (minutes / (24 * 60)) + "d";
+        return "Death #" + n + " (" + ago + " ago)";
+    }
+
+    private boolean handleStats(CommandSender sender) {
+        sender.sendMessage("RecoveryMod stats:");
+        for (String line : statsSummary.get()) sender.sendMessage("  " + line);
+        return true;
+    }
+
+    private boolean handleList(CommandSender sender, String playerName, int death, String pageArg) {
+        int page;
+        try {
+            page = pageArg == null ? 1 : Integer.parseInt(pageArg);
+        } catch (NumberFormatException e) {
+            sender.sendMessage("Page must be a number.");
             return true;
         }
+        Target target = resolveTarget(sender, playerName);
+        if (target == null) return true;
+        withTracking(sender, target, (tracking, view) -> listPage(sender, target, tracking, death, page));
+        return true;
+    }
+
+    /**
+     * Runs the action with the target's tracking: the local one, or on a network the view
+     * across all servers, in which case the action runs on the sync thread once it is fetched.
+     * A target that is not resident is read from disk off the server threads first, and the
+     * command then goes on where it was sent.
+     */
+    private void withTracking(CommandSender sender, Target target,
+                              java.util.function.BiConsumer<PlayerTracking, NetworkSync.View> action) {
+        if (!trackedItems.isLoaded(target.id)) {
+            schedulers.runAsync(() -> {
+                PlayerTracking loaded = trackedItems.get(target.id);
+                runForSender(sender, () -> withResident(sender, target, loaded, action));
+            });
+            return;
+        }
+        withResident(sender, target, trackedItems.get(target.id), action);
+    }
+
+    private void withResident(CommandSender sender, Target target, PlayerTracking local,
+                              java.util.function.BiConsumer<PlayerTracking, NetworkSync.View> action) {
+        if (sync == null) {
+            action.accept(local, null);
+            return;
+        }
+        sync.view(target.id, view -> {
+            if (!view.unanswered().isEmpty()) {
+                sender.sendMessage("No answer from " + String.join(", ", view.unanswered()) + "; their deaths are left out.");
+            }
+            action.accept(view.tracking(), view);
+        });
+    }
+
+    // The thread the command came from: the player's region, the command block's, else the global region
+    private void runForSender(CommandSender sender, Runnable task) {
+        if (sender instanceof Player) {
+            schedulers.runForEntity((Player) sender, task);
+        } else if (sender instanceof BlockCommandSender) {
+            schedulers.runAtLater(((BlockCommandSender) sender).getBlock().getLocation(), task, 1L);
+        } else {
+            schedulers.runGlobalLater(task, 1L);
+        }
+    }
+
+    private void listPage(CommandSender sender, Target target, PlayerTracking tracking, int death, int page) {
+        if (tracking == null || tracking.isEmpty()) {
+            sender.sendMessage("No recovery data found for this player.");
+            return;
+        }
+        // Read before the items, so a change made meanwhile can only make the cache miss
+        long version = tracking.version();
+        String key = death + ":" + page;
+        Component cached = cachedPage(target.id, tracking, version, key);
+        if (cached != null) {
+            sender.sendMessage(cached);
+            return;
+        }
+        List<DeathRecord> deaths = tracking.deaths();
+        List<TrackedItem> items = selectItems(tracking, death);
+        if (items == null) {
+            sender.sendMessage(target.name + " has only " + deaths.size() + " recorded deaths.");
+            return;
+        }
+        int pages = Math.max(1, (items.size() + PAGE_SIZE - 1) / PAGE_SIZE);
+        if (page < 1 || page > pages) {
+            sender.sendMessage("Page must be between 1 and " + pages + ".");
+            return;
+        }
+        int from = (page - 1) * PAGE_SIZE;
+        // States come from events and predicted despawns, so listing never looks at the world
+        List<TrackedItem> visible = items.subList(from, Math.min(items.size(), page * PAGE_SIZE));
+        String[] headers = new String[visible.size()];
+        if (death == 0) groupHeaders(tracking, deaths, from, headers);
+        String name = target.name;
+        String selector = death == 0 ? "" : " #" + death;
+        int currentPage = page;
+        schedulers.runAsync(() -> {
+            Component msg = renderListPage(name, selector, visible, headers, currentPage, pages);
+            cachePage(target.id, tracking, version, key, msg);
+            sender.sendMessage(msg);
+        });
+    }
+
+    // Sets headers[i] where a new death starts on the page beginning at item index from
+    private static void groupHeaders(PlayerTracking tracking, List<DeathRecord> deaths, int from, String[] headers) {
+        long now = System.currentTimeMillis();
+        int index = 0;
+        for (int n = 1; n <= deaths.size(); n++) {
+            DeathRecord death = deaths.get(deaths.size() - n);
+            int count = tracking.items(death).size();
+            if (count == 0) continue;
+            // First item of this death, or the top of the page if the death began on an earlier one
+            int first = Math.max(index, from) - from;
+            if (first < headers.length && index + count > from) headers[first] = describeDeath(n, death, now);
+            index += count;
+        }
+    }
+
+    /**
+     * Builds one page of the list. A non-null headers[i] is printed above item i; selector
+     * is "" or " #n".
+     */
+    static Component renderListPage(String playerName, String selector, List<TrackedItem> visible, String[] headers,
+                                    int page, int pages) {
         MiniMessage mm = MiniMessage.miniMessage();
         StringBuilder sb = new StringBuilder();
-        sb.append("<gray>Lost inventory for <yellow>").append(target.getName()).append("</yellow>:</gray>\n");
+        sb.append("<gray>Lost inventory for <yellow>").append(playerName).append("</yellow>");
+        if (!selector.isEmpty()) sb.append(", death").append(selector);
+        sb.append(" (page ").append(page).append('/').append(pages).append("):</gray>\n");
         sb.append("<gray><b>[Status]      Item                Amount</b></gray>\n");
-        for (TrackedItem ti : items) {
-            Map<String, Object> itemData = ti.getItemData();
-            UUID dropId = ti.getDropId();
-            String itemName;
-            if (itemData.containsKey("type")) {
-                itemName = (String) itemData.get("type");
-            } else if (itemData.containsKey("id")) {
-                String id = (String) itemData.get("id");
-                itemName = id.startsWith("minecraft:") ? id.substring("minecraft:".length()).toUpperCase() : id.toUpperCase();
-            } else {
-                itemName = "Unknown Item";
-            }
-            int amount = (int) itemData.getOrDefault("amount", itemData.getOrDefault("count", 1));
-            Object despawnedVal = itemData.get("_despawned");
+        for (int i = 0; i < visible.size(); i++) {
+            if (headers[i] != null) sb.append("<gray><i>").append(headers[i]).append("</i></gray>\n");
+            // Listing only reads the typed fields; the item payload is never decoded here
+            TrackedItem ti = visible.get(i);
+            String itemName = ti.getMaterial().name();
+            int amount = ti.getAmount();
             String state;
             String color;
-            if (Boolean.TRUE.equals(despawnedVal) || "true".equals(despawnedVal)) {
+            if (ti.getState() == ItemState.DESPAWNED) {
                 state = "[Despawned]";
                 color = "<red>";
-            } else if (dropId != null) {
-                boolean found = false;
-                for (org.bukkit.World world : Bukkit.getWorlds()) {
-                    if (world.getEntity(dropId) != null) {
-                        found = true;
-                        break;
-                    }
-                }
-                state = found ? "[On Ground]" : "[Unknown]";
-                color = found ? "<green>" : "<gray>";
+            } else if (ti.getState() == ItemState.ON_GROUND) {
+                state = "[On Ground]";
+                color = "<green>";
+            } else if (ti.getState() == ItemState.FROZEN) {
+                state = "[Unloaded]";
+                color = "<aqua>";
             } else {
                 state = "[Unknown]";
                 color = "<gray>";
@@ -91,73 +395,184 @@ public class RecoveryCommandHandler {
               .append(amount)
               .append("</yellow></white>\n");
         }
-        Component msg = mm.deserialize(sb.toString());
-        sender.sendMessage(msg);
-        return true;
+        if (page < pages) {
+            sb.append("<gray>Next page: /recover ").append(playerName).append(selector).append(" list ").append(page + 1).append("</gray>");
+        }
+        return mm.deserialize(sb.toString());
     }
 
-    private boolean handleRecover(CommandSender sender, String playerName) {
-        Player target = Bukkit.getPlayer(playerName);
-        if (target == null) {
-            sender.sendMessage("Player not found or not online.");
-            return true;
+    private Component cachedPage(UUID playerId, PlayerTracking tracking, long version, String key) {
+        synchronized (renderedPages) {
+            RenderedPages rendered = renderedPages.get(playerId);
+            if (rendered == null || rendered.tracking != tracking || rendered.version != version) return null;
+            return rendered.pages.get(key);
+        }
+    }
+
+    private void cachePage(UUID playerId, PlayerTracking tracking, long version, String key, Component msg) {
+        synchronized (renderedPages) {
+            RenderedPages rendered = renderedPages.get(playerId);
+            if (rendered == null || rendered.tracking != tracking || rendered.version != version) {
+                rendered = new RenderedPages(tracking, version);
+                renderedPages.put(playerId, rendered);
+            }
+            rendered.pages.put(key, msg);
         }
-        List<TrackedItem> items = trackedItems.get(target.getUniqueId());
-        if (items == null || items.isEmpty()) {
+    }
+
+    private boolean handleRecover(CommandSender sender, String playerName, int death) {
+        Target target = resolveTarget(sender, playerName);
+        if (target == null) return true;
+        withTracking(sender, target, (tracking, view) -> {
+            recover(sender, target, tracking, view, death);
+            // The recovered items, and whatever else lost its drop, are done with
+            pruneLocal(target.id, tracking, view, death);
+        });
+        return true;
+    }
+
+    private void recover(CommandSender sender, Target target, PlayerTracking tracking, NetworkSync.View view, int death) {
+        if (tracking == null || tracking.isEmpty()) {
             sender.sendMessage("No recovery data found for this player.");
-            return true;
+            return;
         }
-        List<ItemStack> toRestore = new ArrayList<>();
-        boolean foundDespawned = false;
-        for (TrackedItem ti : new ArrayList<>(items)) {
-            Map<String, Object> itemData = ti.getItemData();
-            if (Boolean.TRUE.equals(itemData.get("_despawned"))) {
-                itemData = new HashMap<>(itemData);
-                itemData.remove("type");
-                itemData.remove("_despawned");
-                toRestore.add(ItemStack.deserialize(itemData));
-                foundDespawned = true;
-            }
+        List<TrackedItem> items = selectItems(tracking, death);
+        if (items == null) {
+            sender.sendMessage(target.name + " has only " + tracking.deaths().size() + " recorded deaths.");
+            return;
         }
-        if (!foundDespawned) {
+        List<TrackedItem> toRestore = new ArrayList<>();
+        for (TrackedItem ti : items) {
+            if (ti.getState() == ItemState.DESPAWNED) toRestore.add(ti);
+        }
+        if (toRestore.isEmpty()) {
             sender.sendMessage("No despawned items to recover for this player.");
-            return true;
+            return;
+        }
+        if (view == null) giveItems(sender, target, toRestore);
+        else giveFromNetwork(sender, target, view, death, false);
+        sender.sendMessage("Inventory partially restored for " + target.name + ". Only despawned items were recovered.");
+    }
+
+    // Prunes the recovered deaths that are held on this server
+    private void pruneLocal(UUID playerId, PlayerTracking tracking, NetworkSync.View view, int death) {
+        if (death == 0) {
+            pruneRecovered.accept(playerId, null);
+            return;
         }
-        for (ItemStack stack : toRestore) {
-            target.getInventory().addItem(stack);
+        DeathRecord record = tracking == null ? null : tracking.death(death);
+        if (record == null) return;
+        if (view == null) {
+            pruneRecovered.accept(playerId, record);
+            return;
         }
-        sender.sendMessage("Inventory partially restored for " + target.getName() + ". Only despawned items were recovered.");
-        return true;
+        PlayerTracking local = trackedItems.get(playerId);
+        DeathRecord localRecord = view.nodeOf(record) != null || local == null ? null : local.deathAt(record.getTimestamp());
+        if (localRecord != null) pruneRecovered.accept(playerId, localRecord);
     }
 
-    private boolean handleForceRecover(CommandSender sender, String playerName) {
-        Player target = Bukkit.getPlayer(playerName);
-        if (target == null) {
-            sender.sendMessage("Player not found or not online.");
-            return true;
+    /**
+     * Hands out the despawned items (with force all items) of the selected deaths of a
+     * network view. Each server, this one included, first takes them out of its own
+     * tracking, so only what was actually taken is given; an item that changed since the
+     * view was built stays tracked.
+     */
+    private void giveFromNetwork(CommandSender sender, Target target, NetworkSync.View view, int death, boolean force) {
+        PlayerTracking tracking = view.tracking();
+        List<DeathRecord> selected = death == 0 ? tracking.deaths() : Collections.singletonList(tracking.death(death));
+        PlayerTracking current = trackedItems.get(target.id);
+        List<TrackedItem> local = new ArrayList<>();
+        Map<String, List<Long>> remote = new LinkedHashMap<>();
+        for (DeathRecord record : selected) {
+            List<TrackedItem> items = new ArrayList<>();
+            for (TrackedItem ti : tracking.items(record)) {
+                if (force || ti.getState() == ItemState.DESPAWNED) items.add(ti);
+            }
+            if (items.isEmpty()) continue;
+            String node = view.nodeOf(record);
+            if (node != null) {
+                remote.computeIfAbsent(node, n -> new ArrayList<>()).add(record.getTimestamp());
+                continue;
+            }
+            // The view shares its item instances with the tracking it was built from
+            DeathRecord held = current == null ? null : current.deathAt(record.getTimestamp());
+            if (held != null) local.addAll(current.takeIfSame(held, items));
         }
-        List<TrackedItem> items = trackedItems.get(target.getUniqueId());
-        if (items == null || items.isEmpty()) {
-            sender.sendMessage("No recovery data found for this player.");
-            return true;
+        if (!local.isEmpty()) {
+            trackedItems.markIfEmpty(target.id);
+            scheduleTrackingSave.accept(target.id);
+            giveItems(sender, target, local);
+        }
+        for (Map.Entry<String, List<Long>> e : remote.entrySet()) {
+            String node = e.getKey();
+            sync.take(node, target.id, e.getValue(), force, taken -> {
+                if (taken == null) {
+                    sender.sendMessage(node + " left before handing over the items of " + target.name + "; try again.");
+                } else if (!taken.isEmpty()) {
+                    giveItems(sender, target, taken);
+                }
+            });
+        }
+    }
+
+    /**
+     * Hands the items to an online target on the region they are in, which may not be this
+     * one. Whatever does not fit, or is meant for an offline target, waits for their next join.
+     */
+    private void giveItems(CommandSender sender, Target target, List<TrackedItem> items) {
+        if (target.online == null) {
+            deliveries.add(target.id, items);
+            sender.sendMessage(target.name + " is offline; " + items.size() + " stacks will be delivered when they join.");
+            return;
         }
-        List<ItemStack> toRestore = new ArrayList<>();
-        // Mark all as despawned before restoring
-        for (int i = 0; i < items.size(); i++) {
-            Map<String, Object> itemData = new HashMap<>(items.get(i).getItemData());
-            itemData.put("_despawned", true);
-            itemData.remove("type");
-            itemData.remove("_despawned"); // Remove before deserialization
-            toRestore.add(ItemStack.deserialize(itemData));
-            items.set(i, new TrackedItem(itemData, null));
-        }
-        for (ItemStack stack : toRestore) {
-            target.getInventory().addItem(stack);
-        }
-        // Remove all tracked items for this player
-        trackedItems.remove(target.getUniqueId());
-        scheduleTrackingSave.accept(target.getUniqueId());
-        sender.sendMessage("All lost items forcibly restored for " + target.getName() + ".");
+        Player player = target.online;
+        schedulers.runForEntity(player, () -> {
+            List<TrackedItem> overflow = PendingDeliveries.give(player, items);
+            if (overflow.isEmpty()) return;
+            deliveries.add(target.id, overflow);
+            player.sendMessage(overflow.size() + " recovered stacks did not fit in your inventory. "
+                    + "They will be delivered when you next join.");
+        }, () -> deliveries.add(target.id, items));
+    }
+
+    private boolean handleForceRecover(CommandSender sender, String playerName, int death) {
+        Target target = resolveTarget(sender, playerName);
+        if (target == null) return true;
+        withTracking(sender, target, (tracking, view) -> forceRecover(sender, target, tracking, view, death));
         return true;
     }
+
+    private void forceRecover(CommandSender sender, Target target, PlayerTracking tracking, NetworkSync.View view, int death) {
+        if (tracking == null || tracking.isEmpty()) {
+            sender.sendMessage("No recovery data found for this player.");
+            return;
+        }
+        DeathRecord record = death == 0 ? null : tracking.death(death);
+        if (death != 0 && record == null) {
+            sender.sendMessage(target.name + " has only " + tracking.deaths().size() + " recorded deaths.");
+            return;
+        }
+        if (view == null) {
+            List<TrackedItem> toRestore = record == null ? tracking.items() : tracking.items(record);
+            giveItems(sender, target, toRestore);
+            clearLocal(target.id, tracking, record);
+        } else {
+            // Takes exactly what it gives, here and on the servers holding the other deaths
+            giveFromNetwork(sender, target, view, death, true);
+        }
+        sender.sendMessage(record == null ? "All lost items forcibly restored for " + target.name + "."
+                : "Lost items of death #" + death + " forcibly restored for " + target.name + ".");
+    }
+
+    // Empties one death of the local tracking, or all of it if death is null
+    private void clearLocal(UUID playerId, PlayerTracking tracking, DeathRecord death) {
+        if (death == null) {
+            // Remove all tracked items for this player
+            trackedItems.clear(playerId);
+        } else {
+            tracking.clearDeath(death);
+            trackedItems.markIfEmpty(playerId);
+        }
+        scheduleTrackingSave.accept(playerId);
+    }
 }
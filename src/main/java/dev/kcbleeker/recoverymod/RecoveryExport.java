@@ -0,0 +1,287 @@
+package dev.kcbleeker.recoverymod;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * Streams stored recovery data out as NDJSON or CSV, one row per tracked item, for audits
+ * and dupe investigations. Rows are read from the storage backend one player at a time
+ * and written as they are read, so memory stays flat however many players are stored.
+ *
+ * Used by /recover export and by {@link RecoveryCli}, so nothing here touches the Bukkit API.
+ */
+public final class RecoveryExport {
+    public enum Format {
+        NDJSON(".ndjson"),
+        CSV(".csv");
+
+        final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String extension() {
+            return extension;
+        }
+    }
+
+    /**
+     * What to export and how. Every filter left empty matches everything; times are death
+     * times, from inclusive and to exclusive.
+     */
+    public static final class Query {
+        final Set<UUID> players = new HashSet<>();
+        final Set<String> materials = new HashSet<>();
+        final Set<ItemState> states = EnumSet.noneOf(ItemState.class);
+        long from = 0;
+        long to = Long.MAX_VALUE;
+        Format format = Format.NDJSON;
+        boolean payloads;
+
+        public Format format() {
+            return format;
+        }
+
+        /**
+         * Applies one option: player, material, state (each repeatable or comma-separated),
+         * from, to, format or payloads. Returns an error message, or null if it was applied.
+         * Player names are resolved with players, which returns null for an unknown name.
+         */
+        public String set(String key, String value, java.util.function.Function<String, UUID> players) {
+            switch (key.toLowerCase(Locale.ROOT)) {
+                case "player":
+                    for (String name : value.split(",")) {
+                        UUID playerId = parseUuid(name);
+                        if (playerId == null) playerId = players.apply(name);
+                        if (playerId == null) return "Unknown player " + name + ".";
+                        this.players.add(playerId);
+                    }
+                    return null;
+                case "material":
+                    for (String material : value.split(",")) materials.add(material.toUpperCase(Locale.ROOT));
+                    return null;
+                case "state":
+                    for (String state : value.split(",")) {
+                        try {
+                            states.add(ItemState.valueOf(state.toUpperCase(Locale.ROOT)));
+                        } catch (IllegalArgumentException e) {
+                            return "Unknown state " + state + "; one of " + Arrays.toString(ItemState.values()) + ".";
+                        }
+                    }
+                    return null;
+                case "from":
+                case "to":
+                    long time = parseTime(value);
+                    if (time < 0) return "Time must be a date (2026-01-31), an instant (2026-01-31T12:00:00Z) or epoch millis.";
+                    if (key.equalsIgnoreCase("from")) from = time;
+                    else to = time;
+                    return null;
+                case "format":
+                    try {
+                        format = Format.valueOf(value.toUpperCase(Locale.ROOT));
+                        return null;
+                    } catch (IllegalArgumentException e) {
+                        return "Format must be ndjson or csv.";
+                    }
+                case "payloads":
+                    payloads = Boolean.parseBoolean(value);
+                    return null;
+                default:
+                    return "Unknown option " + key + ".";
+            }
+        }
+
+        boolean matches(long death) {
+            return death >= from && death < to;
+        }
+
+        boolean matches(StoredItem item) {
+            return (materials.isEmpty() || materials.contains(item.getMaterial()))
+                    && (states.isEmpty() || states.contains(item.getState()));
+        }
+    }
+
+    // One tracked item of one death
+    public static final class Row {
+        final UUID playerId;
+        final long death;
+        final int slot;
+        final StoredItem item;
+
+        Row(UUID playerId, long death, int slot, StoredItem item) {
+            this.playerId = playerId;
+            this.death = death;
+            this.slot = slot;
+            this.item = item;
+        }
+    }
+
+    private RecoveryExport() {}
+
+    /**
+     * Rows matching the query, read lazily one player at a time. A player whose data can't
+     * be read is passed to skipped and left out.
+     */
+    public static Iterator<Row> rows(StorageBackend storage, Query query,
+                                     java.util.function.BiConsumer<UUID, IOException> skipped) {
+        Iterator<UUID> players = (query.players.isEmpty() ? storage.players() : query.players).iterator();
+        return new Iterator<Row>() {
+            private Iterator<Row> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    if (!players.hasNext()) return false;
+                    current = rowsOf(storage, players.next(), query, skipped).iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public Row next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return current.next();
+            }
+        };
+    }
+
+    // At most one player's deaths, which maxDeathsPerPlayer keeps small
+    private static List<Row> rowsOf(StorageBackend storage, UUID playerId, Query query,
+                                    java.util.function.BiConsumer<UUID, IOException> skipped) {
+        List<Row> rows = new ArrayList<>();
+        // Nothing to read if even the latest death is too old
+        long lastDeath = storage.getLastDeath(playerId);
+        if (lastDeath > 0 && lastDeath < query.from) return rows;
+        StoredTracking stored;
+        try {
+            stored = storage.loadStoredTracking(playerId);
+        } catch (IOException e) {
+            skipped.accept(playerId, e);
+            return rows;
+        }
+        if (stored == null) return rows;
+        List<StoredItem> items = stored.getItems();
+        for (DeathRecord death : stored.getDeaths()) {
+            if (!query.matches(death.getTimestamp())) continue;
+            for (int slot = death.getStart(); slot < death.getEnd() && slot < items.size(); slot++) {
+                StoredItem item = items.get(slot);
+                if (item != null && query.matches(item)) rows.add(new Row(playerId, death.getTimestamp(), slot, item));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Writes the rows in the query's format; names gives a player's last known name, or
+     * null. Returns the number of rows written. Does not close the writer.
+     */
+    public static long write(Iterator<Row> rows, Query query, java.util.function.Function<UUID, String> names,
+                             Writer out) throws IOException {
+        if (query.format == Format.CSV) {
+            out.write("player,name,death,death_time,slot,material,amount,state,drop");
+            out.write(query.payloads ? ",payload\n" : "\n");
+        }
+        StringBuilder line = new StringBuilder(256);
+        long count = 0;
+        while (rows.hasNext()) {
+            Row row = rows.next();
+            line.setLength(0);
+            if (query.format == Format.CSV) csv(line, row, names.apply(row.playerId), query.payloads);
+            else json(line, row, names.apply(row.playerId), query.payloads);
+            line.append('\n');
+            out.append(line);
+            count++;
+        }
+        out.flush();
+        return count;
+    }
+
+    private static void json(StringBuilder line, Row row, String name, boolean payloads) {
+        StoredItem item = row.item;
+        line.append("{\"player\":\"").append(row.playerId).append('"');
+        line.append(",\"name\":");
+        jsonString(line, name);
+        line.append(",\"death\":").append(row.death);
+        line.append(",\"death_time\":\"").append(Instant.ofEpochMilli(row.death)).append('"');
+        line.append(",\"slot\":").append(row.slot);
+        line.append(",\"material\":");
+        jsonString(line, item.getMaterial());
+        line.append(",\"amount\":").append(item.getAmount());
+        line.append(",\"state\":\"").append(item.getState()).append('"');
+        line.append(",\"drop\":");
+        jsonString(line, item.getDropId() == null ? null : item.getDropId().toString());
+        if (payloads) {
+            line.append(",\"payload\":\"").append(Base64.getEncoder().encodeToString(item.getPayload())).append('"');
+        }
+        line.append('}');
+    }
+
+    private static void jsonString(StringBuilder line, String value) {
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') line.append('\\').append(c);
+            else if (c < 0x20) line.append(String.format("\\u%04x", (int) c));
+            else line.append(c);
+        }
+        line.append('"');
+    }
+
+    private static void csv(StringBuilder line, Row row, String name, boolean payloads) {
+        StoredItem item = row.item;
+        line.append(row.playerId).append(',');
+        csvField(line, name);
+        line.append(',').append(row.death);
+        line.append(',').append(Instant.ofEpochMilli(row.death));
+        line.append(',').append(row.slot).append(',');
+        csvField(line, item.getMaterial());
+        line.append(',').append(item.getAmount());
+        line.append(',').append(item.getState());
+        line.append(',');
+        if (item.getDropId() != null) line.append(item.getDropId());
+        if (payloads) line.append(',').append(Base64.getEncoder().encodeToString(item.getPayload()));
+    }
+
+    private static void csvField(StringBuilder line, String value) {
+        if (value == null) return;
+        boolean quote = value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0;
+        if (!quote) {
+            line.append(value);
+            return;
+        }
+        line.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+
+    // A date (UTC midnight), an ISO instant or epoch millis; -1 if it is none of them
+    static long parseTime(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ignored) {}
+        try {
+            return LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        } catch (DateTimeParseException ignored) {}
+        try {
+            return Instant.parse(value).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private static UUID parseUuid(String value) {
+        try {
+            return value.length() == 36 ? UUID.fromString(value) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package dev.kcbleeker.recoverymod;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Versioned binary format for death snapshots and tracking files.
+ *
+ * Layout: magic, version, flags and timestamp as an uncompressed header, followed by
+ * the (optionally deflated) body: a record count, length-prefixed item records and the
+ * death table. A null entry in the list is an empty slot and is preserved, so slot
+ * numbers stay stable.
+ *
+ * Payloads are interned ({@link ItemTemplatePool}), so identical stacks in the file share
+ * one array; a payload that is the same array as one written earlier in the file is
+ * stored as a back-reference to that record instead.
+ */
+public final class RecoveryFileFormat {
+    public static final String EXTENSION = ".dat";
+
+    static final int MAGIC = 0x524D4442; // "RMDB"
+    // 2: records are preceded by a presence flag, empty slots are kept; 3: item state byte;
+    // 4: payload back-references and the death table
+    static final int VERSION = 4;
+    static final int FLAG_DEFLATE = 1;
+    // Deflate level of files written with compress set; encode can ask for another
+    static final int DEFAULT_LEVEL = Deflater.BEST_SPEED;
+    static final int NO_DEFLATE = -2;
+
+    private static final int HEADER_SIZE = 4 + 1 + 1 + 8;
+
+    private RecoveryFileFormat() {}
+
+    public static void write(File file, long timestamp, StoredTracking contents, boolean compress) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            write(new BufferedOutputStream(fos), timestamp, contents, compress ? DEFAULT_LEVEL : NO_DEFLATE);
+            fos.getFD().sync();
+        }
+    }
+
+    // The same layout as a file, for storage backends that keep it as a blob
+    public static byte[] encode(long timestamp, StoredTracking contents, boolean compress) throws IOException {
+        return encode(timestamp, contents, compress ? DEFAULT_LEVEL : NO_DEFLATE);
+    }
+
+    // The same with a Deflater level, or NO_DEFLATE; cold data is written once and can afford a slower one
+    public static byte[] encode(long timestamp, StoredTracking contents, int level) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        write(bytes, timestamp, contents, level);
+        return bytes.toByteArray();
+    }
+
+    public static StoredTracking decode(byte[] data) throws IOException {
+        return read(new ByteArrayInputStream(data), "blob");
+    }
+
+    // Does not close the stream
+    private static void write(OutputStream out, long timestamp, StoredTracking contents, int level) throws IOException {
+        boolean compress = level != NO_DEFLATE;
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.writeByte(compress ? FLAG_DEFLATE : 0);
+        header.writeLong(timestamp);
+        if (compress) {
+            Deflater deflater = new Deflater(level);
+            try {
+                DeflaterOutputStream deflated = new DeflaterOutputStream(header, deflater);
+                DataOutputStream body = new DataOutputStream(deflated);
+                writeBody(body, contents);
+                body.flush();
+                deflated.finish();
+            } finally {
+                deflater.end();
+            }
+        } else {
+            writeBody(header, contents);
+        }
+        header.flush();
+    }
+
+    public static StoredTracking read(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return read(in, file.getName());
+        }
+    }
+
+    private static StoredTracking read(InputStream input, String name) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        int version = in.readInt() == MAGIC ? in.readUnsignedByte() : -1;
+        if (version < 1 || version > VERSION) throw new IOException("Not a readable recovery data file: " + name);
+        int flags = in.readUnsignedByte();
+        long timestamp = in.readLong();
+        if ((flags & FLAG_DEFLATE) != 0) {
+            return readBody(new DataInputStream(new InflaterInputStream(in)), version, timestamp);
+        }
+        return readBody(in, version, timestamp);
+    }
+
+    // Reads only the header, so callers can check the age of a file without decoding it
+    public static long readTimestamp(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            byte[] header = new byte[HEADER_SIZE];
+            in.readFully(header);
+            DataInputStream h = new DataInputStream(new ByteArrayInputStream(header));
+            readHeader(h, file);
+            return h.readLong();
+        }
+    }
+
+    private static int readHeader(DataInputStream in, File file) throws IOException {
+        if (in.readInt() != MAGIC) throw new IOException("Not a recovery data file: " + file.getName());
+        int version = in.readUnsignedByte();
+        if (version > VERSION) throw new IOException("Unsupported recovery data version " + version + " in " + file.getName());
+        return in.readUnsignedByte();
+    }
+
+    private static void writeBody(DataOutputStream out, StoredTracking contents) throws IOException {
+        List<StoredItem> items = contents.getItems();
+        // Record index of each payload array already written
+        Map<byte[], Integer> written = new IdentityHashMap<>();
+        out.writeInt(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            StoredItem item = items.get(i);
+            out.writeBoolean(item != null);
+            if (item == null) continue;
+            out.writeUTF(item.getMaterial());
+            out.writeInt(item.getAmount());
+            out.writeByte(item.getState().ordinal());
+            UUID dropId = item.getDropId();
+            out.writeBoolean(dropId != null);
+            if (dropId != null) {
+                out.writeLong(dropId.getMostSignificantBits());
+                out.writeLong(dropId.getLeastSignificantBits());
+            }
+            byte[] payload = item.getPayload();
+            Integer earlier = written.putIfAbsent(payload, i);
+            if (earlier != null) {
+                out.writeInt(-earlier - 1);
+            } else {
+                out.writeInt(payload.length);
+                out.write(payload);
+            }
+        }
+        List<DeathRecord> deaths = contents.getDeaths();
+        out.writeInt(deaths.size());
+        for (DeathRecord death : deaths) {
+            out.writeLong(death.getTimestamp());
+            out.writeInt(death.getStart());
+            out.writeInt(death.getEnd());
+        }
+    }
+
+    private static StoredTracking readBody(DataInputStream in, int version, long timestamp) throws IOException {
+        int count = in.readInt();
+        List<StoredItem> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (version >= 2 && !in.readBoolean()) {
+                items.add(null);
+                continue;
+            }
+            String material = in.readUTF();
+            int amount = in.readInt();
+            ItemState state;
+            if (version >= 3) {
+                state = ItemState.values()[in.readUnsignedByte()];
+            } else {
+                state = in.readBoolean() ? ItemState.DESPAWNED : null;
+            }
+            UUID dropId = in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+            // Older files only recorded the despawned flag
+            if (state == null) state = dropId != null ? ItemState.ON_GROUND : ItemState.UNKNOWN;
+            int length = in.readInt();
+            byte[] payload;
+            if (length < 0) {
+                // Shares the array with the earlier record, in memory as well as on disk
+                StoredItem earlier = items.get(-length - 1);
+                if (earlier == null) throw new IOException("Payload reference to an empty slot");
+                payload = earlier.getPayload();
+            } else {
+                payload = new byte[length];
+                in.readFully(payload);
+            }
+            items.add(new StoredItem(material, amount, state, dropId, payload));
+        }
+        List<DeathRecord> deaths = new ArrayList<>();
+        if (version >= 4) {
+            int deathCount = in.readInt();
+            for (int i = 0; i < deathCount; i++) deaths.add(new DeathRecord(in.readLong(), in.readInt(), in.readInt()));
+        } else if (count > 0) {
+            // Older files hold a single death
+            deaths.add(new DeathRecord(timestamp, 0, count));
+        }
+        return new StoredTracking(items, deaths);
+    }
+}
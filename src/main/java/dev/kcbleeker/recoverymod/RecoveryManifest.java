@@ -0,0 +1,149 @@
+package dev.kcbleeker.recoverymod;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Small persistent index of per-player recovery metadata, so retention and listing
+ * decisions don't need to open the data files themselves.
+ */
+public class RecoveryManifest {
+    public static final String FILE_NAME = "manifest.idx";
+
+    private static final int MAGIC = 0x524D4D46; // "RMMF"
+    private static final int VERSION = 1;
+
+    public static class Entry {
+        volatile long lastDeath; // timestamp of the death snapshot, 0 if none
+        volatile long trackingTimestamp; // when the tracking snapshot was last written, 0 if none
+        volatile int itemCount;
+        volatile int despawnedCount;
+        volatile long inventoryBytes;
+        volatile long trackingBytes; // tracking snapshot plus journal
+        // Last-modified times of the files as recorded, used to detect a stale entry
+        volatile long inventoryModified;
+        volatile long trackingModified;
+
+        public long getLastDeath() {
+            return lastDeath;
+        }
+
+        public long getTrackingTimestamp() {
+            return trackingTimestamp;
+        }
+
+        public int getItemCount() {
+            return itemCount;
+        }
+
+        public int getDespawnedCount() {
+            return despawnedCount;
+        }
+
+        public long getInventoryBytes() {
+            return inventoryBytes;
+        }
+
+        public long getTrackingBytes() {
+            return trackingBytes;
+        }
+    }
+
+    private final File file;
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    public RecoveryManifest(File dataFolder) {
+        this.file = new File(dataFolder, FILE_NAME);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public Entry get(UUID playerId) {
+        return entries.get(playerId);
+    }
+
+    public Entry getOrCreate(UUID playerId) {
+        dirty = true;
+        return entries.computeIfAbsent(playerId, id -> new Entry());
+    }
+
+    public void remove(UUID playerId) {
+        if (entries.remove(playerId) != null) dirty = true;
+    }
+
+    public Set<UUID> players() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    public void updateCounts(UUID playerId, int itemCount, int despawnedCount) {
+        Entry e = getOrCreate(playerId);
+        e.itemCount = itemCount;
+        e.despawnedCount = despawnedCount;
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    // Loads the manifest; returns false if it is missing or unreadable and must be rebuilt
+    public boolean load() {
+        entries.clear();
+        if (!file.exists()) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) return false;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                UUID playerId = new UUID(in.readLong(), in.readLong());
+                Entry e = new Entry();
+                e.lastDeath = in.readLong();
+                e.trackingTimestamp = in.readLong();
+                e.itemCount = in.readInt();
+                e.despawnedCount = in.readInt();
+                e.inventoryBytes = in.readLong();
+                e.trackingBytes = in.readLong();
+                e.inventoryModified = in.readLong();
+                e.trackingModified = in.readLong();
+                entries.put(playerId, e);
+            }
+            dirty = false;
+            return true;
+        } catch (IOException e) {
+            entries.clear();
+            return false;
+        }
+    }
+
+    public synchronized void save() throws IOException {
+        dirty = false;
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            List<Map.Entry<UUID, Entry>> snapshot = new ArrayList<>(entries.entrySet());
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<UUID, Entry> me : snapshot) {
+                Entry e = me.getValue();
+                out.writeLong(me.getKey().getMostSignificantBits());
+                out.writeLong(me.getKey().getLeastSignificantBits());
+                out.writeLong(e.lastDeath);
+                out.writeLong(e.trackingTimestamp);
+                out.writeInt(e.itemCount);
+                out.writeInt(e.despawnedCount);
+                out.writeLong(e.inventoryBytes);
+                out.writeLong(e.trackingBytes);
+                out.writeLong(e.inventoryModified);
+                out.writeLong(e.trackingModified);
+            }
+        } catch (IOException e) {
+            dirty = true;
+            throw e;
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
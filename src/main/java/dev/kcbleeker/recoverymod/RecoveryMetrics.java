@@ -0,0 +1,208 @@
+package dev.kcbleeker.recoverymod;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Low-overhead counters and latency histograms. Recording is lock-free and safe from
+ * any thread; gauges are sampled by the owner and only read here.
+ */
+public class RecoveryMetrics {
+    public enum Timer {
+        DEATH("death_handler"),
+        DESPAWN("despawn_handler"),
+        PICKUP("pickup_handler"),
+        MERGE("merge_handler"),
+        DROP_ASSIGNMENT("drop_assignment"),
+        TRACKING_FLUSH("tracking_flush"),
+        RETENTION_SWEEP("retention_sweep"),
+        BULK_RECOVERY("bulk_recovery"),
+        STARTUP_LOAD("startup_load");
+
+        final String metricName;
+
+        Timer(String metricName) {
+            this.metricName = metricName;
+        }
+    }
+
+    public enum Counter {
+        BYTES_WRITTEN("bytes_written_total", "Bytes written to recovery data files"),
+        FILES_WRITTEN("files_written_total", "Recovery data files written or appended to"),
+        FILES_DELETED("files_deleted_total", "Recovery data files deleted"),
+        JOURNAL_ENTRIES("journal_entries_total", "Tracking changes appended to journals"),
+        PLAYERS_ARCHIVED("players_archived_total", "Players moved to cold archive packs");
+
+        final String metricName;
+        final String help;
+
+        Counter(String metricName, String help) {
+            this.metricName = metricName;
+            this.help = help;
+        }
+    }
+
+    public enum Gauge {
+        PENDING_SAVES("pending_saves", "Players with writes queued on the persistence thread"),
+        WRITER_OVERFLOWS("writer_overflows", "Writes that found the persistence queue full since startup"),
+        DIRTY_PLAYERS("dirty_players", "Players waiting for a batched tracking snapshot"),
+        TRACKED_ITEMS("tracked_items", "Tracked items resident in memory"),
+        RESIDENT_PLAYERS("resident_players", "Players whose tracking is resident in memory"),
+        INDEXED_DROPS("indexed_drops", "Drop entities in the reverse index"),
+        ITEM_TEMPLATES("item_templates", "Distinct item payloads in the intern pool"),
+        PREDICTED_DESPAWNS("predicted_despawns", "Drops counting down to a predicted despawn");
+
+        final String metricName;
+        final String help;
+
+        Gauge(String metricName, String help) {
+            this.metricName = metricName;
+            this.help = help;
+        }
+    }
+
+    private static final String PREFIX = "recoverymod_";
+    // Histogram bucket upper bounds in nanoseconds, 1us to 1s
+    private static final long[] BUCKETS = {
+        1_000L, 5_000L, 10_000L, 50_000L, 100_000L, 500_000L,
+        1_000_000L, 5_000_000L, 10_000_000L, 50_000_000L, 100_000_000L, 1_000_000_000L
+    };
+
+    private static final class Histogram {
+        final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1]; // last one is +Inf
+        final LongAdder count = new LongAdder();
+        final LongAdder sum = new LongAdder();
+        final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        void record(long nanos) {
+            int i = 0;
+            while (i < BUCKETS.length && nanos > BUCKETS[i]) i++;
+            buckets[i].increment();
+            count.increment();
+            sum.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        // Upper bound of the bucket holding the given quantile, or the max for the last bucket
+        long quantile(double q) {
+            long total = count.sum();
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(q * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= rank) return Math.min(BUCKETS[i], max.get());
+            }
+            return max.get();
+        }
+    }
+
+    private final Map<Timer, Histogram> timers = new EnumMap<>(Timer.class);
+    private final Map<Counter, LongAdder> counters = new EnumMap<>(Counter.class);
+    private final long[] gauges = new long[Gauge.values().length];
+
+    public RecoveryMetrics() {
+        for (Timer timer : Timer.values()) timers.put(timer, new Histogram());
+        for (Counter counter : Counter.values()) counters.put(counter, new LongAdder());
+    }
+
+    // Records the time elapsed since a System.nanoTime() start value
+    public void record(Timer timer, long startNanos) {
+        timers.get(timer).record(System.nanoTime() - startNanos);
+    }
+
+    public void increment(Counter counter) {
+        counters.get(counter).increment();
+    }
+
+    public void add(Counter counter, long amount) {
+        counters.get(counter).add(amount);
+    }
+
+    public long get(Counter counter) {
+        return counters.get(counter).sum();
+    }
+
+    public void setGauge(Gauge gauge, long value) {
+        synchronized (gauges) {
+            gauges[gauge.ordinal()] = value;
+        }
+    }
+
+    // Human-readable summary for /recover stats
+    public List<String> summary() {
+        List<String> lines = new ArrayList<>();
+        for (Timer timer : Timer.values()) {
+            Histogram h = timers.get(timer);
+            long count = h.count.sum();
+            if (count == 0) {
+                lines.add(timer.metricName + ": no samples");
+                continue;
+            }
+            lines.add(String.format("%s: n=%d avg=%s p50<=%s p99<=%s max=%s", timer.metricName, count,
+                    formatNanos(h.sum.sum() / count), formatNanos(h.quantile(0.5)),
+                    formatNanos(h.quantile(0.99)), formatNanos(h.max.get())));
+        }
+        for (Counter counter : Counter.values()) lines.add(counter.metricName + ": " + counters.get(counter).sum());
+        synchronized (gauges) {
+            for (Gauge gauge : Gauge.values()) lines.add(gauge.metricName + ": " + gauges[gauge.ordinal()]);
+        }
+        return lines;
+    }
+
+    // Prometheus text exposition format, version 0.0.4
+    public String toPrometheus() {
+        StringBuilder sb = new StringBuilder(4096);
+        for (Timer timer : Timer.values()) {
+            Histogram h = timers.get(timer);
+            String name = PREFIX + timer.metricName + "_seconds";
+            sb.append("# TYPE ").append(name).append(" histogram\n");
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                cumulative += h.buckets[i].sum();
+                sb.append(name).append("_bucket{le=\"").append(BUCKETS[i] / 1e9).append("\"} ").append(cumulative).append('\n');
+            }
+            cumulative += h.buckets[BUCKETS.length].sum();
+            sb.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+            sb.append(name).append("_sum ").append(h.sum.sum() / 1e9).append('\n');
+            sb.append(name).append("_count ").append(cumulative).append('\n');
+        }
+        for (Counter counter : Counter.values()) {
+            String name = PREFIX + counter.metricName;
+            sb.append("# HELP ").append(name).append(' ').append(counter.help).append('\n');
+            sb.append("# TYPE ").append(name).append(" counter\n");
+            sb.append(name).append(' ').append(counters.get(counter).sum()).append('\n');
+        }
+        synchronized (gauges) {
+            for (Gauge gauge : Gauge.values()) {
+                String name = PREFIX + gauge.metricName;
+                sb.append("# HELP ").append(name).append(' ').append(gauge.help).append('\n');
+                sb.append("# TYPE ").append(name).append(" gauge\n");
+                sb.append(name).append(' ').append(gauges[gauge.ordinal()]).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    // Writes aside and renames, so a scraper never reads a partial file
+    public void writePrometheusFile(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), toPrometheus().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 1_000_000L) return String.format("%.1fus", nanos / 1e3);
+        return String.format("%.2fms", nanos / 1e6);
+    }
+}
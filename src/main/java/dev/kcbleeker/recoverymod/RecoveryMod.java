@@ -1,78 +1,167 @@
 package dev.kcbleeker.recoverymod;
 
 import org.bukkit.Bukkit;
+import org.bukkit.NamespacedKey;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.entity.PlayerDeathEvent;
 import org.bukkit.event.entity.EntityPickupItemEvent;
 import org.bukkit.event.entity.EntityRemoveEvent;
 import org.bukkit.event.entity.ItemMergeEvent;
+import org.bukkit.event.entity.ItemSpawnEvent;
+import org.bukkit.event.inventory.InventoryPickupItemEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.world.EntitiesLoadEvent;
+import org.bukkit.event.world.EntitiesUnloadEvent;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.persistence.PersistentDataType;
 import org.bukkit.plugin.PluginManager;
-import org.bukkit.scheduler.BukkitRunnable;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.yaml.snakeyaml.Yaml;
-import org.yaml.snakeyaml.DumperOptions;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import dev.kcbleeker.recoverymod.RecoveryTracking.TrackedItem;
 
 public class RecoveryMod extends JavaPlugin implements Listener {
     private File dataFolder;
-    private RecoveryPersistence persistence;
+    private StorageBackend storage;
+    private PersistenceWriter writer;
     private RecoveryCommandHandler commandHandler;
-    private DumperOptions dumperOptions;
-    private int fileRetentionDays = 30;
+    // Re-read from config.yml while running, see reloadRetentionDays
+    private volatile int fileRetentionDays = 30;
+    private File configFile;
+    private long configModified;
+    private int writerQueueCapacity = 1024;
+    private int shutdownFlushSeconds = 10;
+    private boolean compressStorage = true;
+    private int maxResidentItems = 100000;
+    private int metricsIntervalSeconds = 60;
+    private int maxDeathsPerPlayer = 5;
+    private String storageBackend = "file";
+    private int itemDespawnTicks = 6000;
+    private int archiveAfterDays = 7;
+    private String syncTransport = "none";
+    private String syncDirectory = "";
+    private String syncNode = "";
+    private String syncNetwork = "default";
+    private final java.util.concurrent.atomic.AtomicBoolean migrating = new java.util.concurrent.atomic.AtomicBoolean();
+    private final java.util.concurrent.atomic.AtomicBoolean exporting = new java.util.concurrent.atomic.AtomicBoolean();
+
+    private final RecoveryMetrics metrics = new RecoveryMetrics();
+
+    // Tracking cache: player UUID -> list of tracked items, loaded on demand
+    private TrackingCache trackedItems;
+
+    // Players waiting for a full tracking snapshot, written in batches
+    private TrackingFlusher flusher;
+
+    // Reverse index: drop UUID -> (player UUID, slot)
+    private final DropIndex dropIndex = new DropIndex();
+    // Owner of an assigned drop, kept on the entity so its events still find the player after a restart
+    private final NamespacedKey dropOwnerKey = new NamespacedKey(this, "owner");
 
-    // Tracking map: player UUID -> list of tracked items
-    private final Map<UUID, List<TrackedItem>> trackedItems = new HashMap<>();
+    private DropAssignmentManager dropAssignmentManager;
 
-    // Debounce map: player UUID -> scheduled save task
-    private final Map<UUID, BukkitRunnable> debounceTasks = new HashMap<>();
+    // Predicted despawns of assigned drops in loaded chunks, advanced every tick on the global region
+    private final DespawnWheel despawnWheel = new DespawnWheel();
+    // A drop that is still around this long after its predicted despawn is left to the real event
+    private static final int DESPAWN_GRACE_TICKS = 100;
 
-    // New: Map from drop UUID to player UUID for fast lookup
-    private final Map<UUID, UUID> dropToPlayer = new HashMap<>();
+    // Lets /recover target offline players by name
+    private PlayerNameCache names;
 
-    private DropAssignmentManager dropAssignmentManager;
+    // Restored items waiting for their player to join
+    private PendingDeliveries deliveries;
+
+    private BulkRecovery bulkRecovery;
+
+    // Shares recovery state with the other servers of a network; null unless syncTransport is set
+    private NetworkSync sync;
+
+    private final Schedulers schedulers = new Schedulers(this);
 
     @Override
     public void onEnable() {
         setupDataFolder();
+        handleConfigFile();
         setupPersistenceAndCommands();
+        long start = System.nanoTime();
+        if (!openStorage()) return;
+        startSync();
+        dropAssignmentManager = new DropAssignmentManager(this, trackedItems, this::recordTrackingChange, metrics, schedulers);
         registerEvents();
-        handleConfigFile();
         cleanupOldRecoveryFiles();
-        loadAllPlayerTracking();
-        dropAssignmentManager = new DropAssignmentManager(this, trackedItems, this::scheduleTrackingSave);
+        loadPlayerNames();
+        loadOnlinePlayerTracking();
+        metrics.record(RecoveryMetrics.Timer.STARTUP_LOAD, start);
+        scheduleCacheMaintenance();
+        scheduleRetentionSweep();
+        scheduleDespawnWheel();
+        scheduleMetricsFile();
+        if (Schedulers.isFolia()) getLogger().info("Folia detected, using region schedulers.");
         getLogger().info("RecoveryMod enabled!");
     }
 
     @Override
     public void onDisable() {
-        trackedItems.keySet().forEach(this::saveTrackingData);
-        debounceTasks.values().forEach(BukkitRunnable::cancel);
-        debounceTasks.clear();
+        if (sync != null) sync.close();
+        // Only players still waiting for the flusher have unsaved changes
+        if (flusher != null) flusher.flushAll();
+        if (writer != null) writer.shutdown(shutdownFlushSeconds, TimeUnit.SECONDS);
+        if (storage != null) storage.close();
+        if (names != null && names.isDirty()) saveNames();
         getLogger().info("RecoveryMod disabled!");
     }
 
+    @EventHandler
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        Player player = event.getPlayer();
+        UUID playerId = player.getUniqueId();
+        names.record(playerId, player.getName());
+        deliveries.deliver(player);
+        if (trackedItems.isLoaded(playerId)) return;
+        // Read from disk off the server threads, through the cache so the sweeper can't expire it mid-read
+        schedulers.runAsync(() -> trackedItems.get(playerId));
+    }
+
     @EventHandler
     public void onPlayerDeath(PlayerDeathEvent event) {
+        long start = System.nanoTime();
         Player player = event.getEntity();
+        long timestamp = System.currentTimeMillis();
         List<TrackedItem> tracked = serializeInventory(player);
-        persistence.saveInventoryFile(player, tracked);
+        writer.submitInventory(player.getUniqueId(), tracked, timestamp);
         if (!tracked.isEmpty()) {
-            trackedItems.put(player.getUniqueId(), tracked);
-            dropAssignmentManager.scheduleDropIdAssignment(player);
+            addDeath(player.getUniqueId(), tracked, timestamp);
+            // The drops spawn right after this event; they are matched as they do
+            dropAssignmentManager.expectDrops(player, timestamp);
         }
+        metrics.record(RecoveryMetrics.Timer.DEATH, start);
+    }
+
+    // Earlier deaths stay recoverable until they fall out of the player's ring
+    private void addDeath(UUID playerId, List<TrackedItem> tracked, long timestamp) {
+        PlayerTracking tracking = trackedItems.get(playerId);
+        if (tracking == null) tracking = trackedItems.putIfAbsent(playerId, new PlayerTracking(Collections.emptyList()));
+        for (UUID dropId : tracking.addDeath(timestamp, tracked, maxDeathsPerPlayer)) dropIndex.remove(dropId);
+        // The deaths that were kept may have moved to lower slots
+        dropIndex.addAll(playerId, tracking);
+        // Only the new death is written; the kept ones are already stored, and later changes are journaled after it
+        List<DeathRecord> kept = tracking.deaths();
+        kept.remove(kept.size() - 1);
+        recordTrackingChange(playerId, TrackingJournal.Entry.death(timestamp, RecoveryPersistence.toStored(tracked), kept));
     }
 
-    private List<TrackedItem> serializeInventory(Player player) {
+    // Package-private so the benchmarks can measure capture on its own
+    List<TrackedItem> serializeInventory(Player player) {
         List<TrackedItem> tracked = new ArrayList<>();
         ItemStack[] contents = player.getInventory().getContents();
         // Only add main inventory slots (0-35)
@@ -98,112 +187,200 @@ public class RecoveryMod extends JavaPlugin implements Listener {
     }
 
     private TrackedItem createTrackedItem(ItemStack item) {
-        Map<String, Object> serializedItem = item.serialize();
-        serializedItem.put("type", item.getType().name());
-        return new TrackedItem(serializedItem, null);
+        return TrackedItem.of(item);
     }
 
-    @EventHandler
+    // Item event handlers fire for every item entity on the server, so each one first
+    // rejects untracked drops with an index lookup and, on a miss, a check for the owner tag.
+    @EventHandler(priority = EventPriority.MONITOR)
     public void onEntityRemoved(EntityRemoveEvent event) {
         if (!isTrackedItemEntity(event)) return;
         UUID itemId = event.getEntity().getUniqueId();
-        UUID playerId = dropToPlayer.get(itemId);
-        if (playerId != null) markDespawnedAndSave(itemId, playerId);
+        DropIndex.Handle handle = lookup(event.getEntity());
+        if (handle == null) return;
+        // Timed only once tracked, so untracked entities don't dilute the histogram
+        long start = System.nanoTime();
+        despawnWheel.cancel(itemId);
+        switch (event.getCause()) {
+            case DESPAWN:
+                markDespawnedAndSave(itemId, handle);
+                metrics.record(RecoveryMetrics.Timer.DESPAWN, start);
+                break;
+            case PICKUP:
+                // Pickups with their own event were handled there; this catches the rest
+                handleTrackedPickup(itemId, handle);
+                metrics.record(RecoveryMetrics.Timer.PICKUP, start);
+                break;
+            default:
+                // Burnt, exploded, out of the world or removed by a plugin: the item is gone, but
+                // not by despawning, so only a forced recovery gives it back
+                markLostAndSave(itemId, handle);
+                metrics.record(RecoveryMetrics.Timer.DESPAWN, start);
+                break;
+        }
     }
 
-    private boolean isTrackedItemEntity(EntityRemoveEvent event) {
-        return event.getEntity() instanceof org.bukkit.entity.Item &&
-               event.getCause() == EntityRemoveEvent.Cause.DESPAWN;
+    // Starts the countdown for a drop that was just assigned or loaded; its age only grows while loaded
+    void predictDespawn(org.bukkit.entity.Item drop) {
+        if (drop.isUnlimitedLifetime()) return;
+        despawnWheel.schedule(drop.getUniqueId(), itemDespawnTicks - drop.getTicksLived() + DESPAWN_GRACE_TICKS);
     }
 
-    private void markDespawnedAndSave(UUID itemId, UUID playerId) {
-        List<TrackedItem> itemList = trackedItems.get(playerId);
-        if (itemList == null) return;
-        for (int i = 0; i < itemList.size(); i++) {
-            if (markDespawnedIfMatch(itemList, i, itemId, playerId)) {
-                scheduleTrackingSave(playerId);
-                break;
-            }
+    // Global region, once per tick: a drop whose despawn event never arrived is marked despawned here
+    private void onPredictedDespawn(UUID dropId) {
+        DropIndex.Handle handle = dropIndex.get(dropId);
+        if (handle == null) return;
+        PlayerTracking tracking = resolve(dropId, handle);
+        if (tracking != null && tracking.get(handle.getSlot()).getState() == ItemState.ON_GROUND) {
+            markDespawnedAndSave(dropId, handle);
         }
     }
 
-    private boolean markDespawnedIfMatch(List<TrackedItem> itemList, int i, UUID itemId, UUID playerId) {
-        TrackedItem ti = itemList.get(i);
-        if (itemId.equals(ti.getDropId())) {
-            Map<String, Object> newData = new HashMap<>(ti.getItemData());
-            newData.put("_despawned", true);
-            itemList.set(i, new TrackedItem(newData, null));
-            return true;
+    // Drops in an unloading chunk stop ageing, so their countdown stops until the chunk loads again
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntitiesUnload(EntitiesUnloadEvent event) {
+        for (org.bukkit.entity.Entity entity : event.getEntities()) {
+            UUID dropId = entity.getUniqueId();
+            DropIndex.Handle handle = lookup(entity);
+            if (handle == null) continue;
+            despawnWheel.cancel(dropId);
+            setFrozen(dropId, handle, true);
         }
-        return false;
     }
 
-    @EventHandler
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntitiesLoad(EntitiesLoadEvent event) {
+        for (org.bukkit.entity.Entity entity : event.getEntities()) {
+            UUID dropId = entity.getUniqueId();
+            DropIndex.Handle handle = lookup(entity);
+            if (handle == null) continue;
+            setFrozen(dropId, handle, false);
+            predictDespawn((org.bukkit.entity.Item) entity);
+        }
+    }
+
+    private void setFrozen(UUID dropId, DropIndex.Handle handle, boolean frozen) {
+        PlayerTracking tracking = resolve(dropId, handle);
+        if (tracking == null) return;
+        TrackedItem ti = tracking.get(handle.getSlot());
+        if (ti.getState() != (frozen ? ItemState.ON_GROUND : ItemState.FROZEN)) return;
+        tracking.set(handle.getSlot(), ti.withFrozen(frozen));
+        recordTrackingChange(handle.getPlayerId(), TrackingJournal.Entry.frozen(dropId, frozen));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onItemSpawn(ItemSpawnEvent event) {
+        dropAssignmentManager.onItemSpawn(event.getEntity());
+    }
+
+    // Unloaded drops still exist; onEntitiesUnload freezes them instead
+    private boolean isTrackedItemEntity(EntityRemoveEvent event) {
+        return event.getEntity() instanceof org.bukkit.entity.Item &&
+               event.getCause() != EntityRemoveEvent.Cause.UNLOAD;
+    }
+
+    private void markDespawnedAndSave(UUID itemId, DropIndex.Handle handle) {
+        PlayerTracking tracking = resolve(itemId, handle);
+        dropIndex.remove(itemId);
+        if (tracking == null) return;
+        tracking.set(handle.getSlot(), tracking.get(handle.getSlot()).withState(ItemState.DESPAWNED));
+        recordTrackingChange(handle.getPlayerId(), TrackingJournal.Entry.despawned(itemId));
+    }
+
+    private void markLostAndSave(UUID itemId, DropIndex.Handle handle) {
+        PlayerTracking tracking = resolve(itemId, handle);
+        dropIndex.remove(itemId);
+        if (tracking == null) return;
+        tracking.set(handle.getSlot(), tracking.get(handle.getSlot()).withState(ItemState.UNKNOWN));
+        recordTrackingChange(handle.getPlayerId(), TrackingJournal.Entry.lost(itemId));
+    }
+
+    // Returns the tracking the handle points into, or null, unindexing it, if the slot no longer holds this drop
+    private PlayerTracking resolve(UUID dropId, DropIndex.Handle handle) {
+        PlayerTracking tracking = trackedItems.get(handle.getPlayerId());
+        TrackedItem ti = tracking != null ? tracking.get(handle.getSlot()) : null;
+        if (ti != null && dropId.equals(ti.getDropId())) return tracking;
+        dropIndex.remove(dropId, handle);
+        return null;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onItemPickup(EntityPickupItemEvent event) {
-        UUID itemId = event.getItem().getUniqueId();
-        UUID playerId = dropToPlayer.get(itemId);
-        if (playerId != null) handleTrackedPickup(itemId, playerId);
-        trackedItems.entrySet().removeIf(e -> e.getValue().isEmpty());
+        handlePickup(event.getItem());
     }
 
-    private void handleTrackedPickup(UUID itemId, UUID playerId) {
-        List<TrackedItem> itemList = trackedItems.get(playerId);
-        if (itemList != null && removeTrackedItem(itemList, itemId))
-            cleanupTrackedItems(playerId);
-        dropToPlayer.remove(itemId);
+    // Hoppers and hopper minecarts
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onInventoryPickupItem(InventoryPickupItemEvent event) {
+        handlePickup(event.getItem());
     }
 
-    private boolean removeTrackedItem(List<TrackedItem> itemList, UUID itemId) {
-        Iterator<TrackedItem> it = itemList.iterator();
-        while (it.hasNext()) {
-            TrackedItem ti = it.next();
-            if (itemId.equals(ti.getDropId())) {
-                it.remove();
-                return true;
-            }
-        }
-        return false;
+    // Shared by players, mobs and hoppers picking up a drop
+    private void handlePickup(org.bukkit.entity.Item item) {
+        DropIndex.Handle handle = lookup(item);
+        if (handle == null) return;
+        long start = System.nanoTime();
+        UUID itemId = item.getUniqueId();
+        despawnWheel.cancel(itemId);
+        handleTrackedPickup(itemId, handle);
+        metrics.record(RecoveryMetrics.Timer.PICKUP, start);
     }
 
-    @EventHandler
+    private void handleTrackedPickup(UUID itemId, DropIndex.Handle handle) {
+        PlayerTracking tracking = resolve(itemId, handle);
+        dropIndex.remove(itemId);
+        if (tracking == null) return;
+        // Only this slot: despawned siblings have no drop either, but are still owed to the player
+        tracking.remove(handle.getSlot());
+        recordTrackingChange(handle.getPlayerId(), TrackingJournal.Entry.pickedUp(itemId));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onItemMerge(ItemMergeEvent event) {
         UUID sourceId = event.getEntity().getUniqueId();
+        DropIndex.Handle sourceHandle = lookup(event.getEntity());
+        // Merging into a tracked drop changes nothing we track
+        if (sourceHandle == null) return;
+        long start = System.nanoTime();
+        handleTrackedMerge(event, sourceId, sourceHandle);
+        metrics.record(RecoveryMetrics.Timer.MERGE, start);
+    }
+
+    private void handleTrackedMerge(ItemMergeEvent event, UUID sourceId, DropIndex.Handle sourceHandle) {
         UUID targetId = event.getTarget().getUniqueId();
-        UUID playerIdSource = dropToPlayer.get(sourceId);
-        UUID playerIdTarget = dropToPlayer.get(targetId);
-        if (playerIdSource == null && playerIdTarget == null) return;
-        UUID playerId = playerIdSource != null ? playerIdSource : playerIdTarget;
-        List<TrackedItem> items = trackedItems.get(playerId);
-        if (items == null) return;
-        // Find tracked items for both source and target
-        int sourceIdx = -1, targetIdx = -1;
-        for (int i = 0; i < items.size(); i++) {
-            UUID dropId = items.get(i).getDropId();
-            if (dropId != null && dropId.equals(sourceId)) sourceIdx = i;
-            if (dropId != null && dropId.equals(targetId)) targetIdx = i;
+        despawnWheel.cancel(sourceId);
+        PlayerTracking tracking = resolve(sourceId, sourceHandle);
+        if (tracking == null) {
+            dropIndex.remove(sourceId);
+            return;
         }
-        if (sourceIdx == -1 && targetIdx == -1) return;
+        UUID playerId = sourceHandle.getPlayerId();
+        int sourceSlot = sourceHandle.getSlot();
+        DropIndex.Handle targetHandle = lookup(event.getTarget());
+        boolean targetTracked = targetHandle != null && playerId.equals(targetHandle.getPlayerId())
+                && resolve(targetId, targetHandle) == tracking;
         // Merge logic: combine counts, keep target, remove source
-        if (sourceIdx != -1 && targetIdx != -1) {
-            Map<String, Object> targetData = new HashMap<>(items.get(targetIdx).getItemData());
-            Map<String, Object> sourceData = items.get(sourceIdx).getItemData();
-            int targetCount = (int) targetData.getOrDefault("amount", targetData.getOrDefault("count", 1));
-            int sourceCount = (int) sourceData.getOrDefault("amount", sourceData.getOrDefault("count", 1));
-            int newCount = targetCount + sourceCount;
-            if (targetData.containsKey("amount")) targetData.put("amount", newCount);
-            else targetData.put("count", newCount);
-            items.set(targetIdx, new TrackedItem(targetData, targetId));
-            items.remove(sourceIdx > targetIdx ? sourceIdx : sourceIdx); // Remove source
-            dropToPlayer.remove(sourceId);
-        } else if (sourceIdx != -1) {
+        if (targetTracked) {
+            int targetSlot = targetHandle.getSlot();
+            TrackedItem target = tracking.get(targetSlot);
+            tracking.set(targetSlot, target.withAmount(target.getAmount() + tracking.get(sourceSlot).getAmount()));
+            tracking.remove(sourceSlot);
+            dropIndex.remove(sourceId);
+        } else {
             // Only source tracked, update dropId to target
-            Map<String, Object> data = new HashMap<>(items.get(sourceIdx).getItemData());
-            items.set(sourceIdx, new TrackedItem(data, targetId));
-            dropToPlayer.remove(sourceId);
-            dropToPlayer.put(targetId, playerId);
+            tracking.set(sourceSlot, tracking.get(sourceSlot).withDrop(targetId));
+            dropIndex.remove(sourceId);
+            dropIndex.put(targetId, playerId, sourceSlot);
+            tagDrop(event.getTarget(), playerId);
         }
         // Save changes
-        scheduleTrackingSave(playerId);
+        recordTrackingChange(playerId, TrackingJournal.Entry.merged(sourceId, targetId));
+        // The merged stack keeps the younger of the two ages
+        org.bukkit.entity.Item target = event.getTarget();
+        if (!target.isUnlimitedLifetime()) {
+            int age = Math.min(target.getTicksLived(), event.getEntity().getTicksLived());
+            despawnWheel.schedule(targetId, itemDespawnTicks - age + DESPAWN_GRACE_TICKS);
+        }
     }
 
     @Override
@@ -213,59 +390,84 @@ public class RecoveryMod extends JavaPlugin implements Listener {
                 sender.sendMessage("You must be OP to use this command.");
                 return true;
             }
-            boolean result = commandHandler.handleRecoverCommand(sender, args);
-            if (args.length == 1) cleanupAfterRecovery(args[0]);
-            return result;
+            return commandHandler.handleRecoverCommand(sender, args);
         }
         return false;
     }
 
     private void cleanupTrackedItems(UUID playerId) {
-        List<TrackedItem> items = trackedItems.get(playerId);
-        if (items != null) {
-            items.removeIf(ti -> ti.getDropId() == null);
-            if (items.isEmpty()) trackedItems.remove(playerId);
-            scheduleTrackingSave(playerId);
+        PlayerTracking tracking = trackedItems.get(playerId);
+        if (tracking != null) {
+            // Items without a drop have no index entry, so nothing needs unindexing
+            tracking.pruneUnassigned();
+            recordTrackingChange(playerId, TrackingJournal.Entry.pruned());
         }
     }
 
-    private void cleanupAfterRecovery(String playerName) {
-        Player target = Bukkit.getPlayer(playerName);
-        if (target != null) {
-            cleanupTrackedItems(target.getUniqueId());
+    // After /recover: death is the death that was recovered, or null for all of them
+    private void cleanupAfterRecovery(UUID playerId, DeathRecord death) {
+        if (death == null) {
+            cleanupTrackedItems(playerId);
+            return;
+        }
+        PlayerTracking tracking = trackedItems.get(playerId);
+        if (tracking != null && tracking.pruneUnassigned(death)) {
+            recordTrackingChange(playerId, TrackingJournal.Entry.prunedSlots(death));
         }
     }
 
     private void scheduleTrackingSave(UUID playerId) {
-        BukkitRunnable existing = debounceTasks.remove(playerId);
-        if (existing != null) existing.cancel();
-        BukkitRunnable task = new BukkitRunnable() {
-            @Override
-            public void run() {
-                saveTrackingData(playerId);
-                debounceTasks.remove(playerId);
-            }
-        };
-        task.runTaskLater(this, 40L);
-        debounceTasks.put(playerId, task);
+        flusher.markDirty(playerId);
+    }
+
+    // Snapshot size estimate for the flusher's byte budget
+    private long estimateTrackingBytes(UUID playerId) {
+        PlayerTracking tracking = trackedItems.peek(playerId);
+        if (tracking == null) return 0;
+        long bytes = 0;
+        for (TrackedItem ti : tracking.slots()) bytes += ti == null ? 1 : 32 + ti.getPayload().length;
+        return bytes;
+    }
+
+    // Record a single change in the player's journal instead of rewriting the tracking file
+    private void recordTrackingChange(UUID playerId, TrackingJournal.Entry entry) {
+        writer.submitJournal(playerId, entry);
+        PlayerTracking tracking = trackedItems.peek(playerId);
+        if (tracking == null) return;
+        updateManifestCounts(playerId, tracking);
+        trackedItems.markIfEmpty(playerId);
     }
 
     private void saveTrackingData(UUID playerId) {
-        List<TrackedItem> items = trackedItems.getOrDefault(playerId, Collections.emptyList());
-        persistence.saveTrackingData(playerId, items);
+        // Dirty players are always resident, so a miss means there is nothing to save
+        PlayerTracking tracking = trackedItems.peek(playerId);
+        if (tracking == null) return;
+        writer.submitTracking(playerId, tracking);
+        updateManifestCounts(playerId, tracking);
     }
 
-    private void loadTrackingData(UUID playerId) {
-        File file = new File(dataFolder, playerId + "-tracking.yml");
-        List<TrackedItem> items = persistence.loadTrackingData(file);
-        if (items != null && !items.isEmpty()) trackedItems.put(playerId, items);
+    private void updateManifestCounts(UUID playerId, PlayerTracking tracking) {
+        int despawned = 0;
+        for (TrackedItem ti : tracking.items()) {
+            if (ti.getState() == ItemState.DESPAWNED) despawned++;
+        }
+        storage.updateCounts(playerId, tracking.size(), despawned);
     }
 
-    private DumperOptions getDumperOptions() {
-        DumperOptions options = new DumperOptions();
-        options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
-        options.setPrettyFlow(true);
-        return options;
+    private PlayerTracking loadTrackingData(UUID playerId) {
+        PlayerTracking tracking = storage.loadTracking(playerId);
+        if (tracking == null) return null;
+        // Deaths may have expired since this was written; the sweeper deletes the rest from storage
+        if (tracking.oldestDeath() < retentionCutoff()) {
+            tracking.expireDeaths(retentionCutoff());
+            if (!tracking.isEmpty()) scheduleTrackingSave(playerId);
+        }
+        return tracking.isEmpty() ? null : tracking;
+    }
+
+    // A player's tracking may only be evicted once nothing for it is waiting to be written
+    private boolean isTrackingClean(UUID playerId) {
+        return !flusher.isDirty(playerId) && writer.isClean(playerId) && !bulkRecovery.isHeld(playerId);
     }
 
     private void handleConfig(File configFile) {
@@ -287,41 +489,95 @@ public class RecoveryMod extends JavaPlugin implements Listener {
             Map<String, Object> config = yaml.load(Files.newInputStream(configFile.toPath()));
             if (config != null && config.containsKey("retentionDays"))
                 fileRetentionDays = (int) config.get("retentionDays");
+            if (config != null && config.containsKey("writerQueueCapacity"))
+                writerQueueCapacity = (int) config.get("writerQueueCapacity");
+            if (config != null && config.containsKey("shutdownFlushSeconds"))
+                shutdownFlushSeconds = (int) config.get("shutdownFlushSeconds");
+            if (config != null && config.containsKey("compressStorage"))
+                compressStorage = (boolean) config.get("compressStorage");
+            if (config != null && config.containsKey("maxResidentItems"))
+                maxResidentItems = (int) config.get("maxResidentItems");
+            if (config != null && config.containsKey("metricsIntervalSeconds"))
+                metricsIntervalSeconds = (int) config.get("metricsIntervalSeconds");
+            if (config != null && config.containsKey("maxDeathsPerPlayer"))
+                maxDeathsPerPlayer = (int) config.get("maxDeathsPerPlayer");
+            if (config != null && config.containsKey("itemDespawnTicks"))
+                itemDespawnTicks = (int) config.get("itemDespawnTicks");
+            if (config != null && config.containsKey("archiveAfterDays"))
+                archiveAfterDays = (int) config.get("archiveAfterDays");
+            if (config != null && config.containsKey("storageBackend"))
+                storageBackend = String.valueOf(config.get("storageBackend"));
+            if (config != null && config.containsKey("syncTransport"))
+                syncTransport = String.valueOf(config.get("syncTransport"));
+            if (config != null && config.containsKey("syncDirectory"))
+                syncDirectory = String.valueOf(config.get("syncDirectory"));
+            if (config != null && config.containsKey("syncNode"))
+                syncNode = String.valueOf(config.get("syncNode"));
+            if (config != null && config.containsKey("syncNetwork"))
+                syncNetwork = String.valueOf(config.get("syncNetwork"));
         } catch (Exception ignored) {}
     }
 
-    private void cleanupOldFiles(File[] files, long cutoff) {
-        if (files == null) return;
-        for (File file : files) {
-            try {
-                Map<String, Object> data = persistence.loadYaml(file);
-                Object tsObj = data != null ? data.get("timestamp") : null;
-                long ts = tsObj instanceof Number ? ((Number) tsObj).longValue() : tsObj != null ? Long.parseLong(tsObj.toString()) : 0;
-                if (ts > 0 && ts < cutoff) file.delete();
-            } catch (Exception ignored) {}
-        }
+    private void setupDataFolder() {
+        dataFolder = new File(getDataFolder(), "recoveries");
     }
 
-    private void loadAllTracking(File[] files) {
-        if (files == null) return;
-        for (File file : files) {
-            String uuidStr = file.getName().replace("-tracking.yml", "");
-            try {
-                UUID uuid = UUID.fromString(uuidStr);
-                loadTrackingData(uuid);
-            } catch (Exception ignored) {}
+    private void setupPersistenceAndCommands() {
+        if (storageBackend.equalsIgnoreCase("sqlite")) {
+            if (!getDataFolder().exists()) getDataFolder().mkdirs();
+            storage = new SqliteStorage(new File(getDataFolder(), SqliteStorage.FILE_NAME), compressStorage, metrics);
+        } else {
+            if (!dataFolder.exists()) dataFolder.mkdirs();
+            storage = new RecoveryPersistence(dataFolder, compressStorage, metrics);
+        }
+        writer = new PersistenceWriter(storage, getLogger(), writerQueueCapacity, this::onTrackingStaged);
+        flusher = new TrackingFlusher(schedulers, this::saveTrackingData, this::estimateTrackingBytes, metrics);
+        trackedItems = new TrackingCache(this::loadTrackingData, this::isTrackingClean,
+                id -> Bukkit.getPlayer(id) != null, dropIndex::addAll, maxResidentItems);
+        names = new PlayerNameCache(getDataFolder());
+        deliveries = new PendingDeliveries(new File(getDataFolder(), "deliveries"), writer, schedulers, getLogger(), compressStorage);
+        createSync();
+        bulkRecovery = new BulkRecovery(trackedItems, storage, writer, deliveries, schedulers, metrics);
+        commandHandler = new RecoveryCommandHandler(trackedItems, names, deliveries, bulkRecovery, this::scheduleTrackingSave, schedulers, () -> {
+            sampleGauges();
+            return metrics.summary();
+        }, this::migrateStorage, this::exportRecords, this::cleanupAfterRecovery, sync);
+    }
+
+    // Built between deliveries, which it uses, and the command handler, which uses it; started once storage is open
+    private void createSync() {
+        SyncChannel channel;
+        if (syncTransport.equalsIgnoreCase("directory")) {
+            File directory = syncDirectory.isEmpty() ? new File(getDataFolder(), "sync") : new File(syncDirectory);
+            channel = new SharedDirectorySyncChannel(directory, syncNode());
+        } else if (syncTransport.equalsIgnoreCase("memory")) {
+            channel = new InProcessSyncChannel(syncNetwork);
+        } else {
+            return;
         }
+        sync = new NetworkSync(channel, syncNode(), trackedItems, this::scheduleTrackingSave, deliveries::add, getLogger());
     }
 
-    private void setupDataFolder() {
-        dataFolder = new File(getDataFolder(), "recoveries");
-        if (!dataFolder.exists()) dataFolder.mkdirs();
-        dumperOptions = getDumperOptions();
+    // Unique per server of a network; the port is, for servers behind one proxy
+    private String syncNode() {
+        return syncNode.isEmpty() ? "server-" + getServer().getPort() : syncNode;
     }
 
-    private void setupPersistenceAndCommands() {
-        persistence = new RecoveryPersistence(dataFolder, dumperOptions);
-        commandHandler = new RecoveryCommandHandler(trackedItems, this::scheduleTrackingSave);
+    private void startSync() {
+        if (sync == null) return;
+        try {
+            sync.start();
+            getLogger().info("Network sync started as " + sync.node() + " over " + syncTransport + ".");
+        } catch (IOException e) {
+            // Closed, it answers from this server alone
+            getLogger().log(java.util.logging.Level.WARNING, "Failed to start network sync; /recover only sees this server.", e);
+            sync.close();
+        }
+    }
+
+    private void onTrackingStaged(UUID playerId) {
+        trackedItems.invalidate(playerId);
+        if (sync != null) sync.changed(playerId);
     }
 
     private void registerEvents() {
@@ -330,27 +586,255 @@ public class RecoveryMod extends JavaPlugin implements Listener {
     }
 
     private void handleConfigFile() {
-        File configFile = new File(getDataFolder(), "config.yml");
+        configFile = new File(getDataFolder(), "config.yml");
         handleConfig(configFile);
+        configModified = configFile.lastModified();
+    }
+
+    // Picks up a changed retentionDays without a restart; the other keys still need one
+    private void reloadRetentionDays() {
+        long modified = configFile.lastModified();
+        if (modified == configModified) return;
+        configModified = modified;
+        try {
+            Yaml yaml = new Yaml();
+            Map<String, Object> config = yaml.load(Files.newInputStream(configFile.toPath()));
+            if (config != null && config.containsKey("retentionDays")) {
+                int days = (int) config.get("retentionDays");
+                if (days != fileRetentionDays) getLogger().info("retentionDays changed to " + days + ".");
+                fileRetentionDays = days;
+            }
+        } catch (Exception e) {
+            getLogger().warning("Failed to reload config.yml: " + e.getMessage());
+        }
+    }
+
+    // Deaths before this are expired
+    private long retentionCutoff() {
+        return System.currentTimeMillis() - (fileRetentionDays * 24L * 60 * 60 * 1000);
+    }
+
+    // Players whose deaths are all before this are archived; 0 if archiving is off
+    private long archiveCutoff() {
+        return archiveAfterDays > 0 ? System.currentTimeMillis() - (archiveAfterDays * 24L * 60 * 60 * 1000) : 0;
+    }
+
+    // Without storage nothing can be tracked safely, so the plugin disables itself
+    private boolean openStorage() {
+        try {
+            int rebuilt = storage.open();
+            if (rebuilt > 0) getLogger().info("Rebuilt recovery metadata for " + rebuilt + " players.");
+            return true;
+        } catch (IOException e) {
+            getLogger().log(java.util.logging.Level.SEVERE, "Failed to open " + storageBackend + " storage; disabling.", e);
+            getServer().getPluginManager().disablePlugin(this);
+            return false;
+        }
     }
 
     private void cleanupOldRecoveryFiles() {
-        long cutoff = System.currentTimeMillis() - (fileRetentionDays * 24L * 60 * 60 * 1000);
-        cleanupOldFiles(dataFolder.listFiles((dir, name) -> name.endsWith(".yml")), cutoff);
+        if (storage.deleteExpired(retentionCutoff()) > 0) storage.checkpoint();
+    }
+
+    // One-shot import of the recoveries/ folder into the database, run off the server threads
+    private void migrateStorage(CommandSender sender) {
+        if (!(storage instanceof SqliteStorage)) {
+            sender.sendMessage("Set storageBackend: sqlite in config.yml and restart before migrating.");
+            return;
+        }
+        if (!dataFolder.isDirectory()) {
+            sender.sendMessage("No recovery files to migrate.");
+            return;
+        }
+        if (!migrating.compareAndSet(false, true)) {
+            sender.sendMessage("A migration is already running.");
+            return;
+        }
+        sender.sendMessage("Migrating recovery files to the database...");
+        schedulers.runAsync(() -> {
+            try {
+                RecoveryPersistence files = new RecoveryPersistence(dataFolder, compressStorage, metrics);
+                files.open();
+                int migrated = StorageMigration.migrate(files, storage, writer);
+                // Kept as a backup, but moved aside so a second run can't import stale data
+                File backup = new File(getDataFolder(), "recoveries-migrated");
+                Files.move(dataFolder.toPath(), backup.toPath());
+                sender.sendMessage("Migrated " + migrated + " players. The old files were moved to " + backup.getName() + "/.");
+            } catch (IOException e) {
+                getLogger().log(java.util.logging.Level.WARNING, "Storage migration failed", e);
+                sender.sendMessage("Migration failed: " + e.getMessage());
+            } finally {
+                migrating.set(false);
+            }
+        });
+    }
+
+    // Streams stored data to a file in exports/, off the server threads; changes not saved yet are left out
+    private void exportRecords(CommandSender sender, RecoveryExport.Query query) {
+        if (!exporting.compareAndSet(false, true)) {
+            sender.sendMessage("An export is already running.");
+            return;
+        }
+        File folder = new File(getDataFolder(), "exports");
+        String stamp = java.time.LocalDateTime.now().format(java.time.format.DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+        File file = new File(folder, "recoveries-" + stamp + query.format().extension());
+        File tmp = new File(folder, file.getName() + ".tmp");
+        sender.sendMessage("Exporting recovery data...");
+        schedulers.runAsync(() -> {
+            int[] skipped = new int[1];
+            try {
+                folder.mkdirs();
+                long count;
+                try (java.io.Writer out = Files.newBufferedWriter(tmp.toPath(), java.nio.charset.StandardCharsets.UTF_8)) {
+                    count = RecoveryExport.write(RecoveryExport.rows(storage, query, (playerId, e) -> {
+                        skipped[0]++;
+                        getLogger().warning("Export skipped " + playerId + ": " + e.getMessage());
+                    }), query, names::nameOf, out);
+                }
+                Files.move(tmp.toPath(), file.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+                        java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+                sender.sendMessage("Exported " + count + " items to exports/" + file.getName()
+                        + (skipped[0] > 0 ? "; " + skipped[0] + " players could not be read, see the log." : "."));
+            } catch (IOException e) {
+                getLogger().log(java.util.logging.Level.WARNING, "Export failed", e);
+                tmp.delete();
+                sender.sendMessage("Export failed: " + e.getMessage());
+            } finally {
+                exporting.set(false);
+            }
+        });
+    }
+
+    private void scheduleCacheMaintenance() {
+        schedulers.runGlobalTimer(() -> {
+            trackedItems.maintain();
+            dropIndex.removeStale(trackedItems::peek);
+            // Saved alongside the other writes; a busy writer just leaves it for the next run
+            if (names.isDirty()) writer.submitTask(this::saveNames);
+        }, 100L, 100L);
+    }
+
+    // Players online now (e.g. after a reload) are known even if the file is missing
+    private void loadPlayerNames() {
+        names.load();
+        deliveries.load();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            names.record(player.getUniqueId(), player.getName());
+            deliveries.deliver(player);
+        }
+        // Stored players who haven't joined since the file was written are otherwise only known by id
+        schedulers.runAsync(this::seedStoredPlayerNames);
+    }
+
+    // Off the server threads: lists storage and reads the server's own record of each player
+    private void seedStoredPlayerNames() {
+        for (UUID playerId : storage.players()) {
+            if (names.nameOf(playerId) != null) continue;
+            String name = Bukkit.getOfflinePlayer(playerId).getName();
+            // A stale server record must not take a name from the player who uses it now
+            if (name != null && names.resolve(name) == null) names.record(playerId, name);
+        }
     }
 
-    private void loadAllPlayerTracking() {
-        loadAllTracking(dataFolder.listFiles((dir, name) -> name.endsWith("-tracking.yml")));
+    private void saveNames() {
+        try {
+            names.save();
+        } catch (IOException e) {
+            getLogger().warning("Failed to save " + PlayerNameCache.FILE_NAME + ": " + e.getMessage());
+        }
     }
 
-    // Update dropToPlayer map after assigning drop IDs
-    public void updateDropToPlayerMap(UUID playerId, List<TrackedItem> items) {
-        // Remove old drop IDs for this player
-        dropToPlayer.entrySet().removeIf(e -> playerId.equals(e.getValue()));
-        // Add new drop IDs
-        for (TrackedItem ti : items) {
-            UUID dropId = ti.getDropId();
-            if (dropId != null) dropToPlayer.put(dropId, playerId);
+    // Startup only removes what expired while the server was down; this keeps up afterwards
+    private void scheduleRetentionSweep() {
+        RetentionSweeper sweeper = new RetentionSweeper(trackedItems, storage, writer, () -> {
+            reloadRetentionDays();
+            return retentionCutoff();
+        }, this::archiveCutoff, this::onDeathsExpired, metrics);
+        schedulers.runGlobalTimer(sweeper::sweep, 200L, 200L);
+    }
+
+    private void scheduleDespawnWheel() {
+        schedulers.runGlobalTimer(() -> despawnWheel.advance(this::onPredictedDespawn), 1L, 1L);
+    }
+
+    private void onDeathsExpired(UUID playerId, List<UUID> dropIds) {
+        for (UUID dropId : dropIds) dropIndex.remove(dropId);
+        trackedItems.markIfEmpty(playerId);
+        scheduleTrackingSave(playerId);
+    }
+
+    // Sampled on the global region, so the metrics writer itself never touches plugin state
+    private void sampleGauges() {
+        metrics.setGauge(RecoveryMetrics.Gauge.PENDING_SAVES, writer.getPendingCount());
+        metrics.setGauge(RecoveryMetrics.Gauge.WRITER_OVERFLOWS, writer.getOverflowCount());
+        metrics.setGauge(RecoveryMetrics.Gauge.DIRTY_PLAYERS, flusher.size());
+        metrics.setGauge(RecoveryMetrics.Gauge.TRACKED_ITEMS, trackedItems.residentItems());
+        metrics.setGauge(RecoveryMetrics.Gauge.RESIDENT_PLAYERS, trackedItems.size());
+        metrics.setGauge(RecoveryMetrics.Gauge.INDEXED_DROPS, dropIndex.size());
+        metrics.setGauge(RecoveryMetrics.Gauge.ITEM_TEMPLATES, ItemTemplatePool.SHARED.size());
+        metrics.setGauge(RecoveryMetrics.Gauge.PREDICTED_DESPAWNS, despawnWheel.size());
+    }
+
+    // Periodically writes metrics.prom for a local Prometheus-compatible scraper
+    private void scheduleMetricsFile() {
+        if (metricsIntervalSeconds <= 0) return;
+        File metricsFile = new File(getDataFolder(), "metrics.prom");
+        long period = metricsIntervalSeconds * 20L;
+        schedulers.runGlobalTimer(() -> {
+            sampleGauges();
+            schedulers.runAsync(() -> {
+                try {
+                    metrics.writePrometheusFile(metricsFile);
+                } catch (IOException e) {
+                    getLogger().warning("Failed to write metrics file: " + e.getMessage());
+                }
+            });
+        }, period, period);
+    }
+
+    // Players already online (e.g. after a reload) will not fire a join event
+    private void loadOnlinePlayerTracking() {
+        for (Player player : Bukkit.getOnlinePlayers()) trackedItems.get(player.getUniqueId());
+    }
+
+    TrackingCache getTrackingCache() {
+        return trackedItems;
+    }
+
+    RecoveryMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Index a drop assigned to a player's slot. Handles made stale by moved slots are re-indexed on death.
+    public void indexDrop(UUID dropId, UUID playerId, int slot) {
+        dropIndex.put(dropId, playerId, slot);
+    }
+
+    // Only the owner is tagged, not the slot: slots move as deaths fall out of the ring, and loading the owner indexes them
+    void tagDrop(org.bukkit.entity.Item drop, UUID playerId) {
+        drop.getPersistentDataContainer().set(dropOwnerKey, PersistentDataType.STRING, playerId.toString());
+    }
+
+    /**
+     * The index entry of a tracked drop entity, or null. The index only holds the drops of
+     * resident players; a drop of anyone else names its owner in a tag, and loading that
+     * player indexes the drop if it is still tracked.
+     */
+    private DropIndex.Handle lookup(org.bukkit.entity.Entity entity) {
+        UUID dropId = entity.getUniqueId();
+        DropIndex.Handle handle = dropIndex.get(dropId);
+        if (handle != null || !(entity instanceof org.bukkit.entity.Item)) return handle;
+        String owner = entity.getPersistentDataContainer().get(dropOwnerKey, PersistentDataType.STRING);
+        if (owner == null) return null;
+        UUID playerId;
+        try {
+            playerId = UUID.fromString(owner);
+        } catch (IllegalArgumentException e) {
+            return null;
         }
+        // Resident but not indexed: the drop is no longer tracked
+        if (trackedItems.isLoaded(playerId)) return null;
+        trackedItems.get(playerId);
+        return dropIndex.get(dropId);
     }
 }
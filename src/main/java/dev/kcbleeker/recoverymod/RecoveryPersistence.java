@@ -1,71 +1,659 @@
 package dev.kcbleeker.recoverymod;
 
-import org.bukkit.entity.Player;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
 import org.yaml.snakeyaml.Yaml;
-import org.yaml.snakeyaml.DumperOptions;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import dev.kcbleeker.recoverymod.RecoveryTracking.TrackedItem;
 
 /**
- * Handles persistence of recovery and tracking data to disk.
+ * File storage backend: a death snapshot, a tracking snapshot and a tracking journal
+ * per player in one folder, indexed by the {@link RecoveryManifest}.
+ *
+ * Data is written in the binary {@link RecoveryFileFormat}. Legacy YAML files are still
+ * read and are replaced by the binary file the first time that data is saved again.
+ *
+ * Players who have not died for a while are moved to the {@link ColdArchive} in archive/,
+ * where they are still read from, and are moved back the next time their data changes.
  */
-public class RecoveryPersistence {
+public class RecoveryPersistence implements StorageBackend {
+    private static final String TRACKING_SUFFIX = "-tracking";
+    private static final String LEGACY_EXTENSION = ".yml";
+    // Journals are folded back into the tracking snapshot once larger than it and than this,
+    // so rewriting the snapshot is paid for by at least as many bytes appended
+    private static final long COMPACT_JOURNAL_BYTES = 8 * 1024;
+    public static final String ARCHIVE_FOLDER = "archive";
+
     private final File dataFolder;
-    private final DumperOptions dumperOptions;
+    private final boolean compress;
+    private final RecoveryManifest manifest;
+    private final ColdArchive archive;
+    private final RecoveryMetrics metrics;
+    // Opened by a tool next to a running server: metadata is never saved
+    private boolean readOnly;
 
-    public RecoveryPersistence(File dataFolder, DumperOptions dumperOptions) {
+    public RecoveryPersistence(File dataFolder, boolean compress, RecoveryMetrics metrics) {
         this.dataFolder = dataFolder;
-        this.dumperOptions = dumperOptions;
+        this.compress = compress;
+        this.manifest = new RecoveryManifest(dataFolder);
+        this.archive = new ColdArchive(new File(dataFolder, ARCHIVE_FOLDER), metrics);
+        this.metrics = metrics;
+    }
+
+    public RecoveryManifest getManifest() {
+        return manifest;
+    }
+
+    public File getDataFolder() {
+        return dataFolder;
     }
 
     // Save a list of tracked items (inventory) to file
-    public void saveInventoryFile(Player player, List<TrackedItem> items) {
-        List<Map<String, Object>> serialized = new ArrayList<>();
-        for (TrackedItem ti : items) {
-            Map<String, Object> entry = new HashMap<>();
-            entry.put("item", ti.getItemData());
-            entry.put("dropId", ti.getDropId() == null ? null : ti.getDropId().toString());
-            serialized.add(entry);
-        }
-        Map<String, Object> data = new HashMap<>();
-        data.put("inventory", serialized);
-        data.put("timestamp", System.currentTimeMillis());
-        File file = new File(dataFolder, player.getUniqueId() + ".yml");
-        Yaml yaml = new Yaml(dumperOptions);
-        try (FileWriter writer = new FileWriter(file)) {
-            yaml.dump(data, writer);
+    @Override
+    public void saveInventory(UUID playerId, List<TrackedItem> items, long timestamp) throws IOException {
+        thaw(playerId);
+        List<DeathRecord> death = Collections.singletonList(new DeathRecord(timestamp, 0, items.size()));
+        if (writeFile(playerId.toString(), new StoredTracking(toStored(items), death), timestamp)) {
+            recordInventoryFile(playerId, timestamp);
+        }
+    }
+
+    private void recordInventoryFile(UUID playerId, long timestamp) {
+        File file = inventoryFile(playerId);
+        RecoveryManifest.Entry e = manifest.getOrCreate(playerId);
+        e.lastDeath = timestamp;
+        e.inventoryBytes = file.length();
+        e.inventoryModified = file.lastModified();
+    }
+
+    // Save a player's tracked deaths to file; the new snapshot supersedes the journal
+    @Override
+    public void saveTracking(UUID playerId, PlayerTracking tracking) throws IOException {
+        thaw(playerId);
+        if (tracking.isEmpty()) {
+            // Nothing left to recover; an empty file would only wait for retention
+            RecoveryManifest.Entry e = manifest.get(playerId);
+            if (e != null) removeTracking(playerId, e);
+            return;
+        }
+        writeTrackingSnapshot(playerId, new StoredTracking(toStored(tracking.slots()), tracking.deaths()));
+    }
+
+    // Append a group of tracking changes to the player's journal, compacting it once it grows too large
+    @Override
+    public void appendChanges(UUID playerId, List<TrackingJournal.Entry> entries) throws IOException {
+        // The journal is replayed onto the hot snapshot, so that has to exist first
+        thaw(playerId);
+        File journal = journalFile(playerId);
+        long before = journal.length();
+        long size = TrackingJournal.append(journal, entries);
+        metrics.add(RecoveryMetrics.Counter.BYTES_WRITTEN, size - before);
+        metrics.increment(RecoveryMetrics.Counter.FILES_WRITTEN);
+        metrics.add(RecoveryMetrics.Counter.JOURNAL_ENTRIES, entries.size());
+        // A journaled death is the latest death, which retention goes by
+        RecoveryManifest.Entry e = manifest.getOrCreate(playerId);
+        for (TrackingJournal.Entry entry : entries) e.trackingTimestamp = Math.max(e.trackingTimestamp, entry.getTimestamp());
+        recordTrackingFiles(playerId);
+        long snapshot = new File(dataFolder, playerId + TRACKING_SUFFIX + RecoveryFileFormat.EXTENSION).length();
+        if (size > Math.max(COMPACT_JOURNAL_BYTES, snapshot)) compactTracking(playerId);
+    }
+
+    // Fold the journal into a fresh tracking snapshot
+    private void compactTracking(UUID playerId) {
+        StoredTracking stored = loadTrackingStored(playerId);
+        if (stored != null) writeTrackingSnapshot(playerId, stored);
+    }
+
+    // Timestamped by the latest death, which retention goes by
+    private boolean writeTrackingSnapshot(UUID playerId, StoredTracking stored) {
+        long timestamp = stored.latestDeath();
+        if (!writeFile(playerId + TRACKING_SUFFIX, stored, timestamp)) return false;
+        deleteJournal(playerId);
+        manifest.getOrCreate(playerId).trackingTimestamp = timestamp;
+        recordTrackingFiles(playerId);
+        return true;
+    }
+
+    private void recordTrackingFiles(UUID playerId) {
+        RecoveryManifest.Entry e = manifest.getOrCreate(playerId);
+        e.trackingBytes = trackingBytes(playerId);
+        e.trackingModified = trackingModified(playerId);
+    }
+
+    @Override
+    public void checkpoint() {
+        if (!readOnly && manifest.isDirty()) saveManifest();
+    }
+
+    @Override
+    public void close() {
+        checkpoint();
+    }
+
+    // The file backend has no transactions; each file is replaced atomically on its own
+    @Override
+    public void runBatch(Batch batch) throws IOException {
+        batch.run();
+    }
+
+    @Override
+    public void updateCounts(UUID playerId, int itemCount, int despawnedCount) {
+        manifest.updateCounts(playerId, itemCount, despawnedCount);
+    }
+
+    // A player being moved back from the archive may briefly be known to both
+    @Override
+    public long getLastDeath(UUID playerId) {
+        RecoveryManifest.Entry e = manifest.get(playerId);
+        ColdArchive.Entry archived = archive.get(playerId);
+        return Math.max(e != null ? e.getLastDeath() : 0, archived != null ? archived.getLastDeath() : 0);
+    }
+
+    @Override
+    public int getDespawnedCount(UUID playerId) {
+        RecoveryManifest.Entry e = manifest.get(playerId);
+        if (e != null) return e.getDespawnedCount();
+        ColdArchive.Entry archived = archive.get(playerId);
+        return archived != null ? archived.getDespawnedCount() : -1;
+    }
+
+    @Override
+    public boolean hasData(UUID playerId) {
+        return manifest.get(playerId) != null || archive.contains(playerId);
+    }
+
+    @Override
+    public Set<UUID> players() {
+        if (archive.isEmpty()) return manifest.players();
+        Set<UUID> players = new HashSet<>(manifest.players());
+        players.addAll(archive.players());
+        return players;
+    }
+
+    private void saveManifest() {
+        try {
+            manifest.save();
+            metrics.add(RecoveryMetrics.Counter.BYTES_WRITTEN, manifest.getFile().length());
+            metrics.increment(RecoveryMetrics.Counter.FILES_WRITTEN);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    // Save a list of tracked items (tracking) to file
-    public void saveTrackingData(UUID playerId, List<TrackedItem> items) {
-        List<Map<String, Object>> serialized = new ArrayList<>();
-        for (TrackedItem ti : items) {
-            Map<String, Object> entry = new HashMap<>();
-            entry.put("item", ti.getItemData());
-            entry.put("dropId", ti.getDropId() == null ? null : ti.getDropId().toString());
-            serialized.add(entry);
+    /**
+     * Loads the manifest and brings it up to date with the files on disk. Only players
+     * whose files changed since the manifest was written (or all of them, if it is
+     * missing) are re-read. Returns the number of players that had to be re-read.
+     * The archive indexes are read too; a player with hot files is taken out of it.
+     */
+    @Override
+    public int open() {
+        return open(true);
+    }
+
+    /**
+     * The same without writing anything, for tools reading the folder of a running server:
+     * stale metadata is only rebuilt in memory, and nothing is moved out of the archive.
+     */
+    public int openReadOnly() {
+        return open(false);
+    }
+
+    private int open(boolean repair) {
+        readOnly = !repair;
+        boolean loaded = manifest.load();
+        Set<UUID> onDisk = new HashSet<>();
+        String[] names = dataFolder.list();
+        if (names != null) {
+            for (String name : names) {
+                UUID playerId = playerIdOf(name);
+                if (playerId != null) onDisk.add(playerId);
+            }
+        }
+        int rebuilt = 0;
+        for (UUID playerId : onDisk) {
+            RecoveryManifest.Entry e = loaded ? manifest.get(playerId) : null;
+            if (e == null || isStale(playerId, e)) {
+                // Listed, but left unread: legacy YAML needs the Bukkit API, which tools don't have
+                if (readOnly && isLegacy(playerId)) manifest.getOrCreate(playerId);
+                else rebuildEntry(playerId);
+                rebuilt++;
+            }
+        }
+        for (UUID playerId : new ArrayList<>(manifest.players())) {
+            if (!onDisk.contains(playerId)) manifest.remove(playerId);
+        }
+        if (!repair) {
+            archive.open(false);
+            return rebuilt;
+        }
+        if (rebuilt > 0 || !loaded || manifest.isDirty()) saveManifest();
+        archive.open();
+        // Left over from a crash between writing hot files and taking the player out of the archive, or the reverse
+        for (UUID playerId : onDisk) {
+            ColdArchive.Entry archived = archive.get(playerId);
+            if (archived == null) continue;
+            if (thawed(playerId, archived)) {
+                removeArchived(playerId);
+            } else {
+                // A thaw that did not finish; nothing is written after one, so the archived copy is the whole data
+                deleteInventoryFiles(playerId);
+                deleteTrackingFiles(playerId);
+                manifest.remove(playerId);
+            }
+        }
+        return rebuilt;
+    }
+
+    private boolean isStale(UUID playerId, RecoveryManifest.Entry e) {
+        File inventory = inventoryFile(playerId);
+        return inventory.length() != e.inventoryBytes || inventory.lastModified() != e.inventoryModified
+                || trackingBytes(playerId) != e.trackingBytes || trackingModified(playerId) != e.trackingModified;
+    }
+
+    private void rebuildEntry(UUID playerId) {
+        RecoveryManifest.Entry e = manifest.getOrCreate(playerId);
+        File inventory = inventoryFile(playerId);
+        e.lastDeath = inventory.exists() ? readTimestamp(inventory) : 0;
+        e.inventoryBytes = inventory.length();
+        e.inventoryModified = inventory.lastModified();
+        File tracking = trackingFile(playerId);
+        e.trackingTimestamp = tracking.exists() ? readTimestamp(tracking) : 0;
+        StoredTracking stored = loadTrackingStored(playerId);
+        // Deaths journaled since the snapshot are newer than its header
+        if (stored != null && !stored.getDeaths().isEmpty()) e.trackingTimestamp = Math.max(e.trackingTimestamp, stored.latestDeath());
+        e.itemCount = 0;
+        e.despawnedCount = 0;
+        if (stored != null) {
+            for (StoredItem si : stored.getItems()) {
+                if (si == null) continue;
+                e.itemCount++;
+                if (si.isDespawned()) e.despawnedCount++;
+            }
         }
-        Map<String, Object> data = new HashMap<>();
-        data.put("items", serialized);
-        data.put("timestamp", System.currentTimeMillis());
-        File file = new File(dataFolder, playerId + "-tracking.yml");
-        Yaml yaml = new Yaml(dumperOptions);
-        try (FileWriter writer = new FileWriter(file)) {
-            yaml.dump(data, writer);
+        recordTrackingFiles(playerId);
+    }
+
+    /**
+     * Deletes death snapshots and tracking data older than the cutoff, using only the
+     * manifest to decide. Returns the number of players whose data was removed entirely.
+     */
+    @Override
+    public int deleteExpired(long cutoff) {
+        int removed = 0;
+        for (UUID playerId : new ArrayList<>(players())) {
+            if (expire(playerId, cutoff)) removed++;
+        }
+        return removed;
+    }
+
+    // Decided from the manifest and the archive index alone, so no data file is opened
+    @Override
+    public boolean expire(UUID playerId, long cutoff) {
+        ColdArchive.Entry archived = archive.get(playerId);
+        // Archived data expires as a whole, by its latest death
+        if (archived != null && archived.newest() < cutoff) removeArchived(playerId);
+        RecoveryManifest.Entry e = manifest.get(playerId);
+        boolean removed = e != null ? expireHot(playerId, e, cutoff) : archived != null;
+        return removed && !archive.contains(playerId);
+    }
+
+    private boolean expireHot(UUID playerId, RecoveryManifest.Entry e, long cutoff) {
+        if (e.lastDeath > 0 && e.lastDeath < cutoff) {
+            deleteInventoryFiles(playerId);
+            e.lastDeath = 0;
+            e.inventoryBytes = 0;
+            e.inventoryModified = 0;
+        }
+        if (e.trackingTimestamp > 0 && e.trackingTimestamp < cutoff) return removeTracking(playerId, e);
+        return removeIfEmpty(playerId, e);
+    }
+
+    private boolean removeTracking(UUID playerId, RecoveryManifest.Entry e) {
+        deleteTrackingFiles(playerId);
+        e.trackingTimestamp = 0;
+        e.itemCount = 0;
+        e.despawnedCount = 0;
+        recordTrackingFiles(playerId);
+        return removeIfEmpty(playerId, e);
+    }
+
+    private boolean removeIfEmpty(UUID playerId, RecoveryManifest.Entry e) {
+        if (e.inventoryBytes != 0 || e.trackingBytes != 0) return false;
+        manifest.remove(playerId);
+        return true;
+    }
+
+    private void deleteInventoryFiles(UUID playerId) {
+        delete(new File(dataFolder, playerId + RecoveryFileFormat.EXTENSION));
+        delete(new File(dataFolder, playerId + LEGACY_EXTENSION));
+    }
+
+    private void deleteTrackingFiles(UUID playerId) {
+        delete(new File(dataFolder, playerId + TRACKING_SUFFIX + RecoveryFileFormat.EXTENSION));
+        delete(new File(dataFolder, playerId + TRACKING_SUFFIX + LEGACY_EXTENSION));
+        delete(journalFile(playerId));
+    }
+
+    private void delete(File file) {
+        if (file.delete()) metrics.increment(RecoveryMetrics.Counter.FILES_DELETED);
+    }
+
+    // Death snapshot file for a player, in whichever format currently exists
+    private File inventoryFile(UUID playerId) {
+        File file = new File(dataFolder, playerId + RecoveryFileFormat.EXTENSION);
+        return file.exists() ? file : new File(dataFolder, playerId + LEGACY_EXTENSION);
+    }
+
+    // Tracking snapshot file for a player, in whichever format currently exists
+    private File trackingFile(UUID playerId) {
+        File file = new File(dataFolder, playerId + TRACKING_SUFFIX + RecoveryFileFormat.EXTENSION);
+        return file.exists() ? file : new File(dataFolder, playerId + TRACKING_SUFFIX + LEGACY_EXTENSION);
+    }
+
+    private boolean isLegacy(UUID playerId) {
+        File inventory = inventoryFile(playerId);
+        File tracking = trackingFile(playerId);
+        return (inventory.exists() && inventory.getName().endsWith(LEGACY_EXTENSION))
+                || (tracking.exists() && tracking.getName().endsWith(LEGACY_EXTENSION));
+    }
+
+    private long trackingBytes(UUID playerId) {
+        return trackingFile(playerId).length() + journalFile(playerId).length();
+    }
+
+    private long trackingModified(UUID playerId) {
+        return Math.max(trackingFile(playerId).lastModified(), journalFile(playerId).lastModified());
+    }
+
+    // Player UUID a data file belongs to, or null if the name is not a recovery data file
+    private static UUID playerIdOf(String name) {
+        if (!name.endsWith(RecoveryFileFormat.EXTENSION) && !name.endsWith(LEGACY_EXTENSION)
+                && !name.endsWith(TrackingJournal.EXTENSION)) return null;
+        int end = name.indexOf(TRACKING_SUFFIX);
+        if (end == -1) end = name.lastIndexOf('.');
+        try {
+            return UUID.fromString(name.substring(0, end));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private boolean writeFile(String baseName, StoredTracking stored, long timestamp) {
+        File file = new File(dataFolder, baseName + RecoveryFileFormat.EXTENSION);
+        File tmp = new File(dataFolder, baseName + RecoveryFileFormat.EXTENSION + ".tmp");
+        try {
+            // Write aside and rename, so a crash mid-write never leaves a truncated file behind
+            RecoveryFileFormat.write(tmp, timestamp, stored, compress);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            metrics.add(RecoveryMetrics.Counter.BYTES_WRITTEN, file.length());
+            metrics.increment(RecoveryMetrics.Counter.FILES_WRITTEN);
+            // Migration: the binary file now supersedes the legacy YAML file
+            Files.deleteIfExists(new File(dataFolder, baseName + LEGACY_EXTENSION).toPath());
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private void deleteJournal(UUID playerId) {
+        try {
+            if (Files.deleteIfExists(journalFile(playerId).toPath())) metrics.increment(RecoveryMetrics.Counter.FILES_DELETED);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    // Load a list of tracked items from a tracking file
-    public List<TrackedItem> loadTrackingData(File file) {
+    private File journalFile(UUID playerId) {
+        return new File(dataFolder, playerId + TRACKING_SUFFIX + TrackingJournal.EXTENSION);
+    }
+
+    // Load the tracked deaths for a player: the last snapshot with the journal replayed on top, or the archived copy
+    @Override
+    public PlayerTracking loadTracking(UUID playerId) {
+        try {
+            StoredTracking stored = loadTrackingStored(playerId);
+            if (stored == null) stored = archive.loadTracking(playerId);
+            return stored == null ? null : new PlayerTracking(fromStored(stored.getItems()), stored.getDeaths());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private StoredTracking loadTrackingStored(UUID playerId) {
+        StoredTracking stored = null;
+        try {
+            File file = new File(dataFolder, playerId + TRACKING_SUFFIX + RecoveryFileFormat.EXTENSION);
+            if (file.exists()) {
+                stored = RecoveryFileFormat.read(file);
+            } else {
+                File legacyFile = new File(dataFolder, playerId + TRACKING_SUFFIX + LEGACY_EXTENSION);
+                List<TrackedItem> legacy = loadTrackingData(legacyFile);
+                // Legacy files hold a single death
+                if (legacy != null) stored = new StoredTracking(toStored(legacy), new ArrayList<>(
+                        Collections.singletonList(new DeathRecord(readTimestamp(legacyFile), 0, legacy.size()))));
+            }
+            File journal = journalFile(playerId);
+            if (!journal.exists()) return stored;
+            if (stored == null) stored = new StoredTracking(new ArrayList<>(), new ArrayList<>());
+            for (TrackingJournal.Entry entry : TrackingJournal.read(journal)) entry.apply(stored);
+            return stored;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return stored;
+        }
+    }
+
+    // Hot data first, like loadTracking; only binary files, since legacy YAML needs the Bukkit API to read
+    @Override
+    public StoredTracking loadStoredTracking(UUID playerId) throws IOException {
+        File tracking = trackingFile(playerId);
+        if (tracking.exists() && tracking.getName().endsWith(LEGACY_EXTENSION)) {
+            throw new IOException("Legacy YAML data for " + playerId + " is only read by the server, which converts it on its next save");
+        }
+        StoredTracking stored = loadTrackingStored(playerId);
+        return stored != null ? stored : archive.loadTracking(playerId);
+    }
+
+    // Load the last death snapshot for a player, preferring the binary file over legacy YAML
+    @Override
+    public List<TrackedItem> loadInventory(UUID playerId) {
+        File file = new File(dataFolder, playerId + RecoveryFileFormat.EXTENSION);
+        if (file.exists()) return readFile(file);
+        List<TrackedItem> legacy = loadInventoryData(new File(dataFolder, playerId + LEGACY_EXTENSION));
+        if (legacy != null) return legacy;
+        try {
+            StoredTracking archived = archive.loadInventory(playerId);
+            return archived == null ? null : fromStored(archived.getItems());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Moves players whose data is all older than the cutoff into the archive, then tidies
+     * the archive. Their hot files are deleted only once the pack is on disk. Returns the
+     * number of players moved.
+     */
+    @Override
+    public int archive(Collection<UUID> playerIds, long cutoff) {
+        List<ColdArchive.Record> records = new ArrayList<>();
+        for (UUID playerId : playerIds) {
+            RecoveryManifest.Entry e = manifest.get(playerId);
+            if (e == null || Math.max(e.lastDeath, e.trackingTimestamp) >= cutoff) continue;
+            ColdArchive.Record record = pack(playerId, e);
+            if (record != null) records.add(record);
+        }
+        try {
+            if (!records.isEmpty()) archive.add(records);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+        for (ColdArchive.Record record : records) {
+            deleteInventoryFiles(record.playerId);
+            deleteTrackingFiles(record.playerId);
+            manifest.remove(record.playerId);
+        }
+        metrics.add(RecoveryMetrics.Counter.PLAYERS_ARCHIVED, records.size());
+        try {
+            archive.tidy();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return records.size();
+    }
+
+    // A player's files, with the journal folded in, re-encoded for the archive; null if they can't all be read
+    private ColdArchive.Record pack(UUID playerId, RecoveryManifest.Entry e) {
+        try {
+            StoredTracking inventory = loadInventoryStored(playerId, e.lastDeath);
+            StoredTracking tracking = loadTrackingStored(playerId);
+            if (tracking == null && trackingBytes(playerId) > 0) return null;
+            if (inventory == null && tracking == null) return null;
+            return new ColdArchive.Record(playerId, e.lastDeath, e.trackingTimestamp, e.itemCount, e.despawnedCount,
+                    inventory == null ? null : RecoveryFileFormat.encode(e.lastDeath, inventory, ColdArchive.DEFLATE_LEVEL),
+                    tracking == null ? null : RecoveryFileFormat.encode(e.trackingTimestamp, tracking, ColdArchive.DEFLATE_LEVEL));
+        } catch (IOException | RuntimeException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    private StoredTracking loadInventoryStored(UUID playerId, long timestamp) throws IOException {
+        File file = new File(dataFolder, playerId + RecoveryFileFormat.EXTENSION);
+        if (file.exists()) return RecoveryFileFormat.read(file);
+        File legacyFile = new File(dataFolder, playerId + LEGACY_EXTENSION);
+        if (!legacyFile.exists()) return null;
+        List<TrackedItem> legacy = loadInventoryData(legacyFile);
+        if (legacy == null) throw new IOException("Unreadable recovery data file: " + legacyFile.getName());
+        return new StoredTracking(toStored(legacy), new ArrayList<>(
+                Collections.singletonList(new DeathRecord(timestamp, 0, legacy.size()))));
+    }
+
+    /**
+     * Called before every write: an archived player's data moves back to the hot files,
+     * which writes go to. Throws if it can't, after deleting whatever it wrote, so the
+     * player stays archived and the write is not made on top of missing data.
+     */
+    private void thaw(UUID playerId) throws IOException {
+        ColdArchive.Entry archived = archive.get(playerId);
+        if (archived == null) return;
+        // Already written by a thaw that could not take the player out of the archive
+        if (thawed(playerId, archived)) {
+            removeArchived(playerId);
+            return;
+        }
+        // Counts recorded since the player was loaded are newer than the archived ones
+        boolean counted = manifest.get(playerId) != null;
+        try {
+            StoredTracking inventory = archive.loadInventory(playerId);
+            StoredTracking tracking = archive.loadTracking(playerId);
+            if (inventory != null) {
+                if (!writeFile(playerId.toString(), inventory, archived.getLastDeath())) {
+                    throw new IOException("Could not move the archived death snapshot of " + playerId + " back");
+                }
+                recordInventoryFile(playerId, archived.getLastDeath());
+            }
+            if (tracking != null && !writeTrackingSnapshot(playerId, tracking)) {
+                throw new IOException("Could not move the archived tracking of " + playerId + " back");
+            }
+        } catch (IOException e) {
+            deleteInventoryFiles(playerId);
+            deleteTrackingFiles(playerId);
+            RecoveryManifest.Entry entry = manifest.get(playerId);
+            if (entry != null && !counted) {
+                manifest.remove(playerId);
+            } else if (entry != null) {
+                entry.lastDeath = 0;
+                entry.inventoryBytes = 0;
+                entry.inventoryModified = 0;
+                entry.trackingTimestamp = 0;
+                recordTrackingFiles(playerId);
+            }
+            throw e;
+        }
+        if (!counted) manifest.updateCounts(playerId, archived.getItemCount(), archived.getDespawnedCount());
+        removeArchived(playerId);
+    }
+
+    // Whether the hot files hold everything archived for the player, as they do once a thaw has written them all
+    private boolean thawed(UUID playerId, ColdArchive.Entry archived) {
+        return (!archived.hasInventory() || inventoryFile(playerId).exists())
+                && (!archived.hasTracking() || trackingFile(playerId).exists());
+    }
+
+    private void removeArchived(UUID playerId) {
+        try {
+            archive.remove(playerId);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Timestamp of a data file; binary files only need their header read. Returns 0 if unknown.
+    private long readTimestamp(File file) {
+        try {
+            if (file.getName().endsWith(RecoveryFileFormat.EXTENSION)) return RecoveryFileFormat.readTimestamp(file);
+            Map<String, Object> data = loadYaml(file);
+            Object tsObj = data != null ? data.get("timestamp") : null;
+            return tsObj instanceof Number ? ((Number) tsObj).longValue() : tsObj != null ? Long.parseLong(tsObj.toString()) : 0;
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private List<TrackedItem> readFile(File file) {
+        try {
+            return fromStored(RecoveryFileFormat.read(file).getItems());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // Empty slots (null) are carried over as they are; shared with the other backends
+    static List<StoredItem> toStored(List<TrackedItem> items) {
+        List<StoredItem> stored = new ArrayList<>(items.size());
+        for (TrackedItem ti : items) stored.add(ti == null ? null : toStored(ti));
+        return stored;
+    }
+
+    static List<TrackedItem> fromStored(List<StoredItem> stored) {
+        List<TrackedItem> items = new ArrayList<>(stored.size());
+        for (StoredItem si : stored) items.add(si == null ? null : fromStored(si));
+        return items;
+    }
+
+    private static StoredItem toStored(TrackedItem ti) {
+        return new StoredItem(ti.getMaterial().name(), ti.getAmount(), ti.getState(), ti.getDropId(), ti.getPayload());
+    }
+
+    // The payload stays encoded; it is only decoded if the item is restored
+    private static TrackedItem fromStored(StoredItem si) {
+        Material material = Material.getMaterial(si.getMaterial());
+        if (material == null) material = ItemStack.deserializeBytes(si.getPayload()).getType();
+        return new TrackedItem(material, si.getAmount(), si.getState(), si.getDropId(), si.getPayload());
+    }
+
+    // Converts a legacy YAML item map once, at load time
+    private static TrackedItem fromLegacy(Map<String, Object> itemData, UUID dropId) {
+        itemData = new HashMap<>(itemData);
+        itemData.remove("type");
+        Object despawnedVal = itemData.remove("_despawned");
+        boolean despawned = Boolean.TRUE.equals(despawnedVal) || "true".equals(despawnedVal);
+        ItemStack stack = ItemStack.deserialize(itemData);
+        TrackedItem ti = TrackedItem.of(stack);
+        if (despawned) return ti.withState(ItemState.DESPAWNED);
+        return dropId != null ? ti.withDrop(dropId) : ti;
+    }
+
+    // Load a list of tracked items from a legacy YAML tracking file
+    private List<TrackedItem> loadTrackingData(File file) {
         if (!file.exists()) return null;
         try {
             Yaml yaml = new Yaml();
@@ -77,7 +665,7 @@ public class RecoveryPersistence {
                     Map<String, Object> itemData = (Map<String, Object>) entry.get("item");
                     String dropIdStr = (String) entry.get("dropId");
                     UUID dropId = dropIdStr != null ? UUID.fromString(dropIdStr) : null;
-                    items.add(new TrackedItem(itemData, dropId));
+                    items.add(fromLegacy(itemData, dropId));
                 }
             }
             return items;
@@ -86,8 +674,8 @@ public class RecoveryPersistence {
         }
     }
 
-    // Load a list of tracked items from an inventory file (with migration for old format)
-    public List<TrackedItem> loadInventoryData(File file) {
+    // Load a list of tracked items from a legacy YAML inventory file (with migration for old format)
+    private List<TrackedItem> loadInventoryData(File file) {
         if (!file.exists()) return null;
         try {
             Yaml yaml = new Yaml();
@@ -103,14 +691,14 @@ public class RecoveryPersistence {
                         Map<String, Object> itemData = (Map<String, Object>) entry.get("item");
                         String dropIdStr = (String) entry.get("dropId");
                         UUID dropId = dropIdStr != null ? UUID.fromString(dropIdStr) : null;
-                        items.add(new TrackedItem(itemData, dropId));
+                        items.add(fromLegacy(itemData, dropId));
                     }
                 } else {
                     // Old format: list of item maps (or nulls)
                     for (Object o : serialized) {
                         if (o instanceof Map) {
                             Map<String, Object> itemData = (Map<String, Object>) o;
-                            items.add(new TrackedItem(itemData, null));
+                            items.add(fromLegacy(itemData, null));
                         }
                         // skip nulls (empty slots)
                     }
@@ -1,29 +1,94 @@
 package dev.kcbleeker.recoverymod;
 
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
 
 /**
- * Represents a tracked lost item with its serialized data and drop entity UUID.
+ * Represents a tracked lost item with its material, amount, state and drop entity UUID.
  */
 public class RecoveryTracking {
+    /**
+     * Immutable; state changes produce a new instance that shares the item payload.
+     * The payload is only decoded into an ItemStack when the item is actually restored.
+     * Payloads are interned in {@link ItemTemplatePool#SHARED} and encode a single item,
+     * so stacks that differ only in amount share one template.
+     */
     public static class TrackedItem {
-        private final Map<String, Object> itemData;
-        private final UUID dropId; // null if despawned
+        private final Material material;
+        private final int amount;
+        private final ItemState state;
+        private final UUID dropId; // null unless ON_GROUND or FROZEN
+        private final byte[] payload; // ItemStack#serializeAsBytes of one item, pooled, never modified
+        private volatile ItemStack decoded;
 
-        public TrackedItem(Map<String, Object> itemData, UUID dropId) {
-            this.itemData = itemData;
+        public TrackedItem(Material material, int amount, ItemState state, UUID dropId, byte[] payload) {
+            this(material, amount, state, dropId, ItemTemplatePool.SHARED.intern(payload), null);
+        }
+
+        private TrackedItem(Material material, int amount, ItemState state, UUID dropId, byte[] payload, ItemStack decoded) {
+            this.material = material;
+            this.amount = amount;
+            this.state = state;
             this.dropId = dropId;
+            this.payload = payload;
+            this.decoded = decoded;
+        }
+
+        public static TrackedItem of(ItemStack item) {
+            byte[] payload = (item.getAmount() == 1 ? item : item.asOne()).serializeAsBytes();
+            return new TrackedItem(item.getType(), item.getAmount(), ItemState.UNKNOWN, null, payload);
+        }
+
+        public Material getMaterial() {
+            return material;
+        }
+
+        public int getAmount() {
+            return amount;
         }
 
-        public Map<String, Object> getItemData() {
-            return itemData;
+        public ItemState getState() {
+            return state;
         }
 
         public UUID getDropId() {
             return dropId;
         }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        public TrackedItem withDrop(UUID dropId) {
+            return new TrackedItem(material, amount, ItemState.ON_GROUND, dropId, payload, decoded);
+        }
+
+        // Keeps the drop: FROZEN while its chunk is unloaded, ON_GROUND once it is loaded again
+        public TrackedItem withFrozen(boolean frozen) {
+            return new TrackedItem(material, amount, frozen ? ItemState.FROZEN : ItemState.ON_GROUND, dropId, payload, decoded);
+        }
+
+        public TrackedItem withState(ItemState state) {
+            return new TrackedItem(material, amount, state, null, payload, decoded);
+        }
+
+        public TrackedItem withAmount(int amount) {
+            return new TrackedItem(material, amount, state, dropId, payload, decoded);
+        }
+
+        // Decodes the payload (once) and returns a fresh stack with the tracked amount
+        public ItemStack toItemStack() {
+            ItemStack template = decoded;
+            if (template == null) {
+                template = ItemStack.deserializeBytes(payload);
+                decoded = template;
+            }
+            ItemStack stack = template.clone();
+            stack.setAmount(amount);
+            return stack;
+        }
     }
 
     private final List<TrackedItem> items;
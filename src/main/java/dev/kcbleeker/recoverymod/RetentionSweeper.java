@@ -0,0 +1,87 @@
+package dev.kcbleeker.recoverymod;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Expires recovery data while the server runs. Each pass walks a slice of the resident
+ * players on the global region and a slice of the stored players on the writer thread,
+ * each within its own budget, and the next pass resumes where the last one stopped.
+ * Stored players that are not resident are also offered to the cold tier.
+ */
+public class RetentionSweeper {
+    private static final long RESIDENT_BUDGET_NANOS = 1_000_000L;
+    private static final long STORED_BUDGET_NANOS = 5_000_000L;
+    private static final int MAX_PLAYERS_PER_PASS = 256;
+
+    private final TrackingCache trackedItems;
+    private final StorageBackend storage;
+    private final PersistenceWriter writer;
+    // Oldest death timestamp that is still kept; read at the start of every pass
+    private final java.util.function.LongSupplier cutoff;
+    // Data older than this is archived; 0 to never archive
+    private final java.util.function.LongSupplier archiveCutoff;
+    // Called for a resident player that lost deaths, with the drop ids of the dropped items
+    private final java.util.function.BiConsumer<UUID, List<UUID>> onExpired;
+    private final RecoveryMetrics metrics;
+
+    private Iterator<UUID> residentCursor = Collections.emptyIterator(); // global region only
+    private Iterator<UUID> storedCursor = Collections.emptyIterator(); // writer thread only
+    private final AtomicBoolean storedPassQueued = new AtomicBoolean();
+
+    public RetentionSweeper(TrackingCache trackedItems, StorageBackend storage, PersistenceWriter writer,
+                            java.util.function.LongSupplier cutoff, java.util.function.LongSupplier archiveCutoff,
+                            java.util.function.BiConsumer<UUID, List<UUID>> onExpired, RecoveryMetrics metrics) {
+        this.trackedItems = trackedItems;
+        this.storage = storage;
+        this.writer = writer;
+        this.cutoff = cutoff;
+        this.archiveCutoff = archiveCutoff;
+        this.onExpired = onExpired;
+        this.metrics = metrics;
+    }
+
+    // Runs on the global region
+    public void sweep() {
+        long start = System.nanoTime();
+        long cutoffMillis = cutoff.getAsLong();
+        long archiveMillis = archiveCutoff.getAsLong();
+        if (!residentCursor.hasNext()) residentCursor = new ArrayList<>(trackedItems.residentPlayers()).iterator();
+        int visited = 0;
+        while (residentCursor.hasNext() && visited++ < MAX_PLAYERS_PER_PASS
+                && System.nanoTime() - start < RESIDENT_BUDGET_NANOS) {
+            UUID playerId = residentCursor.next();
+            PlayerTracking tracking = trackedItems.peek(playerId);
+            if (tracking == null || tracking.oldestDeath() >= cutoffMillis) continue;
+            onExpired.accept(playerId, tracking.expireDeaths(cutoffMillis));
+        }
+        metrics.record(RecoveryMetrics.Timer.RETENTION_SWEEP, start);
+        // At most one stored pass waits on the writer; a busy writer just skips this one
+        if (storedPassQueued.compareAndSet(false, true) && !writer.submitTask(() -> sweepStored(cutoffMillis, archiveMillis))) {
+            storedPassQueued.set(false);
+        }
+    }
+
+    private void sweepStored(long cutoffMillis, long archiveMillis) {
+        long start = System.nanoTime();
+        List<UUID> idle = new ArrayList<>();
+        try {
+            if (!storedCursor.hasNext()) storedCursor = new ArrayList<>(storage.players()).iterator();
+            int visited = 0;
+            while (storedCursor.hasNext() && visited++ < MAX_PLAYERS_PER_PASS
+                    && System.nanoTime() - start < STORED_BUDGET_NANOS) {
+                UUID playerId = storedCursor.next();
+                // Resident players are expired in memory, and the flusher rewrites their snapshot.
+                // The lock keeps a join or cache miss from reading files this deletes.
+                Boolean removed = trackedItems.withStorageLock(playerId,
+                        () -> trackedItems.isLoaded(playerId) ? null : storage.expire(playerId, cutoffMillis));
+                if (Boolean.FALSE.equals(removed)) idle.add(playerId);
+            }
+            // Also run with no one to archive, so the archive is tidied after expiries
+            if (archiveMillis > 0) storage.archive(idle, archiveMillis);
+        } finally {
+            storedPassQueued.set(false);
+            metrics.record(RecoveryMetrics.Timer.RETENTION_SWEEP, start);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package dev.kcbleeker.recoverymod;
+
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Schedules plugin work through Paper's region-aware schedulers. On Paper they run on
+ * the main thread as before; on Folia, location and entity tasks run on the region
+ * thread that owns them, global tasks on the global region, and async tasks off-region.
+ */
+public class Schedulers {
+    private static final boolean FOLIA = classExists("io.papermc.paper.threadedregions.RegionizedServer");
+
+    private final Plugin plugin;
+
+    public Schedulers(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    public static boolean isFolia() {
+        return FOLIA;
+    }
+
+    // Global region: server-wide housekeeping that does not touch world state
+    public ScheduledTask runGlobalLater(Runnable task, long delayTicks) {
+        return Bukkit.getGlobalRegionScheduler().runDelayed(plugin, t -> task.run(), Math.max(1, delayTicks));
+    }
+
+    public ScheduledTask runGlobalTimer(Runnable task, long delayTicks, long periodTicks) {
+        return Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin, t -> task.run(), Math.max(1, delayTicks), periodTicks);
+    }
+
+    // Region owning the location: anything that reads or changes entities around it
+    public ScheduledTask runAtLater(Location location, Runnable task, long delayTicks) {
+        return Bukkit.getRegionScheduler().runDelayed(plugin, location, t -> task.run(), Math.max(1, delayTicks));
+    }
+
+    // Region owning the entity, wherever it moves; skipped if the entity is removed first
+    public void runForEntity(Entity entity, Runnable task) {
+        entity.getScheduler().run(plugin, t -> task.run(), null);
+    }
+
+    // The same, with retired run instead of the task if the entity is removed first
+    public void runForEntity(Entity entity, Runnable task, Runnable retired) {
+        entity.getScheduler().run(plugin, t -> task.run(), retired);
+    }
+
+    // Off every region thread: file IO
+    public void runAsync(Runnable task) {
+        Bukkit.getAsyncScheduler().runNow(plugin, t -> task.run());
+    }
+
+    private static boolean classExists(String name) {
+        try {
+            Class.forName(name);
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package dev.kcbleeker.recoverymod;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sync transport over a directory every node can reach, e.g. a network share, or a local
+ * folder for several servers on one machine. Each node writes its messages as numbered
+ * files into a folder of its own and polls the other nodes' folders; a node deletes its
+ * own messages once every poller has had time to read them.
+ */
+public class SharedDirectorySyncChannel implements SyncChannel {
+    private static final String EXTENSION = ".msg";
+    private static final long POLL_MILLIS = 200;
+    private static final long RETAIN_MILLIS = 30_000;
+
+    private final File root;
+    private final File outbox;
+    private final String node;
+    private final Map<String, Long> lastSeen = new HashMap<>(); // poller thread only
+    private ScheduledExecutorService poller;
+    private java.util.function.Consumer<byte[]> receiver;
+    private long nextSequence;
+
+    public SharedDirectorySyncChannel(File root, String node) {
+        this.root = root;
+        this.outbox = new File(root, node);
+        this.node = node;
+    }
+
+    @Override
+    public void open(java.util.function.Consumer<byte[]> receiver) throws IOException {
+        this.receiver = receiver;
+        if (!outbox.isDirectory() && !outbox.mkdirs()) throw new IOException("Can't create " + outbox);
+        // Numbered from the clock, so a restarted node never reuses numbers the others have seen
+        long last = 0;
+        for (long sequence : sequences(outbox)) last = Math.max(last, sequence);
+        synchronized (this) {
+            nextSequence = Math.max(last + 1, System.currentTimeMillis() * 1000);
+        }
+        // Messages already there are history; a joining node fetches state instead
+        File[] nodes = root.listFiles(File::isDirectory);
+        if (nodes != null) {
+            for (File folder : nodes) {
+                long seen = 0;
+                for (long sequence : sequences(folder)) seen = Math.max(seen, sequence);
+                lastSeen.put(folder.getName(), seen);
+            }
+        }
+        poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "RecoveryMod-Sync-Poller");
+            t.setDaemon(true);
+            return t;
+        });
+        poller.scheduleWithFixedDelay(this::poll, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void publish(byte[] message) throws IOException {
+        String name = String.format("%020d", nextSequence++) + EXTENSION;
+        File tmp = new File(outbox, name + ".tmp");
+        Files.write(tmp.toPath(), message);
+        Files.move(tmp.toPath(), new File(outbox, name).toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void poll() {
+        try {
+            File[] nodes = root.listFiles(File::isDirectory);
+            if (nodes == null) return;
+            for (File folder : nodes) {
+                String name = folder.getName();
+                if (name.equals(node)) continue;
+                long seen = lastSeen.getOrDefault(name, 0L);
+                for (long sequence : sequences(folder)) {
+                    if (sequence <= seen) continue;
+                    byte[] message;
+                    try {
+                        message = Files.readAllBytes(new File(folder, String.format("%020d", sequence) + EXTENSION).toPath());
+                    } catch (IOException e) {
+                        // Deleted by its owner before we got to it
+                        seen = sequence;
+                        continue;
+                    }
+                    seen = sequence;
+                    receiver.accept(message);
+                }
+                lastSeen.put(name, seen);
+            }
+            expireOwn();
+        } catch (RuntimeException e) {
+            // The poller must keep running
+            e.printStackTrace();
+        }
+    }
+
+    private void expireOwn() {
+        File[] files = outbox.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null) return;
+        long cutoff = System.currentTimeMillis() - RETAIN_MILLIS;
+        for (File file : files) {
+            if (file.lastModified() < cutoff) file.delete();
+        }
+    }
+
+    // Message numbers in a node's folder, in order
+    private static List<Long> sequences(File folder) {
+        List<Long> sequences = new ArrayList<>();
+        String[] names = folder.list((dir, name) -> name.endsWith(EXTENSION));
+        if (names == null) return sequences;
+        for (String name : names) {
+            try {
+                sequences.add(Long.parseLong(name.substring(0, name.length() - EXTENSION.length())));
+            } catch (NumberFormatException ignored) {}
+        }
+        Collections.sort(sequences);
+        return sequences;
+    }
+
+    @Override
+    public void close() {
+        if (poller != null) poller.shutdownNow();
+    }
+}
@@ -0,0 +1,486 @@
+package dev.kcbleeker.recoverymod;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import dev.kcbleeker.recoverymod.RecoveryTracking.TrackedItem;
+
+/**
+ * Storage backend keeping every player in one embedded SQLite database, through the
+ * sqlite-jdbc driver that ships with Paper. Snapshots are blobs in the
+ * {@link RecoveryFileFormat} layout, one row per player and kind; tracking changes are
+ * journal rows, folded back into the snapshot once there are enough of them.
+ *
+ * Writes share one connection and hold the lock on this object; each write, or batch of
+ * writes, is a single transaction. Reads use a second, read-only connection under their
+ * own lock, so a cache miss on a server thread sees the last commit without waiting for
+ * a write, sweep or migration batch in progress.
+ */
+public class SqliteStorage implements StorageBackend {
+    public static final String FILE_NAME = "recoveries.db";
+
+    private static final int KIND_INVENTORY = 0;
+    private static final int KIND_TRACKING = 1;
+    // Journal rows of a player beyond this are folded back into the tracking snapshot
+    private static final int COMPACT_JOURNAL_ENTRIES = 256;
+
+    private final File file;
+    private final boolean compress;
+    private final RecoveryMetrics metrics;
+    // Buffered until the next checkpoint, so the server threads never wait on the database
+    private final Map<UUID, int[]> pendingCounts = new ConcurrentHashMap<>();
+
+    private Connection connection;
+    private PreparedStatement upsertSnapshot;
+    private PreparedStatement insertJournal;
+    private PreparedStatement countJournal;
+    private PreparedStatement deleteJournal;
+    private PreparedStatement updateCounts;
+    private PreparedStatement touchTracking;
+    private PreparedStatement deleteTrackingSnapshot;
+    private PreparedStatement deleteOldSnapshots;
+    private PreparedStatement countExpired;
+    private PreparedStatement deleteExpiredJournal;
+    private PreparedStatement deleteExpiredSnapshots;
+    // Reads inside a write, which must see its uncommitted rows
+    private Reads writerReads;
+    private int batchDepth;
+
+    private final Object readLock = new Object();
+    private Connection reader;
+    private Reads readerReads;
+
+    private interface SqlWork {
+        void run() throws SQLException, IOException;
+    }
+
+    // Read statements, prepared once for each connection
+    private static final class Reads {
+        final PreparedStatement selectSnapshot;
+        final PreparedStatement selectTimestamp;
+        final PreparedStatement selectDespawned;
+        final PreparedStatement selectJournal;
+        final PreparedStatement hasData;
+        final PreparedStatement players;
+
+        Reads(Connection connection) throws SQLException {
+            selectSnapshot = connection.prepareStatement("SELECT data FROM snapshots WHERE player = ? AND kind = ?");
+            selectTimestamp = connection.prepareStatement("SELECT timestamp FROM snapshots WHERE player = ? AND kind = ?");
+            selectDespawned = connection.prepareStatement("SELECT despawned_count FROM snapshots WHERE player = ? AND kind = " + KIND_TRACKING);
+            selectJournal = connection.prepareStatement("SELECT entry FROM journal WHERE player = ? ORDER BY id");
+            hasData = connection.prepareStatement("SELECT EXISTS (SELECT 1 FROM snapshots WHERE player = ?) "
+                    + "OR EXISTS (SELECT 1 FROM journal WHERE player = ?)");
+            players = connection.prepareStatement("SELECT player FROM snapshots UNION SELECT player FROM journal");
+        }
+    }
+
+    public SqliteStorage(File file, boolean compress, RecoveryMetrics metrics) {
+        this.file = file;
+        this.compress = compress;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public synchronized int open() throws IOException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+            connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+            try (Statement st = connection.createStatement()) {
+                // The reader connection sees the last commit while a write is open, and commits
+                // append instead of rewriting pages
+                st.execute("PRAGMA journal_mode=WAL");
+                st.execute("CREATE TABLE IF NOT EXISTS snapshots ("
+                        + "player TEXT NOT NULL, kind INTEGER NOT NULL, timestamp INTEGER NOT NULL, "
+                        + "item_count INTEGER NOT NULL, despawned_count INTEGER NOT NULL, data BLOB NOT NULL, "
+                        + "PRIMARY KEY (player, kind))");
+                st.execute("CREATE INDEX IF NOT EXISTS snapshots_by_time ON snapshots (timestamp)");
+                st.execute("CREATE TABLE IF NOT EXISTS journal ("
+                        + "id INTEGER PRIMARY KEY AUTOINCREMENT, player TEXT NOT NULL, entry BLOB NOT NULL)");
+                st.execute("CREATE INDEX IF NOT EXISTS journal_by_player ON journal (player, id)");
+            }
+            upsertSnapshot = connection.prepareStatement("INSERT OR REPLACE INTO snapshots "
+                    + "(player, kind, timestamp, item_count, despawned_count, data) VALUES (?, ?, ?, ?, ?, ?)");
+            insertJournal = connection.prepareStatement("INSERT INTO journal (player, entry) VALUES (?, ?)");
+            countJournal = connection.prepareStatement("SELECT COUNT(*) FROM journal WHERE player = ?");
+            deleteJournal = connection.prepareStatement("DELETE FROM journal WHERE player = ?");
+            updateCounts = connection.prepareStatement("UPDATE snapshots SET item_count = ?, despawned_count = ? "
+                    + "WHERE player = ? AND kind = " + KIND_TRACKING);
+            touchTracking = connection.prepareStatement("UPDATE snapshots SET timestamp = MAX(timestamp, ?) "
+                    + "WHERE player = ? AND kind = " + KIND_TRACKING);
+            deleteTrackingSnapshot = connection.prepareStatement("DELETE FROM snapshots WHERE player = ? AND kind = " + KIND_TRACKING);
+            deleteOldSnapshots = connection.prepareStatement("DELETE FROM snapshots WHERE player = ? AND timestamp < ?");
+            countExpired = connection.prepareStatement("SELECT COUNT(*) FROM "
+                    + "(SELECT player FROM snapshots GROUP BY player HAVING MAX(timestamp) < ?)");
+            deleteExpiredJournal = connection.prepareStatement("DELETE FROM journal WHERE player IN "
+                    + "(SELECT player FROM snapshots WHERE kind = " + KIND_TRACKING + " AND timestamp < ?)");
+            deleteExpiredSnapshots = connection.prepareStatement("DELETE FROM snapshots WHERE timestamp < ?");
+            writerReads = new Reads(connection);
+            synchronized (readLock) {
+                Properties readOnly = new Properties();
+                readOnly.setProperty("open_mode", "1"); // SQLITE_OPEN_READONLY
+                reader = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath(), readOnly);
+                readerReads = new Reads(reader);
+            }
+            // Nothing to rebuild: the counts live next to the data
+            return 0;
+        } catch (ClassNotFoundException | SQLException e) {
+            throw new IOException("Could not open " + file.getName(), e);
+        }
+    }
+
+    @Override
+    public synchronized void saveInventory(UUID playerId, List<TrackedItem> items, long timestamp) {
+        List<DeathRecord> death = Collections.singletonList(new DeathRecord(timestamp, 0, items.size()));
+        StoredTracking stored = new StoredTracking(RecoveryPersistence.toStored(items), death);
+        try {
+            transaction(() -> writeSnapshot(playerId, KIND_INVENTORY, timestamp, stored));
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public synchronized void saveTracking(UUID playerId, PlayerTracking tracking) {
+        StoredTracking stored = new StoredTracking(RecoveryPersistence.toStored(tracking.slots()), tracking.deaths());
+        try {
+            // Nothing left to recover; an empty row would only wait for retention
+            if (tracking.isEmpty()) transaction(() -> deleteTracking(playerId));
+            else transaction(() -> writeTrackingSnapshot(playerId, stored));
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public synchronized void appendChanges(UUID playerId, List<TrackingJournal.Entry> entries) throws IOException {
+        try {
+            transaction(() -> {
+                long bytes = 0;
+                for (TrackingJournal.Entry entry : entries) {
+                    byte[] data = TrackingJournal.encode(entry);
+                    insertJournal.setString(1, playerId.toString());
+                    insertJournal.setBytes(2, data);
+                    insertJournal.addBatch();
+                    bytes += data.length;
+                }
+                insertJournal.executeBatch();
+                metrics.add(RecoveryMetrics.Counter.BYTES_WRITTEN, bytes);
+                metrics.add(RecoveryMetrics.Counter.JOURNAL_ENTRIES, entries.size());
+                // A journaled death is the latest death, which retention goes by; with no
+                // snapshot row to carry that yet, the journal is folded into one right away
+                long death = 0;
+                for (TrackingJournal.Entry entry : entries) death = Math.max(death, entry.getTimestamp());
+                boolean touched = true;
+                if (death > 0) {
+                    touchTracking.setLong(1, death);
+                    touchTracking.setString(2, playerId.toString());
+                    touched = touchTracking.executeUpdate() > 0;
+                }
+                if (!touched || journalSize(playerId) > COMPACT_JOURNAL_ENTRIES) {
+                    StoredTracking stored = loadStored(writerReads, playerId);
+                    if (stored != null) writeTrackingSnapshot(playerId, stored);
+                }
+            });
+        } catch (SQLException e) {
+            throw new IOException("Failed to append tracking changes for " + playerId, e);
+        }
+    }
+
+    @Override
+    public PlayerTracking loadTracking(UUID playerId) {
+        try {
+            StoredTracking stored = readStored(playerId);
+            return stored == null ? null
+                    : new PlayerTracking(RecoveryPersistence.fromStored(stored.getItems()), stored.getDeaths());
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public StoredTracking loadStoredTracking(UUID playerId) throws IOException {
+        try {
+            return readStored(playerId);
+        } catch (SQLException e) {
+            throw new IOException("Could not read tracking of " + playerId, e);
+        }
+    }
+
+    @Override
+    public List<TrackedItem> loadInventory(UUID playerId) {
+        try {
+            byte[] data;
+            synchronized (readLock) {
+                data = snapshot(readerReads, playerId, KIND_INVENTORY);
+            }
+            return data == null ? null : RecoveryPersistence.fromStored(RecoveryFileFormat.decode(data).getItems());
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public long getLastDeath(UUID playerId) {
+        try {
+            synchronized (readLock) {
+                return timestamp(readerReads, playerId, KIND_INVENTORY);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    // Counts not yet checkpointed are newer than the row's
+    @Override
+    public int getDespawnedCount(UUID playerId) {
+        int[] pending = pendingCounts.get(playerId);
+        if (pending != null) return pending[1];
+        try {
+            synchronized (readLock) {
+                readerReads.selectDespawned.setString(1, playerId.toString());
+                try (ResultSet rs = readerReads.selectDespawned.executeQuery()) {
+                    return rs.next() ? rs.getInt(1) : -1;
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    @Override
+    public boolean hasData(UUID playerId) {
+        try {
+            synchronized (readLock) {
+                return hasData(readerReads, playerId);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static boolean hasData(Reads reads, UUID playerId) throws SQLException {
+        reads.hasData.setString(1, playerId.toString());
+        reads.hasData.setString(2, playerId.toString());
+        try (ResultSet rs = reads.hasData.executeQuery()) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    @Override
+    public Set<UUID> players() {
+        Set<UUID> players = new HashSet<>();
+        synchronized (readLock) {
+            try (ResultSet rs = readerReads.players.executeQuery()) {
+                while (rs.next()) players.add(UUID.fromString(rs.getString(1)));
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        return players;
+    }
+
+    @Override
+    public void updateCounts(UUID playerId, int itemCount, int despawnedCount) {
+        pendingCounts.put(playerId, new int[] {itemCount, despawnedCount});
+    }
+
+    @Override
+    public synchronized int deleteExpired(long cutoff) {
+        int[] removed = new int[1];
+        try {
+            transaction(() -> {
+                countExpired.setLong(1, cutoff);
+                try (ResultSet rs = countExpired.executeQuery()) {
+                    if (rs.next()) removed[0] = rs.getInt(1);
+                }
+                deleteExpiredJournal.setLong(1, cutoff);
+                deleteExpiredJournal.executeUpdate();
+                deleteExpiredSnapshots.setLong(1, cutoff);
+                deleteExpiredSnapshots.executeUpdate();
+            });
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+        return removed[0];
+    }
+
+    @Override
+    public synchronized boolean expire(UUID playerId, long cutoff) {
+        boolean[] gone = new boolean[1];
+        try {
+            transaction(() -> {
+                long tracking = timestamp(writerReads, playerId, KIND_TRACKING);
+                if (tracking > 0 && tracking < cutoff) deleteTracking(playerId);
+                deleteOldSnapshots.setString(1, playerId.toString());
+                deleteOldSnapshots.setLong(2, cutoff);
+                deleteOldSnapshots.executeUpdate();
+                gone[0] = !hasData(writerReads, playerId);
+            });
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return gone[0];
+    }
+
+    // One database file already; there are no per-player files to pack
+    @Override
+    public int archive(Collection<UUID> playerIds, long cutoff) {
+        return 0;
+    }
+
+    @Override
+    public synchronized void runBatch(Batch batch) throws IOException {
+        try {
+            transaction(batch::run);
+        } catch (SQLException e) {
+            throw new IOException("Storage transaction failed", e);
+        }
+    }
+
+    @Override
+    public synchronized void checkpoint() {
+        if (connection == null || pendingCounts.isEmpty()) return;
+        try {
+            transaction(() -> {
+                Iterator<Map.Entry<UUID, int[]>> it = pendingCounts.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<UUID, int[]> e = it.next();
+                    it.remove();
+                    updateCounts.setInt(1, e.getValue()[0]);
+                    updateCounts.setInt(2, e.getValue()[1]);
+                    updateCounts.setString(3, e.getKey().toString());
+                    updateCounts.addBatch();
+                }
+                updateCounts.executeBatch();
+            });
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        checkpoint();
+        if (connection == null) return;
+        try {
+            synchronized (readLock) {
+                reader.close();
+            }
+            connection.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        connection = null;
+    }
+
+    // Runs the work in a transaction, or as part of the one already open on this thread
+    private void transaction(SqlWork work) throws SQLException, IOException {
+        boolean outer = batchDepth++ == 0;
+        if (outer) connection.setAutoCommit(false);
+        try {
+            work.run();
+            if (outer) connection.commit();
+        } catch (SQLException | IOException | RuntimeException e) {
+            if (outer) connection.rollback();
+            throw e;
+        } finally {
+            batchDepth--;
+            if (outer) connection.setAutoCommit(true);
+        }
+    }
+
+    // Supersedes the journal. Timestamped by the latest death, which retention goes by.
+    private void writeTrackingSnapshot(UUID playerId, StoredTracking stored) throws SQLException, IOException {
+        writeSnapshot(playerId, KIND_TRACKING, stored.latestDeath(), stored);
+        deleteJournal.setString(1, playerId.toString());
+        deleteJournal.executeUpdate();
+    }
+
+    private void deleteTracking(UUID playerId) throws SQLException {
+        deleteTrackingSnapshot.setString(1, playerId.toString());
+        deleteTrackingSnapshot.executeUpdate();
+        deleteJournal.setString(1, playerId.toString());
+        deleteJournal.executeUpdate();
+    }
+
+    private void writeSnapshot(UUID playerId, int kind, long timestamp, StoredTracking stored) throws SQLException, IOException {
+        byte[] data = RecoveryFileFormat.encode(timestamp, stored, compress);
+        int items = 0;
+        int despawned = 0;
+        for (StoredItem si : stored.getItems()) {
+            if (si == null) continue;
+            items++;
+            if (si.isDespawned()) despawned++;
+        }
+        upsertSnapshot.setString(1, playerId.toString());
+        upsertSnapshot.setInt(2, kind);
+        upsertSnapshot.setLong(3, timestamp);
+        upsertSnapshot.setInt(4, items);
+        upsertSnapshot.setInt(5, despawned);
+        upsertSnapshot.setBytes(6, data);
+        upsertSnapshot.executeUpdate();
+        metrics.add(RecoveryMetrics.Counter.BYTES_WRITTEN, data.length);
+    }
+
+    private static byte[] snapshot(Reads reads, UUID playerId, int kind) throws SQLException {
+        reads.selectSnapshot.setString(1, playerId.toString());
+        reads.selectSnapshot.setInt(2, kind);
+        try (ResultSet rs = reads.selectSnapshot.executeQuery()) {
+            return rs.next() ? rs.getBytes(1) : null;
+        }
+    }
+
+    // 0 if there is no such snapshot
+    private static long timestamp(Reads reads, UUID playerId, int kind) throws SQLException {
+        reads.selectTimestamp.setString(1, playerId.toString());
+        reads.selectTimestamp.setInt(2, kind);
+        try (ResultSet rs = reads.selectTimestamp.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private int journalSize(UUID playerId) throws SQLException {
+        countJournal.setString(1, playerId.toString());
+        try (ResultSet rs = countJournal.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    // loadStored on the reader, in one read transaction so a commit between its two queries can't pair a
+    // snapshot with a journal that was folded into it
+    private StoredTracking readStored(UUID playerId) throws SQLException, IOException {
+        synchronized (readLock) {
+            reader.setAutoCommit(false);
+            try {
+                return loadStored(readerReads, playerId);
+            } finally {
+                reader.commit();
+                reader.setAutoCommit(true);
+            }
+        }
+    }
+
+    // The tracking snapshot with the journal rows replayed on top
+    private static StoredTracking loadStored(Reads reads, UUID playerId) throws SQLException, IOException {
+        byte[] data = snapshot(reads, playerId, KIND_TRACKING);
+        StoredTracking stored = data != null ? RecoveryFileFormat.decode(data) : null;
+        List<TrackingJournal.Entry> entries = new ArrayList<>();
+        reads.selectJournal.setString(1, playerId.toString());
+        try (ResultSet rs = reads.selectJournal.executeQuery()) {
+            while (rs.next()) entries.add(TrackingJournal.decode(rs.getBytes(1)));
+        }
+        if (entries.isEmpty()) return stored;
+        if (stored == null) stored = new StoredTracking(new ArrayList<>(), new ArrayList<>());
+        for (TrackingJournal.Entry entry : entries) entry.apply(stored);
+        return stored;
+    }
+}
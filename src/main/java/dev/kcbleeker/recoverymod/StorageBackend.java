@@ -0,0 +1,79 @@
+package dev.kcbleeker.recoverymod;
+
+import java.io.IOException;
+import java.util.*;
+import dev.kcbleeker.recoverymod.RecoveryTracking.TrackedItem;
+
+/**
+ * Where recovery data is kept. Writes come from the persistence thread; loads may come
+ * from any thread at the same time, so implementations must be thread-safe.
+ */
+public interface StorageBackend {
+    // A group of writes run by runBatch
+    interface Batch {
+        void run() throws IOException;
+    }
+
+    /**
+     * Prepares the store and brings its metadata up to date. Returns the number of
+     * players whose metadata had to be rebuilt.
+     */
+    int open() throws IOException;
+
+    // Latest death snapshot, as taken at death
+    void saveInventory(UUID playerId, List<TrackedItem> items, long timestamp) throws IOException;
+
+    // Full tracking snapshot; supersedes the changes appended so far. Empty tracking is deleted.
+    void saveTracking(UUID playerId, PlayerTracking tracking) throws IOException;
+
+    // Tracking changes made since the last snapshot; may fold them into a new snapshot
+    void appendChanges(UUID playerId, List<TrackingJournal.Entry> entries) throws IOException;
+
+    // The last snapshot with the changes replayed on top, or null if there is none
+    PlayerTracking loadTracking(UUID playerId);
+
+    /**
+     * The same as stored, without the Bukkit API, so it can also be read by tools running
+     * outside the server; null if there is none.
+     */
+    StoredTracking loadStoredTracking(UUID playerId) throws IOException;
+
+    List<TrackedItem> loadInventory(UUID playerId);
+
+    // Timestamp of the latest death snapshot, 0 if there is none
+    long getLastDeath(UUID playerId);
+
+    // Despawned items as last recorded by updateCounts, read from metadata only; -1 if unknown
+    int getDespawnedCount(UUID playerId);
+
+    boolean hasData(UUID playerId);
+
+    Set<UUID> players();
+
+    // Recorded for metadata only; may be buffered until the next checkpoint
+    void updateCounts(UUID playerId, int itemCount, int despawnedCount);
+
+    /**
+     * Deletes snapshots and changes older than the cutoff. Returns the number of players
+     * whose data was removed entirely.
+     */
+    int deleteExpired(long cutoff);
+
+    // The same for one player; returns true if the player's data was removed entirely
+    boolean expire(UUID playerId, long cutoff);
+
+    /**
+     * Moves those of the players whose data is all older than the cutoff to cold storage,
+     * where it stays readable through the same calls. Returns the number moved; stores
+     * without a cold tier keep everything as it is.
+     */
+    int archive(Collection<UUID> playerIds, long cutoff);
+
+    // Runs several writes as one unit where the store supports it; calls may nest
+    void runBatch(Batch batch) throws IOException;
+
+    // Persists buffered metadata; cheap when nothing changed
+    void checkpoint();
+
+    void close();
+}
@@ -0,0 +1,69 @@
+package dev.kcbleeker.recoverymod;
+
+import java.io.IOException;
+import java.util.*;
+import dev.kcbleeker.recoverymod.RecoveryTracking.TrackedItem;
+
+/**
+ * One-shot copy of every player's data from one storage backend to another. Players who
+ * already have data in the target are skipped, so nothing written there since the switch
+ * is overwritten with older data.
+ */
+final class StorageMigration {
+    private static final int PLAYERS_PER_BATCH = 256;
+
+    private StorageMigration() {}
+
+    /**
+     * Returns the number of players copied. Reads run on the calling thread; each batch of
+     * writes runs on the persistence writer, like every other write to the target, and is
+     * waited for before the next batch is read.
+     */
+    static int migrate(StorageBackend source, StorageBackend target, PersistenceWriter writer) throws IOException {
+        List<UUID> players = new ArrayList<>(source.players());
+        int migrated = 0;
+        for (int from = 0; from < players.size(); from += PLAYERS_PER_BATCH) {
+            List<UUID> batch = players.subList(from, Math.min(players.size(), from + PLAYERS_PER_BATCH));
+            Map<UUID, List<TrackedItem>> inventories = new HashMap<>();
+            Map<UUID, Long> lastDeaths = new HashMap<>();
+            Map<UUID, PlayerTracking> trackings = new HashMap<>();
+            for (UUID playerId : batch) {
+                List<TrackedItem> inventory = source.loadInventory(playerId);
+                if (inventory != null) {
+                    inventories.put(playerId, inventory);
+                    lastDeaths.put(playerId, source.getLastDeath(playerId));
+                }
+                PlayerTracking tracking = source.loadTracking(playerId);
+                if (tracking != null) trackings.put(playerId, tracking);
+            }
+            java.util.concurrent.CompletableFuture<Integer> written = new java.util.concurrent.CompletableFuture<>();
+            writer.submitRequired(() -> {
+                int[] copied = new int[1];
+                try {
+                    target.runBatch(() -> {
+                        for (UUID playerId : batch) {
+                            if (target.hasData(playerId)) continue;
+                            List<TrackedItem> inventory = inventories.get(playerId);
+                            if (inventory != null) target.saveInventory(playerId, inventory, lastDeaths.get(playerId));
+                            PlayerTracking tracking = trackings.get(playerId);
+                            if (tracking != null) target.saveTracking(playerId, tracking);
+                            copied[0]++;
+                        }
+                    });
+                    written.complete(copied[0]);
+                } catch (IOException | RuntimeException e) {
+                    written.completeExceptionally(e);
+                }
+            });
+            try {
+                migrated += written.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted after migrating " + migrated + " players", e);
+            } catch (java.util.concurrent.ExecutionException e) {
+                throw new IOException("Failed after migrating " + migrated + " players", e.getCause());
+            }
+        }
+        return migrated;
+    }
+}
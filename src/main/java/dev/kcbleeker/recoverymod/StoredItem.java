@@ -0,0 +1,46 @@
+package dev.kcbleeker.recoverymod;
+
+import java.util.UUID;
+
+/**
+ * A tracked item as it is stored on disk, independent of the Bukkit API.
+ */
+public class StoredItem {
+    private final String material;
+    private final int amount;
+    private final ItemState state;
+    private final UUID dropId; // null unless ON_GROUND or FROZEN
+    private final byte[] payload; // ItemStack#serializeAsBytes
+
+    public StoredItem(String material, int amount, ItemState state, UUID dropId, byte[] payload) {
+        this.material = material;
+        this.amount = amount;
+        this.state = state;
+        this.dropId = dropId;
+        this.payload = payload;
+    }
+
+    public String getMaterial() {
+        return material;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public ItemState getState() {
+        return state;
+    }
+
+    public boolean isDespawned() {
+        return state == ItemState.DESPAWNED;
+    }
+
+    public UUID getDropId() {
+        return dropId;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+}
@@ -0,0 +1,31 @@
+package dev.kcbleeker.recoverymod;
+
+import java.util.*;
+
+/**
+ * Contents of a recovery data file as stored on disk: the item slots (null for an empty
+ * slot) and the deaths they belong to, oldest first.
+ */
+public class StoredTracking {
+    private final List<StoredItem> items;
+    private final List<DeathRecord> deaths;
+
+    public StoredTracking(List<StoredItem> items, List<DeathRecord> deaths) {
+        this.items = items;
+        this.deaths = deaths;
+    }
+
+    // Mutable, so journal entries can be replayed onto it
+    public List<StoredItem> getItems() {
+        return items;
+    }
+
+    public List<DeathRecord> getDeaths() {
+        return deaths;
+    }
+
+    // Timestamp of the most recent death, which retention goes by; now if there is none
+    public long latestDeath() {
+        return deaths.isEmpty() ? System.currentTimeMillis() : deaths.get(deaths.size() - 1).getTimestamp();
+    }
+}
@@ -0,0 +1,17 @@
+package dev.kcbleeker.recoverymod;
+
+import java.io.IOException;
+
+/**
+ * Transport between the servers of a network, for {@link NetworkSync}. Messages are opaque
+ * byte arrays; every message published reaches every other node, in the order its sender
+ * published them. Nothing is guaranteed about nodes that join later.
+ */
+public interface SyncChannel {
+    // Starts delivering other nodes' messages to the receiver, on a thread of the channel's own
+    void open(java.util.function.Consumer<byte[]> receiver) throws IOException;
+
+    void publish(byte[] message) throws IOException;
+
+    void close();
+}
@@ -0,0 +1,176 @@
+package dev.kcbleeker.recoverymod;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resident tracking state. Players are loaded on demand and, once the item budget is
+ * exceeded, the least recently used entries are evicted if they are clean and offline.
+ * Safe to use from several region threads at once.
+ */
+public class TrackingCache {
+    private final java.util.function.Function<UUID, PlayerTracking> loader;
+    private final java.util.function.Predicate<UUID> isClean;
+    private final java.util.function.Predicate<UUID> isOnline;
+    private final java.util.function.BiConsumer<UUID, PlayerTracking> onLoad;
+    private final int maxResidentItems;
+
+    private final Map<UUID, PlayerTracking> entries = new ConcurrentHashMap<>();
+    // Players known to have nothing stored, so misses for them don't go to storage again.
+    // A load in flight holds its own marker, replaced by ABSENT only if nothing invalidated it.
+    private static final Object ABSENT = new Object();
+    private static final int MAX_ABSENT = 10_000;
+    private final Map<UUID, Object> absent = new ConcurrentHashMap<>();
+    // Players whose tracking became empty, removed once nothing is left to write for them
+    private final Set<UUID> emptyCandidates = ConcurrentHashMap.newKeySet();
+    // Held while a player's data is loaded from storage or expired there, so neither sees the other half done
+    private final Map<UUID, StorageLock> storageLocks = new ConcurrentHashMap<>();
+
+    private static final class StorageLock {
+        int holders; // only changed inside compute
+    }
+
+    public TrackingCache(java.util.function.Function<UUID, PlayerTracking> loader,
+                         java.util.function.Predicate<UUID> isClean,
+                         java.util.function.Predicate<UUID> isOnline,
+                         java.util.function.BiConsumer<UUID, PlayerTracking> onLoad, int maxResidentItems) {
+        this.loader = loader;
+        this.isClean = isClean;
+        this.isOnline = isOnline;
+        this.onLoad = onLoad;
+        this.maxResidentItems = maxResidentItems;
+    }
+
+    // Returns the player's tracked items, loading them from disk if they are not resident
+    public PlayerTracking get(UUID playerId) {
+        PlayerTracking tracking = entries.get(playerId);
+        if (tracking != null) {
+            tracking.touch();
+            return tracking;
+        }
+        if (absent.get(playerId) == ABSENT) return null;
+        Object loading = new Object();
+        absent.put(playerId, loading);
+        // Only this player's storage lock is held; if two threads race, the first one to publish wins
+        tracking = withStorageLock(playerId, () -> loader.apply(playerId));
+        if (tracking == null) {
+            absent.replace(playerId, loading, ABSENT);
+            return null;
+        }
+        absent.remove(playerId, loading);
+        return publish(playerId, tracking);
+    }
+
+    /**
+     * Runs work on the player's stored data while no load of that player is in flight,
+     * and keeps loads waiting until it returns.
+     */
+    public <T> T withStorageLock(UUID playerId, java.util.function.Supplier<T> work) {
+        StorageLock lock = storageLocks.compute(playerId, (id, held) -> {
+            if (held == null) held = new StorageLock();
+            held.holders++;
+            return held;
+        });
+        try {
+            synchronized (lock) {
+                return work.get();
+            }
+        } finally {
+            storageLocks.computeIfPresent(playerId, (id, held) -> --held.holders == 0 ? null : held);
+        }
+    }
+
+    // Something was saved for the player, so a cached miss no longer holds
+    public void invalidate(UUID playerId) {
+        absent.remove(playerId);
+    }
+
+    // Returns the player's tracked items only if they are already resident
+    public PlayerTracking peek(UUID playerId) {
+        return entries.get(playerId);
+    }
+
+    public boolean isLoaded(UUID playerId) {
+        return entries.containsKey(playerId);
+    }
+
+    public void put(UUID playerId, PlayerTracking tracking) {
+        absent.remove(playerId);
+        entries.put(playerId, tracking);
+    }
+
+    // Adds state loaded off-thread, unless newer state became resident in the meantime; returns the resident state
+    public PlayerTracking putIfAbsent(UUID playerId, PlayerTracking tracking) {
+        return publish(playerId, tracking);
+    }
+
+    private PlayerTracking publish(UUID playerId, PlayerTracking tracking) {
+        absent.remove(playerId);
+        PlayerTracking existing = entries.putIfAbsent(playerId, tracking);
+        if (existing != null) return existing;
+        onLoad.accept(playerId, tracking);
+        return tracking;
+    }
+
+    /**
+     * Drops all tracked items for a player. The empty entry stays resident until it is
+     * clean, so a reload can never resurrect data that has not been overwritten on disk yet.
+     */
+    public void clear(UUID playerId) {
+        absent.remove(playerId);
+        entries.put(playerId, new PlayerTracking(Collections.emptyList()));
+        emptyCandidates.add(playerId);
+    }
+
+    // Queues a player for removal by the next maintenance pass if their tracking is now empty
+    public void markIfEmpty(UUID playerId) {
+        PlayerTracking tracking = entries.get(playerId);
+        if (tracking != null && tracking.isEmpty()) emptyCandidates.add(playerId);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // Live tracked items across all resident players
+    public int residentItems() {
+        int total = 0;
+        for (PlayerTracking tracking : entries.values()) total += tracking.size();
+        return total;
+    }
+
+    public Set<UUID> residentPlayers() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * Periodic housekeeping, kept off the event path: removes queued empty entries once
+     * they are clean, then evicts least recently used offline players while over budget.
+     */
+    public void maintain() {
+        // Only a shortcut; forgetting it costs one load per player
+        if (absent.size() > MAX_ABSENT) absent.clear();
+        Iterator<UUID> candidates = emptyCandidates.iterator();
+        while (candidates.hasNext()) {
+            UUID playerId = candidates.next();
+            PlayerTracking tracking = entries.get(playerId);
+            if (tracking != null && tracking.isEmpty()) {
+                if (!isClean.test(playerId)) continue; // retry on the next pass
+                // Only remove the entry we checked; a new death may have replaced it
+                if (entries.remove(playerId, tracking)) absent.remove(playerId);
+            }
+            candidates.remove();
+        }
+        int total = residentItems();
+        if (total <= maxResidentItems) return;
+        List<Map.Entry<UUID, PlayerTracking>> byAge = new ArrayList<>(entries.entrySet());
+        byAge.sort(Comparator.comparingLong(e -> e.getValue().lastAccess()));
+        for (Map.Entry<UUID, PlayerTracking> e : byAge) {
+            if (total <= maxResidentItems) break;
+            if (!isOnline.test(e.getKey()) && isClean.test(e.getKey()) && entries.remove(e.getKey(), e.getValue())) {
+                absent.remove(e.getKey());
+                total -= e.getValue().size();
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package dev.kcbleeker.recoverymod;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Collects players whose tracking needs a full snapshot and writes them in batches.
+ * A single task runs while anything is dirty; each cycle stops at a time and byte
+ * budget, and the interval shortens while a backlog remains and backs off once it is gone.
+ * Players may be marked dirty from any thread; cycles run on the global region.
+ */
+public class TrackingFlusher {
+    private static final long MIN_INTERVAL_TICKS = 2;
+    private static final long MAX_INTERVAL_TICKS = 40;
+    private static final long CYCLE_BUDGET_NANOS = 2_000_000L;
+    private static final long CYCLE_BUDGET_BYTES = 1024 * 1024;
+
+    private final Schedulers schedulers;
+    private final java.util.function.Consumer<UUID> save;
+    // Rough size of a player's snapshot, used for the byte budget
+    private final java.util.function.ToLongFunction<UUID> estimateBytes;
+    private final RecoveryMetrics metrics;
+
+    // The set deduplicates, the queue keeps the players waiting longest first
+    private final Set<UUID> dirty = ConcurrentHashMap.newKeySet();
+    private final Queue<UUID> order = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile long interval = MAX_INTERVAL_TICKS;
+
+    public TrackingFlusher(Schedulers schedulers, java.util.function.Consumer<UUID> save,
+                           java.util.function.ToLongFunction<UUID> estimateBytes, RecoveryMetrics metrics) {
+        this.schedulers = schedulers;
+        this.save = save;
+        this.estimateBytes = estimateBytes;
+        this.metrics = metrics;
+    }
+
+    public void markDirty(UUID playerId) {
+        if (dirty.add(playerId)) order.add(playerId);
+        if (scheduled.compareAndSet(false, true)) schedulers.runGlobalLater(this::cycle, interval);
+    }
+
+    public boolean isDirty(UUID playerId) {
+        return dirty.contains(playerId);
+    }
+
+    public int size() {
+        return dirty.size();
+    }
+
+    // Writes everything that is still dirty, ignoring the budget (shutdown)
+    public void flushAll() {
+        UUID playerId;
+        while ((playerId = order.poll()) != null) {
+            dirty.remove(playerId);
+            save.accept(playerId);
+        }
+    }
+
+    private void cycle() {
+        long start = System.nanoTime();
+        long bytes = 0;
+        UUID playerId;
+        // Always write at least one player, so an oversized snapshot can't stall the queue
+        while ((playerId = order.poll()) != null) {
+            // Removed before saving, so a change made during the save marks the player again
+            dirty.remove(playerId);
+            bytes += estimateBytes.applyAsLong(playerId);
+            save.accept(playerId);
+            if (bytes >= CYCLE_BUDGET_BYTES || System.nanoTime() - start >= CYCLE_BUDGET_NANOS) break;
+        }
+        metrics.record(RecoveryMetrics.Timer.TRACKING_FLUSH, start);
+        // Still behind: come back sooner, until the backlog is gone
+        interval = order.isEmpty() ? MAX_INTERVAL_TICKS : Math.max(MIN_INTERVAL_TICKS, interval / 2);
+        scheduled.set(false);
+        if (!order.isEmpty() && scheduled.compareAndSet(false, true)) schedulers.runGlobalLater(this::cycle, interval);
+    }
+}
@@ -0,0 +1,420 @@
+package dev.kcbleeker.recoverymod;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Append-only journal of tracking changes, replayed on top of the last tracking snapshot.
+ *
+ * Each entry is framed as length, CRC32 and payload, so a torn write at the end of the
+ * file is detected and replay stops at the last complete entry. A length of 0xFFFF is
+ * followed by the real length as an int, for deaths too large for the short.
+ *
+ * A new death is journaled too, as its own items only; the earlier deaths are already in
+ * the snapshot, so a death does not rewrite the player's whole history.
+ */
+public final class TrackingJournal {
+    public static final String EXTENSION = ".journal";
+
+    public enum Op {
+        DESPAWNED, PICKED_UP, MERGED, DROP_ASSIGNED, PRUNED, PRUNED_SLOTS, FROZEN, THAWED, DEATH, LOST
+    }
+
+    private static final int LONG_FRAME = 0xFFFF;
+
+    public static final class Entry {
+        private final Op op;
+        private final UUID dropId;
+        private final UUID targetId; // MERGED only
+        private final int index; // slot, DROP_ASSIGNED and PRUNED_SLOTS only
+        private final int count; // PRUNED_SLOTS only
+        private final long timestamp; // DEATH only
+        private final long[] kept; // DEATH only: earlier deaths still held after it, by timestamp, oldest first
+        private final List<StoredItem> items; // DEATH only
+
+        private Entry(Op op, UUID dropId, UUID targetId, int index) {
+            this(op, dropId, targetId, index, 0);
+        }
+
+        private Entry(Op op, UUID dropId, UUID targetId, int index, int count) {
+            this(op, dropId, targetId, index, count, 0, null, null);
+        }
+
+        private Entry(Op op, UUID dropId, UUID targetId, int index, int count, long timestamp, long[] kept,
+                      List<StoredItem> items) {
+            this.op = op;
+            this.dropId = dropId;
+            this.targetId = targetId;
+            this.index = index;
+            this.count = count;
+            this.timestamp = timestamp;
+            this.kept = kept;
+            this.items = items;
+        }
+
+        public static Entry despawned(UUID dropId) {
+            return new Entry(Op.DESPAWNED, dropId, null, -1);
+        }
+
+        public static Entry pickedUp(UUID dropId) {
+            return new Entry(Op.PICKED_UP, dropId, null, -1);
+        }
+
+        // The drop was removed some other way, e.g. burnt or fallen out of the world
+        public static Entry lost(UUID dropId) {
+            return new Entry(Op.LOST, dropId, null, -1);
+        }
+
+        public static Entry merged(UUID sourceId, UUID targetId) {
+            return new Entry(Op.MERGED, sourceId, targetId, -1);
+        }
+
+        // The drop's chunk unloaded (frozen) or loaded again
+        public static Entry frozen(UUID dropId, boolean frozen) {
+            return new Entry(frozen ? Op.FROZEN : Op.THAWED, dropId, null, -1);
+        }
+
+        public static Entry dropAssigned(int slot, UUID dropId) {
+            return new Entry(Op.DROP_ASSIGNED, dropId, null, slot);
+        }
+
+        // Empties every slot whose item no longer has a drop entity
+        public static Entry pruned() {
+            return new Entry(Op.PRUNED, null, null, -1);
+        }
+
+        // Same as pruned(), limited to one death's slot range
+        public static Entry prunedSlots(DeathRecord death) {
+            return prunedSlots(death.getStart(), death.getEnd() - death.getStart());
+        }
+
+        private static Entry prunedSlots(int start, int count) {
+            return new Entry(Op.PRUNED_SLOTS, null, null, start, count);
+        }
+
+        /**
+         * A death added to the tracking, with the earlier deaths it kept. The kept deaths are
+         * named rather than re-derived on replay, so the slot layout after it is the one the
+         * live tracking had, even if the stored copy still holds deaths that expired meanwhile.
+         */
+        public static Entry death(long timestamp, List<StoredItem> items, List<DeathRecord> kept) {
+            long[] timestamps = new long[kept.size()];
+            for (int i = 0; i < timestamps.length; i++) timestamps[i] = kept.get(i).getTimestamp();
+            return new Entry(Op.DEATH, null, null, -1, 0, timestamp, timestamps, List.copyOf(items));
+        }
+
+        public Op getOp() {
+            return op;
+        }
+
+        // When the death happened, for DEATH entries; 0 otherwise
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        // Applies this change to stored tracking, mirroring the live tracking update
+        public void apply(StoredTracking stored) {
+            List<StoredItem> items = stored.getItems();
+            switch (op) {
+                case DESPAWNED:
+                case LOST: {
+                    int i = indexOf(items, dropId);
+                    if (i != -1) {
+                        StoredItem si = items.get(i);
+                        ItemState state = op == Op.DESPAWNED ? ItemState.DESPAWNED : ItemState.UNKNOWN;
+                        items.set(i, new StoredItem(si.getMaterial(), si.getAmount(), state, null, si.getPayload()));
+                    }
+                    break;
+                }
+                case PICKED_UP: {
+                    int i = indexOf(items, dropId);
+                    if (i != -1) items.set(i, null);
+                    break;
+                }
+                case MERGED: {
+                    int sourceIdx = indexOf(items, dropId);
+                    int targetIdx = indexOf(items, targetId);
+                    if (sourceIdx != -1 && targetIdx != -1) {
+                        StoredItem target = items.get(targetIdx);
+                        int amount = target.getAmount() + items.get(sourceIdx).getAmount();
+                        items.set(targetIdx, new StoredItem(target.getMaterial(), amount, ItemState.ON_GROUND, targetId, target.getPayload()));
+                        items.set(sourceIdx, null);
+                    } else if (sourceIdx != -1) {
+                        StoredItem source = items.get(sourceIdx);
+                        items.set(sourceIdx, new StoredItem(source.getMaterial(), source.getAmount(), ItemState.ON_GROUND, targetId, source.getPayload()));
+                    }
+                    break;
+                }
+                case DROP_ASSIGNED: {
+                    if (index >= 0 && index < items.size() && items.get(index) != null) {
+                        StoredItem si = items.get(index);
+                        items.set(index, new StoredItem(si.getMaterial(), si.getAmount(), ItemState.ON_GROUND, dropId, si.getPayload()));
+                    }
+                    break;
+                }
+                case FROZEN:
+                case THAWED: {
+                    int i = indexOf(items, dropId);
+                    if (i != -1) {
+                        StoredItem si = items.get(i);
+                        ItemState state = op == Op.FROZEN ? ItemState.FROZEN : ItemState.ON_GROUND;
+                        items.set(i, new StoredItem(si.getMaterial(), si.getAmount(), state, dropId, si.getPayload()));
+                    }
+                    break;
+                }
+                case PRUNED:
+                    prune(items, 0, items.size());
+                    break;
+                case PRUNED_SLOTS:
+                    prune(items, index, Math.min(items.size(), index + count));
+                    break;
+                case DEATH:
+                    addDeath(stored);
+                    break;
+            }
+        }
+
+        // Same layout as PlayerTracking#addDeath: the kept deaths move down, the new one goes last
+        private void addDeath(StoredTracking stored) {
+            List<StoredItem> slots = stored.getItems();
+            List<DeathRecord> deaths = stored.getDeaths();
+            List<StoredItem> moved = new ArrayList<>(slots.size() + items.size());
+            List<DeathRecord> shifted = new ArrayList<>(kept.length + 1);
+            for (DeathRecord death : deaths) {
+                if (!isKept(death.getTimestamp())) continue;
+                shifted.add(death.shiftedTo(moved.size()));
+                for (int slot = death.getStart(); slot < death.getEnd(); slot++) {
+                    moved.add(slot < slots.size() ? slots.get(slot) : null);
+                }
+            }
+            int start = moved.size();
+            moved.addAll(items);
+            shifted.add(new DeathRecord(timestamp, start, moved.size()));
+            slots.clear();
+            slots.addAll(moved);
+            deaths.clear();
+            deaths.addAll(shifted);
+        }
+
+        private boolean isKept(long death) {
+            for (long t : kept) if (t == death) return true;
+            return false;
+        }
+
+        private static void prune(List<StoredItem> items, int start, int end) {
+            for (int i = Math.max(0, start); i < end; i++) {
+                if (items.get(i) != null && items.get(i).getDropId() == null) items.set(i, null);
+            }
+        }
+
+        private static int indexOf(List<StoredItem> items, UUID dropId) {
+            for (int i = 0; i < items.size(); i++) {
+                StoredItem si = items.get(i);
+                if (si != null && dropId.equals(si.getDropId())) return i;
+            }
+            return -1;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeByte(op.ordinal());
+            switch (op) {
+                case DESPAWNED:
+                case PICKED_UP:
+                case FROZEN:
+                case THAWED:
+                case LOST:
+                    writeUuid(out, dropId);
+                    break;
+                case MERGED:
+                    writeUuid(out, dropId);
+                    writeUuid(out, targetId);
+                    break;
+                case DROP_ASSIGNED:
+                    out.writeInt(index);
+                    writeUuid(out, dropId);
+                    break;
+                case PRUNED:
+                    break;
+                case PRUNED_SLOTS:
+                    out.writeInt(index);
+                    out.writeInt(count);
+                    break;
+                case DEATH:
+                    writeDeath(out);
+                    break;
+            }
+        }
+
+        // Items are fresh from the inventory: no state or drop yet. Deflated, and a payload
+        // repeated within the death is written once, as in RecoveryFileFormat.
+        private void writeDeath(DataOutputStream out) throws IOException {
+            out.writeLong(timestamp);
+            out.writeShort(kept.length);
+            for (long t : kept) out.writeLong(t);
+            Deflater deflater = new Deflater(RecoveryFileFormat.DEFAULT_LEVEL);
+            try {
+                DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater);
+                DataOutputStream body = new DataOutputStream(deflated);
+                Map<byte[], Integer> written = new IdentityHashMap<>();
+                body.writeInt(items.size());
+                for (int i = 0; i < items.size(); i++) {
+                    StoredItem item = items.get(i);
+                    body.writeUTF(item.getMaterial());
+                    body.writeInt(item.getAmount());
+                    Integer earlier = written.putIfAbsent(item.getPayload(), i);
+                    if (earlier != null) {
+                        body.writeInt(-earlier - 1);
+                    } else {
+                        body.writeInt(item.getPayload().length);
+                        body.write(item.getPayload());
+                    }
+                }
+                body.flush();
+                deflated.finish();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        private static Entry readDeath(DataInputStream in) throws IOException {
+            long timestamp = in.readLong();
+            long[] kept = new long[in.readUnsignedShort()];
+            for (int i = 0; i < kept.length; i++) kept[i] = in.readLong();
+            DataInputStream body = new DataInputStream(new InflaterInputStream(in));
+            int count = body.readInt();
+            List<StoredItem> items = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String material = body.readUTF();
+                int amount = body.readInt();
+                int length = body.readInt();
+                byte[] payload;
+                if (length < 0) {
+                    payload = items.get(-length - 1).getPayload();
+                } else {
+                    payload = new byte[length];
+                    body.readFully(payload);
+                }
+                items.add(new StoredItem(material, amount, ItemState.UNKNOWN, null, payload));
+            }
+            return new Entry(Op.DEATH, null, null, -1, 0, timestamp, kept, items);
+        }
+
+        private static Entry read(DataInputStream in) throws IOException {
+            Op op = Op.values()[in.readUnsignedByte()];
+            switch (op) {
+                case DESPAWNED:
+                    return despawned(readUuid(in));
+                case PICKED_UP:
+                    return pickedUp(readUuid(in));
+                case LOST:
+                    return lost(readUuid(in));
+                case FROZEN:
+                case THAWED:
+                    return frozen(readUuid(in), op == Op.FROZEN);
+                case MERGED:
+                    return merged(readUuid(in), readUuid(in));
+                case DROP_ASSIGNED:
+                    int index = in.readInt();
+                    return dropAssigned(index, readUuid(in));
+                case PRUNED_SLOTS:
+                    int start = in.readInt();
+                    return prunedSlots(start, in.readInt());
+                case DEATH:
+                    return readDeath(in);
+                default:
+                    return pruned();
+            }
+        }
+    }
+
+    private TrackingJournal() {}
+
+    // A single entry without framing, for storage backends that keep entries as rows
+    public static byte[] encode(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(40);
+        entry.write(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    public static Entry decode(byte[] data) throws IOException {
+        return Entry.read(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
+    /**
+     * Appends a group of entries with a single write and a single fsync.
+     * Returns the size of the journal file afterwards.
+     */
+    public static long append(File file, List<Entry> entries) throws IOException {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream(entries.size() * 48);
+        DataOutputStream framesOut = new DataOutputStream(frames);
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(40);
+        DataOutputStream payloadOut = new DataOutputStream(payload);
+        CRC32 crc = new CRC32();
+        for (Entry entry : entries) {
+            payload.reset();
+            entry.write(payloadOut);
+            crc.reset();
+            crc.update(payload.toByteArray());
+            if (payload.size() >= LONG_FRAME) {
+                framesOut.writeShort(LONG_FRAME);
+                framesOut.writeInt(payload.size());
+            } else {
+                framesOut.writeShort(payload.size());
+            }
+            framesOut.writeInt((int) crc.getValue());
+            payload.writeTo(framesOut);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(frames.toByteArray());
+            while (buffer.hasRemaining()) channel.write(buffer);
+            channel.force(false);
+            return channel.size();
+        }
+    }
+
+    // Reads all complete entries; a truncated or corrupt tail is ignored
+    public static List<Entry> read(File file) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        if (!file.exists()) return entries;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] payload;
+                int checksum;
+                try {
+                    int length = in.readUnsignedShort();
+                    if (length == LONG_FRAME) length = in.readInt();
+                    // A corrupt length is a torn tail like any other
+                    if (length < 0 || length > file.length()) break;
+                    payload = new byte[length];
+                    checksum = in.readInt();
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) break;
+                entries.add(Entry.read(new DataInputStream(new ByteArrayInputStream(payload))));
+            }
+        }
+        return entries;
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID id) throws IOException {
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+}
@@ -0,0 +1,150 @@
+package dev.kcbleeker.recoverymod;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColdArchiveTest {
+    private static final long WEEK_MILLIS = 7L * 24 * 60 * 60 * 1000;
+    private static final long TIMESTAMP = 1_700_000_000_000L;
+    private static final UUID FIRST = new UUID(1, 1);
+    private static final UUID SECOND = new UUID(1, 2);
+    private static final UUID THIRD = new UUID(1, 3);
+
+    @TempDir
+    File folder;
+
+    @Test
+    void packedPlayersReadBackAfterReopen() throws IOException {
+        ColdArchive archive = archive();
+        archive.add(Arrays.asList(record(FIRST, TIMESTAMP), record(SECOND, TIMESTAMP - WEEK_MILLIS)));
+        // One pack per week
+        assertEquals(2, packs().size());
+        assertRecord(archive, FIRST, TIMESTAMP);
+
+        ColdArchive reopened = archive();
+        assertEquals(new HashSet<>(Arrays.asList(FIRST, SECOND)), reopened.players());
+        assertRecord(reopened, FIRST, TIMESTAMP);
+        assertRecord(reopened, SECOND, TIMESTAMP - WEEK_MILLIS);
+        ColdArchive.Entry entry = reopened.get(SECOND);
+        assertEquals(TIMESTAMP - WEEK_MILLIS, entry.getLastDeath());
+        assertEquals(1, entry.getItemCount());
+        assertTrue(entry.hasInventory());
+        assertTrue(entry.hasTracking());
+        assertNull(reopened.loadTracking(THIRD));
+    }
+
+    @Test
+    void removedPlayersAreTombstonedUntilThePackGoes() throws IOException {
+        ColdArchive archive = archive();
+        archive.add(Arrays.asList(record(FIRST, TIMESTAMP), record(SECOND, TIMESTAMP), record(THIRD, TIMESTAMP)));
+        archive.remove(FIRST);
+        assertFalse(archive.contains(FIRST));
+        assertNull(archive.loadTracking(FIRST));
+        assertEquals(1, files(".del").size());
+
+        ColdArchive reopened = archive();
+        assertEquals(new HashSet<>(Arrays.asList(SECOND, THIRD)), reopened.players());
+
+        // Now more dead than live, so tidying rewrites it without the tombstones
+        reopened.remove(SECOND);
+        reopened.tidy();
+        assertEquals(1, packs().size());
+        assertTrue(files(".del").isEmpty());
+        assertRecord(reopened, THIRD, TIMESTAMP);
+        assertEquals(Collections.singleton(THIRD), archive().players());
+
+        reopened.remove(THIRD);
+        assertTrue(packs().isEmpty());
+        assertTrue(archive().isEmpty());
+    }
+
+    @Test
+    void tidyMergesAWeeksPacks() throws IOException {
+        ColdArchive archive = archive();
+        for (UUID playerId : Arrays.asList(FIRST, SECOND, THIRD)) archive.add(Collections.singletonList(record(playerId, TIMESTAMP)));
+        assertEquals(3, packs().size());
+        archive.tidy();
+        assertEquals(1, packs().size());
+        for (UUID playerId : Arrays.asList(FIRST, SECOND, THIRD)) assertRecord(archive, playerId, TIMESTAMP);
+        assertEquals(3, archive().players().size());
+    }
+
+    @Test
+    void reopenAfterCrashMidMergeKeepsOneCopy() throws IOException {
+        ColdArchive archive = archive();
+        for (UUID playerId : Arrays.asList(FIRST, SECOND)) archive.add(Collections.singletonList(record(playerId, TIMESTAMP)));
+        Map<File, byte[]> before = new HashMap<>();
+        for (File pack : packs()) before.put(pack, Files.readAllBytes(pack.toPath()));
+        archive.tidy();
+        // The merged pack was written, but the crash came before the old ones were deleted
+        for (Map.Entry<File, byte[]> pack : before.entrySet()) Files.write(pack.getKey().toPath(), pack.getValue());
+        assertEquals(3, packs().size());
+
+        ColdArchive reopened = archive();
+        assertEquals(1, packs().size());
+        assertRecord(reopened, FIRST, TIMESTAMP);
+        assertRecord(reopened, SECOND, TIMESTAMP);
+
+        // Removed once is removed for good, with no older copy left to come back
+        reopened.remove(FIRST);
+        assertEquals(Collections.singleton(SECOND), archive().players());
+    }
+
+    @Test
+    void truncatedPackIsLeftAndSkipped() throws IOException {
+        ColdArchive archive = archive();
+        archive.add(Collections.singletonList(record(FIRST, TIMESTAMP)));
+        archive.add(Collections.singletonList(record(SECOND, TIMESTAMP)));
+        File pack = packs().get(0);
+        byte[] bytes = Files.readAllBytes(pack.toPath());
+        Files.write(pack.toPath(), Arrays.copyOf(bytes, bytes.length - 3));
+
+        ColdArchive reopened = archive();
+        assertEquals(1, reopened.players().size());
+        assertTrue(pack.exists());
+    }
+
+    private ColdArchive archive() {
+        ColdArchive archive = new ColdArchive(folder, new RecoveryMetrics());
+        archive.open();
+        return archive;
+    }
+
+    private List<File> packs() {
+        return files(ColdArchive.EXTENSION);
+    }
+
+    private List<File> files(String extension) {
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(extension));
+        List<File> list = files == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(files));
+        list.sort(Comparator.comparing(File::getName));
+        return list;
+    }
+
+    // Death snapshot and tracking both hold one stone, its payload telling the player's records apart; the
+    // same size for every player, so tidy treats their packs alike
+    private static ColdArchive.Record record(UUID playerId, long timestamp) throws IOException {
+        return new ColdArchive.Record(playerId, timestamp, timestamp, 1, 0,
+                RecoveryFileFormat.encode(timestamp, stored(playerId, timestamp), ColdArchive.DEFLATE_LEVEL),
+                RecoveryFileFormat.encode(timestamp, stored(playerId, timestamp), ColdArchive.DEFLATE_LEVEL));
+    }
+
+    private static StoredTracking stored(UUID playerId, long timestamp) {
+        List<StoredItem> items = new ArrayList<>();
+        items.add(new StoredItem("STONE", 1, ItemState.DESPAWNED, null, new byte[] {(byte) playerId.getLeastSignificantBits(), 2}));
+        return new StoredTracking(items, new ArrayList<>(Collections.singletonList(new DeathRecord(timestamp, 0, 1))));
+    }
+
+    private static void assertRecord(ColdArchive archive, UUID playerId, long timestamp) throws IOException {
+        for (StoredTracking stored : Arrays.asList(archive.loadInventory(playerId), archive.loadTracking(playerId))) {
+            assertNotNull(stored, "no record for " + playerId);
+            assertEquals((byte) playerId.getLeastSignificantBits(), stored.getItems().get(0).getPayload()[0]);
+            assertEquals(timestamp, stored.getDeaths().get(0).getTimestamp());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package dev.kcbleeker.recoverymod;
+
+import org.junit.jupiter.api.Test;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DespawnWheelTest {
+    private final DespawnWheel wheel = new DespawnWheel();
+    // Tick each drop expired at
+    private final Map<UUID, Long> expired = new HashMap<>();
+
+    @Test
+    void expiresOnTheDueTickAcrossLevels() {
+        // Either side of every level boundary, plus a typical despawn time
+        long[] delays = {1, 2, 63, 64, 65, 127, 128, 4095, 4096, 4097, 6100, 262_143, 262_144, 262_145, 300_000};
+        Map<UUID, Long> due = new HashMap<>();
+        for (long delay : delays) {
+            UUID dropId = UUID.randomUUID();
+            wheel.schedule(dropId, delay);
+            due.put(dropId, delay);
+        }
+        advanceTo(300_001);
+        assertEquals(due, expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void expiresOnTimeWhenScheduledMidBlock() {
+        Random random = new Random(42);
+        Map<UUID, Long> due = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            // Start from an unaligned clock, so cascades happen partway through each delay
+            if (i % 100 == 0) advanceTo(wheel.currentTick() + 1 + random.nextInt(5000));
+            UUID dropId = UUID.randomUUID();
+            long delay = 1 + random.nextInt(i % 2 == 0 ? 10_000 : 300_000);
+            wheel.schedule(dropId, delay);
+            due.put(dropId, wheel.currentTick() + delay);
+        }
+        long last = Collections.max(due.values());
+        advanceTo(last);
+        assertEquals(due, expired);
+    }
+
+    @Test
+    void parksDelaysBeyondTheTopLevel() {
+        UUID dropId = UUID.randomUUID();
+        long delay = (1L << 24) + 1000;
+        wheel.schedule(dropId, delay);
+        advanceTo(delay - 1);
+        assertTrue(expired.isEmpty());
+        assertTrue(wheel.isScheduled(dropId));
+        advanceTo(delay);
+        assertEquals(Long.valueOf(delay), expired.get(dropId));
+    }
+
+    @Test
+    void cancelledDropsNeverExpire() {
+        UUID soon = UUID.randomUUID();
+        UUID cascaded = UUID.randomUUID();
+        UUID kept = UUID.randomUUID();
+        wheel.schedule(soon, 10);
+        wheel.schedule(cascaded, 5000);
+        wheel.schedule(kept, 5000);
+        assertTrue(wheel.cancel(soon));
+        assertFalse(wheel.cancel(soon));
+        // By now the other two have moved down from level 2
+        advanceTo(4990);
+        assertTrue(wheel.cancel(cascaded));
+        assertFalse(wheel.isScheduled(cascaded));
+        advanceTo(6000);
+        assertEquals(Collections.singletonMap(kept, 5000L), expired);
+        assertFalse(wheel.cancel(kept));
+    }
+
+    @Test
+    void rescheduleReplacesTheEarlierDueTime() {
+        UUID dropId = UUID.randomUUID();
+        wheel.schedule(dropId, 100);
+        advanceTo(50);
+        wheel.schedule(dropId, 200);
+        assertEquals(1, wheel.size());
+        advanceTo(300);
+        assertEquals(Collections.singletonMap(dropId, 250L), expired);
+    }
+
+    @Test
+    void callbackMayScheduleAgain() {
+        UUID dropId = UUID.randomUUID();
+        wheel.schedule(dropId, 10);
+        List<Long> fired = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            wheel.advance(id -> {
+                fired.add(wheel.currentTick());
+                if (fired.size() < 3) wheel.schedule(id, 10);
+            });
+        }
+        assertEquals(Arrays.asList(10L, 20L, 30L), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    private void advanceTo(long tick) {
+        while (wheel.currentTick() < tick) {
+            wheel.advance(dropId -> assertNull(expired.put(dropId, wheel.currentTick()), "expired twice"));
+        }
+    }
+}
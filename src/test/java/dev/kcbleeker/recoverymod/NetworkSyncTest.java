@@ -0,0 +1,295 @@
+package dev.kcbleeker.recoverymod;
+
+import org.bukkit.Material;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import dev.kcbleeker.recoverymod.RecoveryTracking.TrackedItem;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Two nodes over InProcessSyncChannel, each with its own cache holding one death of the player
+class NetworkSyncTest {
+    private static final UUID PLAYER = new UUID(7, 7);
+    private static final long DEATH_A = 1_700_000_000_000L;
+    private static final long DEATH_B = DEATH_A + 60_000;
+
+    private final List<NetworkSync> nodes = new ArrayList<>();
+    private final Set<String> saved = ConcurrentHashMap.newKeySet();
+    // Items each node queued for the player's next join
+    private final Map<String, List<TrackedItem>> delivered = new ConcurrentHashMap<>();
+    private String network;
+    private TrackingCache cacheA;
+    private TrackingCache cacheB;
+    private NetworkSync a;
+    private NetworkSync b;
+
+    @BeforeEach
+    void start() throws Exception {
+        network = "test-" + UUID.randomUUID();
+        cacheA = cache();
+        cacheB = cache();
+        cacheA.put(PLAYER, death(DEATH_A, Material.STONE, ItemState.DESPAWNED));
+        cacheB.put(PLAYER, death(DEATH_B, Material.DIRT, ItemState.DESPAWNED));
+        a = node(network, "a", cacheA);
+        b = node(network, "b", cacheB);
+        // Joined once a's view includes b's death
+        awaitView(a, view -> view.tracking().deaths().size() == 2);
+    }
+
+    @AfterEach
+    void stop() {
+        for (NetworkSync sync : nodes) sync.close();
+    }
+
+    @Test
+    void viewMergesDeathsInTimeOrder() throws Exception {
+        NetworkSync.View view = awaitView(a, v -> true);
+        List<DeathRecord> deaths = view.tracking().deaths();
+        assertEquals(DEATH_A, deaths.get(0).getTimestamp());
+        assertNull(view.nodeOf(deaths.get(0)));
+        assertEquals(DEATH_B, deaths.get(1).getTimestamp());
+        assertEquals("b", view.nodeOf(deaths.get(1)));
+        assertEquals(Material.DIRT, view.tracking().items(deaths.get(1)).get(0).getMaterial());
+        assertTrue(view.unanswered().isEmpty());
+    }
+
+    @Test
+    void viewIsReusedUntilSomethingChanges() throws Exception {
+        NetworkSync.View first = awaitView(a, v -> true);
+        assertSame(first, awaitView(a, v -> true));
+        cacheA.peek(PLAYER).remove(0);
+        assertNotSame(first, awaitView(a, v -> true));
+    }
+
+    @Test
+    void changeOnAnotherNodeMakesTheViewStale() throws Exception {
+        PlayerTracking tracking = cacheB.peek(PLAYER);
+        tracking.set(0, tracking.get(0).withAmount(5));
+        b.changed(PLAYER);
+        NetworkSync.View view = awaitView(a, v -> v.tracking().items(v.tracking().death(1)).get(0).getAmount() == 5);
+        assertEquals("b", view.nodeOf(view.tracking().death(1)));
+    }
+
+    @Test
+    void concurrentTakesHandOutItemsOnce() throws Exception {
+        CompletableFuture<List<TrackedItem>> first = take(a, false);
+        CompletableFuture<List<TrackedItem>> second = take(a, false);
+        List<TrackedItem> one = first.get(5, TimeUnit.SECONDS);
+        List<TrackedItem> other = second.get(5, TimeUnit.SECONDS);
+        assertEquals(1, one.size() + other.size());
+        assertTrue(cacheB.peek(PLAYER).isEmpty());
+        assertTrue(saved.contains("b"));
+    }
+
+    @Test
+    void takeAfterLocalRecoveryGetsNothing() throws Exception {
+        NetworkSync.View view = awaitView(a, v -> true);
+        // b recovers its own death between a's view and a's take
+        PlayerTracking tracking = cacheB.peek(PLAYER);
+        DeathRecord death = tracking.deathAt(DEATH_B);
+        assertEquals(1, tracking.takeIfSame(death, tracking.items(death)).size());
+        assertEquals(1, view.tracking().items(view.tracking().death(1)).size());
+        assertTrue(take(a, true).get(5, TimeUnit.SECONDS).isEmpty());
+    }
+
+    @Test
+    void takeOnlyMovesItemsInTheRequestedState() throws Exception {
+        PlayerTracking tracking = cacheB.peek(PLAYER);
+        tracking.set(0, tracking.get(0).withDrop(UUID.randomUUID()));
+        assertTrue(take(a, false).get(5, TimeUnit.SECONDS).isEmpty());
+        assertNotNull(tracking.get(0));
+        List<TrackedItem> forced = take(a, true).get(5, TimeUnit.SECONDS);
+        assertEquals(1, forced.size());
+        assertEquals(ItemState.ON_GROUND, forced.get(0).getState());
+        assertNull(tracking.get(0));
+    }
+
+    @Test
+    void takeFromANodeThatLeftReturnsNull() throws Exception {
+        b.close();
+        nodes.remove(b);
+        // Gone once its goodbye has arrived
+        long deadline = System.currentTimeMillis() + 5000;
+        List<TrackedItem> taken;
+        do {
+            taken = take(a, true).get(5, TimeUnit.SECONDS);
+        } while (taken != null && System.currentTimeMillis() < deadline);
+        assertNull(taken);
+        assertEquals(1, awaitView(a, v -> v.tracking().deaths().size() == 1).tracking().deaths().size());
+    }
+
+    @Test
+    void confirmedTakeIsNotPutBack() throws Exception {
+        assertEquals(1, take(a, false).get(5, TimeUnit.SECONDS).size());
+        a.close();
+        nodes.remove(a);
+        // b has forgotten a once a's death is gone from its view
+        awaitView(b, v -> v.tracking().deaths().size() == 1);
+        assertTrue(cacheB.peek(PLAYER).isEmpty());
+        assertFalse(delivered.containsKey("b"));
+    }
+
+    @Test
+    void unconfirmedTakeIsPutBackWhenTheTakerLeaves() throws Exception {
+        BlockingQueue<Received> received = new LinkedBlockingQueue<>();
+        InProcessSyncChannel raw = rawNode(received);
+        try {
+            raw.publish(message(NetworkSync.TAKE, "b", out -> {
+                out.writeLong(1);
+                writeUuid(out, PLAYER);
+                out.writeBoolean(false);
+                out.writeInt(1);
+                out.writeLong(DEATH_B);
+            }));
+            DataInputStream taken = awaitMessage(received, NetworkSync.TAKEN);
+            assertEquals(1, taken.readLong());
+            assertTrue(cacheB.peek(PLAYER).isEmpty());
+            // Leaves without confirming
+            raw.publish(message(NetworkSync.BYE, "", out -> { }));
+            await(() -> cacheB.peek(PLAYER).get(0) != null);
+            assertEquals(ItemState.DESPAWNED, cacheB.peek(PLAYER).get(0).getState());
+            assertFalse(delivered.containsKey("b"));
+        } finally {
+            raw.close();
+        }
+    }
+
+    @Test
+    void unmatchedTakenIsDeliveredAndConfirmed() throws Exception {
+        BlockingQueue<Received> received = new LinkedBlockingQueue<>();
+        InProcessSyncChannel raw = rawNode(received);
+        try {
+            TrackedItem item = new TrackedItem(Material.COBBLESTONE, 3, ItemState.DESPAWNED, null, new byte[] {4});
+            byte[] items = RecoveryFileFormat.encode(0, new StoredTracking(
+                    RecoveryPersistence.toStored(Collections.singletonList(item)), Collections.emptyList()), true);
+            raw.publish(message(NetworkSync.TAKEN, "a", out -> {
+                out.writeLong(99);
+                writeUuid(out, PLAYER);
+                out.writeInt(items.length);
+                out.write(items);
+            }));
+            assertEquals(99, awaitMessage(received, NetworkSync.CONFIRM).readLong());
+            await(() -> delivered.containsKey("a"));
+            assertEquals(Material.COBBLESTONE, delivered.get("a").get(0).getMaterial());
+        } finally {
+            raw.close();
+        }
+    }
+
+    private CompletableFuture<List<TrackedItem>> take(NetworkSync sync, boolean force) {
+        CompletableFuture<List<TrackedItem>> taken = new CompletableFuture<>();
+        sync.take("b", PLAYER, Collections.singletonList(DEATH_B), force, taken::complete);
+        return taken;
+    }
+
+    // Views until one matches, as a node only learns of the others over time
+    private static NetworkSync.View awaitView(NetworkSync sync, java.util.function.Predicate<NetworkSync.View> ready)
+            throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            CompletableFuture<NetworkSync.View> view = new CompletableFuture<>();
+            sync.view(PLAYER, view::complete);
+            NetworkSync.View v = view.get(5, TimeUnit.SECONDS);
+            if (ready.test(v)) return v;
+            if (System.currentTimeMillis() > deadline) fail("No matching view from " + sync.node());
+            Thread.sleep(50);
+        }
+    }
+
+    private NetworkSync node(String network, String name, TrackingCache cache) throws IOException {
+        NetworkSync sync = new NetworkSync(new InProcessSyncChannel(network), name, cache,
+                playerId -> saved.add(name), (playerId, items) -> delivered.put(name, items), Logger.getLogger("NetworkSyncTest"));
+        nodes.add(sync);
+        sync.start();
+        return sync;
+    }
+
+    // A node speaking the protocol by hand, as "x"; keeps the bodies of the messages sent to it
+    private InProcessSyncChannel rawNode(BlockingQueue<Received> received) {
+        InProcessSyncChannel channel = new InProcessSyncChannel(network);
+        channel.open(message -> {
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+                in.readInt();
+                in.readUnsignedByte();
+                int type = in.readUnsignedByte();
+                in.readUTF();
+                in.readLong();
+                if (!in.readUTF().equals("x")) return;
+                received.add(new Received(type, in));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return channel;
+    }
+
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] message(int type, String to, Body body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(NetworkSync.MAGIC);
+        out.writeByte(NetworkSync.VERSION);
+        out.writeByte(type);
+        out.writeUTF("x");
+        out.writeLong(42);
+        out.writeUTF(to);
+        body.write(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID id) throws IOException {
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+
+    private static final class Received {
+        final int type;
+        final DataInputStream body;
+
+        Received(int type, DataInputStream body) {
+            this.type = type;
+            this.body = body;
+        }
+    }
+
+    private static DataInputStream awaitMessage(BlockingQueue<Received> received, int type) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            Received message = received.poll(100, TimeUnit.MILLISECONDS);
+            if (message != null && message.type == type) return message.body;
+        }
+        return fail("No message of type " + type);
+    }
+
+    private static void await(java.util.function.BooleanSupplier done) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!done.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) fail("Timed out");
+            Thread.sleep(20);
+        }
+    }
+
+    private static TrackingCache cache() {
+        return new TrackingCache(playerId -> null, playerId -> true, playerId -> true, (playerId, tracking) -> { }, 10_000);
+    }
+
+    private static PlayerTracking death(long timestamp, Material material, ItemState state) {
+        TrackedItem item = new TrackedItem(material, 1, state, null, new byte[] {1, 2, 3});
+        return new PlayerTracking(Collections.singletonList(item),
+                Collections.singletonList(new DeathRecord(timestamp, 0, 1)));
+    }
+}
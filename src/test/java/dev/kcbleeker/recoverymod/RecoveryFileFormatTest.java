@@ -0,0 +1,200 @@
+package dev.kcbleeker.recoverymod;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecoveryFileFormatTest {
+    private static final long TIMESTAMP = 1_700_000_000_000L;
+
+    @TempDir
+    File folder;
+
+    @Test
+    void roundTripKeepsSlotsStatesAndDeaths() throws IOException {
+        for (boolean compress : new boolean[] {false, true}) {
+            StoredTracking read = RecoveryFileFormat.decode(RecoveryFileFormat.encode(TIMESTAMP, sample(), compress));
+            assertSameContents(sample(), read);
+        }
+    }
+
+    @Test
+    void writtenFileReadsBackWithItsTimestamp() throws IOException {
+        File file = new File(folder, "player" + RecoveryFileFormat.EXTENSION);
+        RecoveryFileFormat.write(file, TIMESTAMP, sample(), true);
+        assertEquals(TIMESTAMP, RecoveryFileFormat.readTimestamp(file));
+        assertSameContents(sample(), RecoveryFileFormat.read(file));
+    }
+
+    @Test
+    void repeatedPayloadIsWrittenOnceAndSharedOnRead() throws IOException {
+        byte[] payload = new byte[512];
+        new Random(1).nextBytes(payload);
+        List<StoredItem> shared = new ArrayList<>();
+        List<StoredItem> copies = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            shared.add(new StoredItem("DIRT", 64, ItemState.DESPAWNED, null, payload));
+            copies.add(new StoredItem("DIRT", 64, ItemState.DESPAWNED, null, payload.clone()));
+        }
+        byte[] sharedBytes = RecoveryFileFormat.encode(TIMESTAMP, tracking(shared), false);
+        byte[] copiedBytes = RecoveryFileFormat.encode(TIMESTAMP, tracking(copies), false);
+        assertTrue(sharedBytes.length + 3 * payload.length <= copiedBytes.length);
+
+        List<StoredItem> read = RecoveryFileFormat.decode(sharedBytes).getItems();
+        assertArrayEquals(payload, read.get(0).getPayload());
+        for (StoredItem item : read) assertSame(read.get(0).getPayload(), item.getPayload());
+    }
+
+    @Test
+    void readsVersion1() throws IOException {
+        UUID dropId = UUID.randomUUID();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = header(bytes, 1);
+        out.writeInt(3);
+        legacyItem(out, "STONE", 1, true, null, new byte[] {1});
+        legacyItem(out, "DIRT", 2, false, dropId, new byte[] {2});
+        legacyItem(out, "DIAMOND_SWORD", 3, false, null, new byte[] {3});
+
+        StoredTracking read = RecoveryFileFormat.decode(bytes.toByteArray());
+        List<StoredItem> items = read.getItems();
+        assertEquals(ItemState.DESPAWNED, items.get(0).getState());
+        assertEquals(ItemState.ON_GROUND, items.get(1).getState());
+        assertEquals(dropId, items.get(1).getDropId());
+        assertEquals(ItemState.UNKNOWN, items.get(2).getState());
+        assertArrayEquals(new byte[] {3}, items.get(2).getPayload());
+        assertSingleDeath(read, 3);
+    }
+
+    @Test
+    void readsVersion2WithEmptySlots() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = header(bytes, 2);
+        out.writeInt(3);
+        out.writeBoolean(true);
+        legacyItem(out, "STONE", 1, true, null, new byte[] {1});
+        out.writeBoolean(false);
+        out.writeBoolean(true);
+        legacyItem(out, "DIRT", 2, false, null, new byte[] {2});
+
+        StoredTracking read = RecoveryFileFormat.decode(bytes.toByteArray());
+        List<StoredItem> items = read.getItems();
+        assertEquals(3, items.size());
+        assertEquals(ItemState.DESPAWNED, items.get(0).getState());
+        assertNull(items.get(1));
+        assertEquals("DIRT", items.get(2).getMaterial());
+        assertSingleDeath(read, 3);
+    }
+
+    @Test
+    void readsVersion3States() throws IOException {
+        UUID dropId = UUID.randomUUID();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = header(bytes, 3);
+        out.writeInt(2);
+        out.writeBoolean(true);
+        out.writeUTF("STONE");
+        out.writeInt(5);
+        out.writeByte(ItemState.FROZEN.ordinal());
+        out.writeBoolean(true);
+        out.writeLong(dropId.getMostSignificantBits());
+        out.writeLong(dropId.getLeastSignificantBits());
+        out.writeInt(1);
+        out.write(7);
+        out.writeBoolean(false);
+
+        StoredTracking read = RecoveryFileFormat.decode(bytes.toByteArray());
+        StoredItem item = read.getItems().get(0);
+        assertEquals(ItemState.FROZEN, item.getState());
+        assertEquals(dropId, item.getDropId());
+        assertEquals(5, item.getAmount());
+        assertNull(read.getItems().get(1));
+        assertSingleDeath(read, 2);
+    }
+
+    @Test
+    void rejectsNewerVersionsAndOtherFiles() throws IOException {
+        ByteArrayOutputStream newer = new ByteArrayOutputStream();
+        header(newer, RecoveryFileFormat.VERSION + 1).writeInt(0);
+        assertThrows(IOException.class, () -> RecoveryFileFormat.decode(newer.toByteArray()));
+        assertThrows(IOException.class, () -> RecoveryFileFormat.decode(new byte[] {'n', 'o', 'p', 'e', 0, 0}));
+    }
+
+    // Two deaths, the first with an emptied slot, in every state
+    private static StoredTracking sample() {
+        List<StoredItem> items = new ArrayList<>();
+        items.add(new StoredItem("STONE", 64, ItemState.DESPAWNED, null, new byte[] {1, 2, 3}));
+        items.add(null);
+        items.add(new StoredItem("DIRT", 1, ItemState.ON_GROUND, new UUID(1, 2), new byte[] {4}));
+        items.add(new StoredItem("DIAMOND_SWORD", 1, ItemState.FROZEN, new UUID(3, 4), new byte[] {5, 6}));
+        items.add(new StoredItem("COBBLESTONE", 32, ItemState.UNKNOWN, null, new byte[0]));
+        List<DeathRecord> deaths = new ArrayList<>();
+        deaths.add(new DeathRecord(TIMESTAMP - 1000, 0, 3));
+        deaths.add(new DeathRecord(TIMESTAMP, 3, 5));
+        return new StoredTracking(items, deaths);
+    }
+
+    private static StoredTracking tracking(List<StoredItem> items) {
+        return new StoredTracking(items, new ArrayList<>(Collections.singletonList(new DeathRecord(TIMESTAMP, 0, items.size()))));
+    }
+
+    private static DataOutputStream header(ByteArrayOutputStream bytes, int version) throws IOException {
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(RecoveryFileFormat.MAGIC);
+        out.writeByte(version);
+        out.writeByte(0);
+        out.writeLong(TIMESTAMP);
+        return out;
+    }
+
+    // Versions 1 and 2 only recorded whether the item had despawned
+    private static void legacyItem(DataOutputStream out, String material, int amount, boolean despawned, UUID dropId,
+                                   byte[] payload) throws IOException {
+        out.writeUTF(material);
+        out.writeInt(amount);
+        out.writeBoolean(despawned);
+        out.writeBoolean(dropId != null);
+        if (dropId != null) {
+            out.writeLong(dropId.getMostSignificantBits());
+            out.writeLong(dropId.getLeastSignificantBits());
+        }
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    // Files before version 4 hold one death, at the header's timestamp
+    private static void assertSingleDeath(StoredTracking read, int slots) {
+        assertEquals(1, read.getDeaths().size());
+        DeathRecord death = read.getDeaths().get(0);
+        assertEquals(TIMESTAMP, death.getTimestamp());
+        assertEquals(0, death.getStart());
+        assertEquals(slots, death.getEnd());
+    }
+
+    private static void assertSameContents(StoredTracking expected, StoredTracking actual) {
+        assertEquals(expected.getItems().size(), actual.getItems().size());
+        for (int i = 0; i < expected.getItems().size(); i++) {
+            StoredItem e = expected.getItems().get(i);
+            StoredItem a = actual.getItems().get(i);
+            if (e == null) {
+                assertNull(a, "slot " + i);
+                continue;
+            }
+            assertEquals(e.getMaterial(), a.getMaterial());
+            assertEquals(e.getAmount(), a.getAmount());
+            assertEquals(e.getState(), a.getState());
+            assertEquals(e.getDropId(), a.getDropId());
+            assertArrayEquals(e.getPayload(), a.getPayload());
+        }
+        assertEquals(expected.getDeaths().size(), actual.getDeaths().size());
+        for (int i = 0; i < expected.getDeaths().size(); i++) {
+            DeathRecord e = expected.getDeaths().get(i);
+            DeathRecord a = actual.getDeaths().get(i);
+            assertEquals(e.getTimestamp(), a.getTimestamp());
+            assertEquals(e.getStart(), a.getStart());
+            assertEquals(e.getEnd(), a.getEnd());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package dev.kcbleeker.recoverymod;
+
+import org.bukkit.Material;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import dev.kcbleeker.recoverymod.RecoveryTracking.TrackedItem;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Moving a player's files to the archive and back
+class RecoveryPersistenceTest {
+    private static final UUID PLAYER = new UUID(5, 5);
+    private static final UUID DROP = new UUID(6, 6);
+    private static final long TIMESTAMP = 1_700_000_000_000L;
+
+    @TempDir
+    File folder;
+    private File inventory;
+    private File tracking;
+
+    @BeforeEach
+    void files() {
+        inventory = new File(folder, PLAYER + RecoveryFileFormat.EXTENSION);
+        tracking = new File(folder, PLAYER + "-tracking" + RecoveryFileFormat.EXTENSION);
+    }
+
+    @Test
+    void writeMovesTheArchivedPlayerBack() throws IOException {
+        RecoveryPersistence storage = archived();
+        storage.appendChanges(PLAYER, Collections.singletonList(TrackingJournal.Entry.despawned(DROP)));
+        assertTrue(inventory.exists());
+        assertTrue(tracking.exists());
+        assertTrue(packs().isEmpty());
+        assertEquals(ItemState.DESPAWNED, storage.loadTracking(PLAYER).get(0).getState());
+        assertEquals(TIMESTAMP, storage.getLastDeath(PLAYER));
+    }
+
+    @Test
+    void failedThawLeavesNoHotFilesAndTheWriteFails() throws IOException {
+        RecoveryPersistence storage = archived();
+        // The tracking snapshot can't be written aside, so the thaw fails after the death snapshot
+        File blocker = new File(folder, tracking.getName() + ".tmp");
+        assertTrue(blocker.mkdir());
+        List<TrackingJournal.Entry> change = Collections.singletonList(TrackingJournal.Entry.despawned(DROP));
+        assertThrows(IOException.class, () -> storage.appendChanges(PLAYER, change));
+        assertThrows(IOException.class, () -> storage.saveTracking(PLAYER, tracking()));
+        assertTrue(hotFiles().isEmpty());
+        assertNull(storage.getManifest().get(PLAYER));
+        assertEquals(1, packs().size());
+        // Still read from the archive, unchanged
+        assertEquals(ItemState.ON_GROUND, storage.loadTracking(PLAYER).get(0).getState());
+
+        // The same write, retried once the folder is writable again
+        assertTrue(blocker.delete());
+        storage.appendChanges(PLAYER, change);
+        assertTrue(packs().isEmpty());
+        PlayerTracking loaded = storage().loadTracking(PLAYER);
+        assertEquals(1, loaded.deaths().size());
+        assertEquals(ItemState.DESPAWNED, loaded.get(0).getState());
+    }
+
+    @Test
+    void reopenAfterCrashMidThawKeepsTheArchivedCopy() throws IOException {
+        RecoveryPersistence storage = storage();
+        save(storage);
+        byte[] inventoryBytes = Files.readAllBytes(inventory.toPath());
+        assertEquals(1, storage.archive(Collections.singleton(PLAYER), Long.MAX_VALUE));
+        // Only the death snapshot was back before the crash
+        Files.write(inventory.toPath(), inventoryBytes);
+
+        RecoveryPersistence reopened = storage();
+        assertTrue(hotFiles().isEmpty());
+        assertEquals(1, packs().size());
+        assertNotNull(reopened.loadTracking(PLAYER));
+        assertTrue(reopened.hasData(PLAYER));
+    }
+
+    @Test
+    void reopenAfterFinishedThawKeepsTheHotFiles() throws IOException {
+        RecoveryPersistence storage = storage();
+        save(storage);
+        byte[] inventoryBytes = Files.readAllBytes(inventory.toPath());
+        byte[] trackingBytes = Files.readAllBytes(tracking.toPath());
+        assertEquals(1, storage.archive(Collections.singleton(PLAYER), Long.MAX_VALUE));
+        // Both files were back, but the crash came before the player was taken out of the archive
+        Files.write(inventory.toPath(), inventoryBytes);
+        Files.write(tracking.toPath(), trackingBytes);
+
+        RecoveryPersistence reopened = storage();
+        assertTrue(packs().isEmpty());
+        assertEquals(2, hotFiles().size());
+        assertEquals(1, reopened.loadTracking(PLAYER).deaths().size());
+    }
+
+    private RecoveryPersistence archived() throws IOException {
+        RecoveryPersistence storage = storage();
+        save(storage);
+        assertEquals(1, storage.archive(Collections.singleton(PLAYER), Long.MAX_VALUE));
+        assertTrue(hotFiles().isEmpty());
+        assertEquals(1, packs().size());
+        return storage;
+    }
+
+    private static void save(RecoveryPersistence storage) throws IOException {
+        PlayerTracking tracking = tracking();
+        storage.saveInventory(PLAYER, tracking.slots(), TIMESTAMP);
+        storage.saveTracking(PLAYER, tracking);
+    }
+
+    private RecoveryPersistence storage() {
+        RecoveryPersistence storage = new RecoveryPersistence(folder, true, new RecoveryMetrics());
+        storage.open();
+        return storage;
+    }
+
+    private List<String> hotFiles() {
+        String[] names = folder.list((dir, name) -> name.endsWith(RecoveryFileFormat.EXTENSION) || name.endsWith(TrackingJournal.EXTENSION));
+        return Arrays.asList(names);
+    }
+
+    private List<String> packs() {
+        String[] names = new File(folder, RecoveryPersistence.ARCHIVE_FOLDER).list((dir, name) -> name.endsWith(ColdArchive.EXTENSION));
+        return names == null ? Collections.emptyList() : Arrays.asList(names);
+    }
+
+    private static PlayerTracking tracking() {
+        TrackedItem item = new TrackedItem(Material.STONE, 1, ItemState.ON_GROUND, DROP, new byte[] {1, 2, 3});
+        return new PlayerTracking(Collections.singletonList(item),
+                Collections.singletonList(new DeathRecord(TIMESTAMP, 0, 1)));
+    }
+}
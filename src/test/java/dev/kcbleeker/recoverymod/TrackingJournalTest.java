@@ -0,0 +1,167 @@
+package dev.kcbleeker.recoverymod;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrackingJournalTest {
+    private static final UUID DROP_A = new UUID(0, 1);
+    private static final UUID DROP_B = new UUID(0, 2);
+    private static final UUID DROP_C = new UUID(0, 3);
+
+    @TempDir
+    File folder;
+
+    @Test
+    void replayAppliesEveryChange() throws IOException {
+        File journal = journal();
+        TrackingJournal.append(journal, Arrays.asList(
+                TrackingJournal.Entry.despawned(DROP_A),
+                TrackingJournal.Entry.merged(DROP_B, DROP_C),
+                TrackingJournal.Entry.dropAssigned(3, new UUID(0, 4))));
+        TrackingJournal.append(journal, Arrays.asList(
+                TrackingJournal.Entry.frozen(DROP_C, true),
+                TrackingJournal.Entry.lost(new UUID(0, 4))));
+
+        StoredTracking stored = replay(journal);
+        List<StoredItem> items = stored.getItems();
+        assertEquals(ItemState.DESPAWNED, items.get(0).getState());
+        assertNull(items.get(0).getDropId());
+        assertNull(items.get(1));
+        assertEquals(ItemState.FROZEN, items.get(2).getState());
+        assertEquals(3, items.get(2).getAmount());
+        assertEquals(ItemState.UNKNOWN, items.get(3).getState());
+        assertNull(items.get(3).getDropId());
+    }
+
+    @Test
+    void truncatedTailIsIgnored() throws IOException {
+        File journal = journal();
+        TrackingJournal.append(journal, Collections.singletonList(TrackingJournal.Entry.despawned(DROP_A)));
+        long complete = journal.length();
+        TrackingJournal.append(journal, Collections.singletonList(TrackingJournal.Entry.pickedUp(DROP_B)));
+        // Every cut inside the second frame leaves just the first entry
+        for (long cut = complete + 1; cut < journal.length(); cut++) {
+            File torn = copy(journal, cut);
+            List<TrackingJournal.Entry> entries = TrackingJournal.read(torn);
+            assertEquals(1, entries.size(), "cut at " + cut);
+            assertEquals(TrackingJournal.Op.DESPAWNED, entries.get(0).getOp());
+        }
+        StoredTracking stored = replay(copy(journal, complete + 3));
+        assertEquals(ItemState.DESPAWNED, stored.getItems().get(0).getState());
+        assertNotNull(stored.getItems().get(1));
+    }
+
+    @Test
+    void corruptTailIsIgnored() throws IOException {
+        File journal = journal();
+        TrackingJournal.append(journal, Collections.singletonList(TrackingJournal.Entry.despawned(DROP_A)));
+        long complete = journal.length();
+        TrackingJournal.append(journal, Collections.singletonList(TrackingJournal.Entry.pickedUp(DROP_B)));
+        byte[] bytes = Files.readAllBytes(journal.toPath());
+
+        byte[] badPayload = bytes.clone();
+        badPayload[badPayload.length - 1] ^= 0x55;
+        assertEquals(1, TrackingJournal.read(write(badPayload)).size());
+
+        // A length pointing past the end of the file, as a half-written long frame would
+        byte[] badLength = bytes.clone();
+        badLength[(int) complete] = (byte) 0xFF;
+        badLength[(int) complete + 1] = (byte) 0xFF;
+        assertEquals(1, TrackingJournal.read(write(badLength)).size());
+
+        byte[] garbage = Arrays.copyOf(bytes, bytes.length + 7);
+        Arrays.fill(garbage, bytes.length, garbage.length, (byte) 0x42);
+        assertEquals(2, TrackingJournal.read(write(garbage)).size());
+    }
+
+    @Test
+    void largeDeathUsesLongFrameAndReplays() throws IOException {
+        byte[] payload = new byte[70_000];
+        new Random(7).nextBytes(payload);
+        byte[] other = new byte[40];
+        List<StoredItem> items = Arrays.asList(
+                new StoredItem("SHULKER_BOX", 1, ItemState.UNKNOWN, null, payload),
+                new StoredItem("SHULKER_BOX", 1, ItemState.UNKNOWN, null, payload),
+                new StoredItem("STONE", 9, ItemState.UNKNOWN, null, other));
+        File journal = journal();
+        StoredTracking before = snapshot();
+        long kept = before.getDeaths().get(0).getTimestamp();
+        TrackingJournal.append(journal, Collections.singletonList(
+                TrackingJournal.Entry.death(kept + 10, items, before.getDeaths())));
+        long complete = journal.length();
+        TrackingJournal.append(journal, Collections.singletonList(TrackingJournal.Entry.despawned(DROP_A)));
+
+        StoredTracking stored = replay(journal);
+        assertEquals(2, stored.getDeaths().size());
+        DeathRecord death = stored.getDeaths().get(1);
+        assertEquals(kept + 10, death.getTimestamp());
+        assertEquals(4, death.getStart());
+        assertEquals(7, death.getEnd());
+        assertArrayEquals(payload, stored.getItems().get(4).getPayload());
+        // Written once, read back as one array
+        assertSame(stored.getItems().get(4).getPayload(), stored.getItems().get(5).getPayload());
+        assertEquals(ItemState.DESPAWNED, stored.getItems().get(0).getState());
+
+        // Torn inside the long frame: the death is dropped along with everything after it
+        assertTrue(TrackingJournal.read(copy(journal, complete - 100)).isEmpty());
+    }
+
+    @Test
+    void deathDropsDeathsItDidNotKeep() throws IOException {
+        StoredTracking stored = snapshot();
+        long first = stored.getDeaths().get(0).getTimestamp();
+        StoredItem item = new StoredItem("DIRT", 1, ItemState.UNKNOWN, null, new byte[] {9});
+        TrackingJournal.Entry.death(first + 10, Collections.singletonList(item), Collections.emptyList()).apply(stored);
+        assertEquals(1, stored.getDeaths().size());
+        assertEquals(1, stored.getItems().size());
+        assertEquals(0, stored.getDeaths().get(0).getStart());
+        assertEquals("DIRT", stored.getItems().get(0).getMaterial());
+    }
+
+    @Test
+    void encodedEntryRoundTrips() throws IOException {
+        TrackingJournal.Entry entry = TrackingJournal.decode(TrackingJournal.encode(TrackingJournal.Entry.merged(DROP_B, DROP_C)));
+        assertEquals(TrackingJournal.Op.MERGED, entry.getOp());
+        StoredTracking stored = snapshot();
+        entry.apply(stored);
+        assertNull(stored.getItems().get(1));
+        assertEquals(3, stored.getItems().get(2).getAmount());
+    }
+
+    // One death: a despawned-to-be drop, two drops that merge, and an unassigned slot
+    private static StoredTracking snapshot() {
+        List<StoredItem> items = new ArrayList<>();
+        items.add(new StoredItem("STONE", 1, ItemState.ON_GROUND, DROP_A, new byte[] {1}));
+        items.add(new StoredItem("DIRT", 1, ItemState.ON_GROUND, DROP_B, new byte[] {2}));
+        items.add(new StoredItem("DIRT", 2, ItemState.ON_GROUND, DROP_C, new byte[] {2}));
+        items.add(new StoredItem("COBBLESTONE", 4, ItemState.UNKNOWN, null, new byte[] {3}));
+        List<DeathRecord> deaths = new ArrayList<>();
+        deaths.add(new DeathRecord(1_700_000_000_000L, 0, items.size()));
+        return new StoredTracking(items, deaths);
+    }
+
+    private static StoredTracking replay(File journal) throws IOException {
+        StoredTracking stored = snapshot();
+        for (TrackingJournal.Entry entry : TrackingJournal.read(journal)) entry.apply(stored);
+        return stored;
+    }
+
+    private File journal() {
+        return new File(folder, "player" + TrackingJournal.EXTENSION);
+    }
+
+    private File copy(File journal, long length) throws IOException {
+        return write(Arrays.copyOf(Files.readAllBytes(journal.toPath()), (int) length));
+    }
+
+    private File write(byte[] bytes) throws IOException {
+        File file = File.createTempFile("torn", TrackingJournal.EXTENSION, folder);
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+}